@@ -21,16 +21,23 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public class CCIndexReaderCounter {
     AtomicLong recordsRead = new AtomicLong(0);
+    AtomicLong recordsSelected = new AtomicLong(0);
     AtomicLong filesExtracted = new AtomicLong(0);
     AtomicLong truncated = new AtomicLong(0);
     AtomicLong emptyPayload = new AtomicLong(0);
     AtomicLong indexFilesCompleted = new AtomicLong(0);
     private int totalIndexFiles = -1;
+    // set once a record processor has asked to stop, e.g. at maxFilesExtracted
+    private volatile boolean stopped = false;
 
     public AtomicLong getRecordsRead() {
         return recordsRead;
     }
 
+    public AtomicLong getRecordsSelected() {
+        return recordsSelected;
+    }
+
     public AtomicLong getFilesExtracted() {
         return filesExtracted;
     }
@@ -47,6 +54,15 @@ public class CCIndexReaderCounter {
         return indexFilesCompleted;
     }
 
+    /** Records that the run is stopping, so nothing more should be handed out to read. */
+    public void stop() {
+        stopped = true;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
     public int getTotalIndexFiles() {
         return totalIndexFiles;
     }
@@ -85,6 +101,8 @@ public class CCIndexReaderCounter {
         return "CCIndexReaderCounter{"
                 + "recordsRead="
                 + recordsRead
+                + ", recordsSelected="
+                + recordsSelected
                 + ", filesExtracted="
                 + filesExtracted
                 + ", truncated="
@@ -16,6 +16,7 @@
  */
 package org.tallison.cc.index;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -60,6 +61,11 @@ public class CCIndexRecord {
     private String languages;
     private String truncated;
     private String redirect;
+    // from the start of the cdx line, not the json
+    @JsonIgnore
+    private String surtKey;
+    @JsonIgnore
+    private String timestamp;
 
     public static String normalizeMime(String s) {
         if (s == null) {
@@ -114,12 +120,19 @@ public class CCIndexRecord {
             return Optional.empty();
         }
         String json = row.substring(dateI + 1);
+        Optional<CCIndexRecord> record;
         try {
-            return Optional.of(OBJECT_MAPPER.readValue(json, CCIndexRecord.class));
+            record = Optional.of(OBJECT_MAPPER.readValue(json, CCIndexRecord.class));
         } catch (JsonProcessingException e) {
             LOGGER.warn("mapping exception, trying repair: {}", row);
-            return tryRepair(json);
+            record = tryRepair(json);
         }
+        record.ifPresent(
+                r -> {
+                    r.surtKey = row.substring(0, urlI);
+                    r.timestamp = row.substring(urlI + 1, dateI);
+                });
+        return record;
     }
 
     private static Optional<CCIndexRecord> tryRepair(String jsonPart) {
@@ -154,9 +167,37 @@ public class CCIndexRecord {
         return url;
     }
 
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    /**
+     * @return the SURT key from the start of the index line, e.g. com,example)/a.html, or null
+     *     if the record wasn't parsed from a whole index line
+     */
+    public String getSurtKey() {
+        return surtKey;
+    }
+
+    void setSurtKey(String surtKey) {
+        this.surtKey = surtKey;
+    }
+
+    /**
+     * @return the 14 digit capture timestamp from the index line, e.g. 20240722120756, or null
+     *     if the record wasn't parsed from a whole index line
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+
     public String getHost() {
         try {
-            URL u = new URL(url);
+            URL u = new URL(getUrl());
             return u.getHost();
         } catch (MalformedURLException e) {
             return "";
@@ -172,11 +213,11 @@ public class CCIndexRecord {
     }
 
     public String getNormalizedMime() {
-        return CCIndexRecord.normalizeMime(mime);
+        return CCIndexRecord.normalizeMime(getMime());
     }
 
     public String getNormalizedMimeDetected() {
-        return CCIndexRecord.normalizeMime(mimeDetected);
+        return CCIndexRecord.normalizeMime(getMimeDetected());
     }
 
     public Integer getStatus() {
@@ -231,10 +272,18 @@ public class CCIndexRecord {
         return charset;
     }
 
+    public void setCharset(String charset) {
+        this.charset = charset;
+    }
+
     public String getLanguages() {
         return languages;
     }
 
+    public void setLanguages(String languages) {
+        this.languages = languages;
+    }
+
     public String getTruncated() {
         return truncated;
     }
@@ -252,44 +301,44 @@ public class CCIndexRecord {
     }
 
     public String getOffsetHeader() {
-        return "bytes=" + offset + "-" + (offset + length - 1);
+        return "bytes=" + getOffset() + "-" + (getOffset() + getLength() - 1);
     }
 
     @Override
     public String toString() {
         return "CCIndexRecord{"
                 + "url='"
-                + url
+                + getUrl()
                 + '\''
                 + ", mime='"
-                + mime
+                + getMime()
                 + '\''
                 + ", mimeDetected='"
-                + mimeDetected
+                + getMimeDetected()
                 + '\''
                 + ", status="
-                + status
+                + getStatus()
                 + ", digest='"
-                + digest
+                + getDigest()
                 + '\''
                 + ", length="
-                + length
+                + getLength()
                 + ", offset="
-                + offset
+                + getOffset()
                 + ", filename='"
-                + filename
+                + getFilename()
                 + '\''
                 + ", charset='"
-                + charset
+                + getCharset()
                 + '\''
                 + ", languages='"
-                + languages
+                + getLanguages()
                 + '\''
                 + ", truncated='"
-                + truncated
+                + getTruncated()
                 + '\''
                 + ", redirect='"
-                + redirect
+                + getRedirect()
                 + '\''
                 + '}';
     }
@@ -0,0 +1,431 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses an index line in place, straight from the decompressed bytes:
+ *
+ * <pre>
+ * com,example)/ 20240722120756 {"url": "https://example.com/", "mime": "text/html", ...}
+ * </pre>
+ *
+ * {@link #parse} only finds where the SURT key, the timestamp and the value of each known
+ * json field start and end; a value is turned into a String (or number) when it's asked for.
+ * Compared to {@link CCIndexRecord#parseRecord(String)}, that skips the String for the line,
+ * the substring for the json and Jackson.
+ *
+ * <p>Only the flat json objects that Common Crawl writes are handled. For anything else,
+ * e.g. the trailing garbage that {@link CCIndexRecord#parseRecord(String)} repairs, parse
+ * returns false and the caller should fall back to parseRecord.
+ *
+ * <p>An instance is reused from line to line and is not thread safe. The values are read
+ * from the caller's buffer, so they must be asked for before the buffer is reused.
+ */
+public class CdxLineParser {
+
+    /** The json fields of an index line. */
+    public enum Field {
+        URL("url"),
+        MIME("mime"),
+        MIME_DETECTED("mime-detected"),
+        STATUS("status"),
+        DIGEST("digest"),
+        LENGTH("length"),
+        OFFSET("offset"),
+        FILENAME("filename"),
+        CHARSET("charset"),
+        LANGUAGES("languages"),
+        TRUNCATED("truncated"),
+        REDIRECT("redirect");
+
+        private static final Field[] FIELDS = values();
+
+        private final String jsonName;
+        private final byte[] nameBytes;
+
+        Field(String jsonName) {
+            this.jsonName = jsonName;
+            this.nameBytes = jsonName.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        public String getJsonName() {
+            return jsonName;
+        }
+    }
+
+    private static final int NUM_FIELDS = Field.FIELDS.length;
+
+    private byte[] buf;
+    private int lineStart;
+    private int lineEnd;
+    private int surtEnd;
+    private int timestampEnd;
+
+    // per field: where the value starts and ends in buf; -1 if the field isn't in the line
+    private final int[] valueStart = new int[NUM_FIELDS];
+    private final int[] valueEnd = new int[NUM_FIELDS];
+    // whether the value has backslash escapes
+    private final boolean[] escaped = new boolean[NUM_FIELDS];
+    private final String[] decoded = new String[NUM_FIELDS];
+
+    private String surtKey;
+    private String timestamp;
+    private String line;
+
+    /**
+     * @return false if the line can't be parsed in place, e.g. if a numeric field isn't a
+     *     number; the caller should fall back to {@link CCIndexRecord#parseRecord(String)}
+     */
+    public boolean parse(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.lineStart = offset;
+        this.lineEnd = offset + length;
+        Arrays.fill(valueStart, -1);
+        Arrays.fill(decoded, null);
+        surtKey = null;
+        timestamp = null;
+        line = null;
+
+        surtEnd = indexOf((byte) ' ', lineStart);
+        if (surtEnd < 0) {
+            return false;
+        }
+        timestampEnd = indexOf((byte) ' ', surtEnd + 1);
+        if (timestampEnd < 0) {
+            return false;
+        }
+        return parseJson(timestampEnd + 1)
+                && isNumber(Field.STATUS, Integer.MAX_VALUE)
+                && isNumber(Field.LENGTH, Long.MAX_VALUE)
+                && isNumber(Field.OFFSET, Integer.MAX_VALUE);
+    }
+
+    // CCIndexRecord's numeric fields; leave anything but plain numbers to Jackson
+    private boolean isNumber(Field field, long max) {
+        long v = getLong(field);
+        return v == -1 || (v >= 0 && v <= max);
+    }
+
+    /** @return the SURT key at the start of the line, e.g. com,example)/a.html */
+    public String getSurtKey() {
+        if (surtKey == null) {
+            surtKey = new String(buf, lineStart, surtEnd - lineStart, StandardCharsets.UTF_8);
+        }
+        return surtKey;
+    }
+
+    /** @return the 14 digit timestamp after the SURT key */
+    public String getTimestamp() {
+        if (timestamp == null) {
+            timestamp =
+                    new String(
+                            buf,
+                            surtEnd + 1,
+                            timestampEnd - surtEnd - 1,
+                            StandardCharsets.US_ASCII);
+        }
+        return timestamp;
+    }
+
+    /** @return the value of the field, or null if it isn't in the line or is json null */
+    public String get(Field field) {
+        int i = field.ordinal();
+        if (valueStart[i] < 0) {
+            return null;
+        }
+        if (decoded[i] == null) {
+            decoded[i] = decode(i);
+        }
+        return decoded[i];
+    }
+
+    /** @return whether the field is in the line */
+    public boolean has(Field field) {
+        return valueStart[field.ordinal()] > -1;
+    }
+
+    /**
+     * Reads a numeric field without decoding it to a String first.
+     *
+     * @return the value, -1 if the field isn't in the line, or -2 if it isn't a non-negative
+     *     number that fits in a long
+     */
+    public long getLong(Field field) {
+        int i = field.ordinal();
+        int start = valueStart[i];
+        if (start < 0) {
+            return -1;
+        }
+        int end = valueEnd[i];
+        if (start == end || end - start > 18) {
+            return -2;
+        }
+        long v = 0;
+        for (int p = start; p < end; p++) {
+            int d = buf[p] - '0';
+            if (d < 0 || d > 9) {
+                return -2;
+            }
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    /** @return the whole line, e.g. to log it or write it back out */
+    public String getLine() {
+        if (line == null) {
+            line = new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+        }
+        return line;
+    }
+
+    /**
+     * Decodes all the fields into a record.
+     *
+     * @see LazyCCIndexRecord for a view that decodes the fields as they are asked for
+     */
+    public CCIndexRecord toRecord() {
+        CCIndexRecord r = new CCIndexRecord();
+        if (has(Field.STATUS)) {
+            r.setStatus((int) getLong(Field.STATUS));
+        }
+        if (has(Field.LENGTH)) {
+            r.setLength(getLong(Field.LENGTH));
+        }
+        if (has(Field.OFFSET)) {
+            r.setOffset((int) getLong(Field.OFFSET));
+        }
+        r.setUrl(get(Field.URL));
+        r.setMime(get(Field.MIME));
+        r.setMimeDetected(get(Field.MIME_DETECTED));
+        r.setDigest(get(Field.DIGEST));
+        r.setFilename(get(Field.FILENAME));
+        r.setCharset(get(Field.CHARSET));
+        r.setLanguages(get(Field.LANGUAGES));
+        r.setTruncated(get(Field.TRUNCATED));
+        r.setRedirect(get(Field.REDIRECT));
+        r.setSurtKey(getSurtKey());
+        r.setTimestamp(getTimestamp());
+        return r;
+    }
+
+    private boolean parseJson(int jsonStart) {
+        int p = skipWhitespace(jsonStart);
+        if (p >= lineEnd || buf[p] != '{') {
+            return false;
+        }
+        p = skipWhitespace(p + 1);
+        if (p < lineEnd && buf[p] == '}') {
+            return skipWhitespace(p + 1) == lineEnd;
+        }
+        while (p < lineEnd) {
+            // key
+            if (buf[p] != '"') {
+                return false;
+            }
+            int keyStart = p + 1;
+            int keyEnd = keyStart;
+            while (keyEnd < lineEnd && buf[keyEnd] != '"') {
+                if (buf[keyEnd] == '\\') {
+                    // Common Crawl doesn't escape keys; leave these to Jackson
+                    return false;
+                }
+                keyEnd++;
+            }
+            if (keyEnd >= lineEnd) {
+                return false;
+            }
+            p = skipWhitespace(keyEnd + 1);
+            if (p >= lineEnd || buf[p] != ':') {
+                return false;
+            }
+            p = skipWhitespace(p + 1);
+            if (p >= lineEnd) {
+                return false;
+            }
+            int field = findField(keyStart, keyEnd);
+            // value
+            int start;
+            int end;
+            boolean hasEscapes = false;
+            boolean isQuoted = buf[p] == '"';
+            if (isQuoted) {
+                start = p + 1;
+                end = start;
+                while (end < lineEnd && buf[end] != '"') {
+                    if (buf[end] == '\\') {
+                        hasEscapes = true;
+                        end++;
+                    }
+                    end++;
+                }
+                if (end >= lineEnd) {
+                    return false;
+                }
+                p = end + 1;
+            } else {
+                start = p;
+                end = p;
+                while (end < lineEnd && isLiteralByte(buf[end])) {
+                    end++;
+                }
+                if (end == start) {
+                    // a nested object or array
+                    return false;
+                }
+                p = end;
+            }
+            if (field > -1) {
+                if (!isQuoted && end - start == 4 && matches(start, "null")) {
+                    valueStart[field] = -1;
+                } else {
+                    valueStart[field] = start;
+                    valueEnd[field] = end;
+                    escaped[field] = hasEscapes;
+                }
+            }
+            p = skipWhitespace(p);
+            if (p >= lineEnd) {
+                return false;
+            }
+            if (buf[p] == '}') {
+                return skipWhitespace(p + 1) == lineEnd;
+            }
+            if (buf[p] != ',') {
+                return false;
+            }
+            p = skipWhitespace(p + 1);
+        }
+        return false;
+    }
+
+    private String decode(int field) {
+        int start = valueStart[field];
+        int end = valueEnd[field];
+        if (!escaped[field]) {
+            return new String(buf, start, end - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        int run = start;
+        int p = start;
+        while (p < end) {
+            if (buf[p] != '\\') {
+                p++;
+                continue;
+            }
+            sb.append(new String(buf, run, p - run, StandardCharsets.UTF_8));
+            byte c = p + 1 < end ? buf[p + 1] : (byte) '\\';
+            p += 2;
+            switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    int codeUnit = p + 4 <= end ? parseHex(p) : -1;
+                    if (codeUnit < 0) {
+                        sb.append("\\u");
+                    } else {
+                        // surrogate pairs come as two escapes and are joined by the builder
+                        sb.append((char) codeUnit);
+                        p += 4;
+                    }
+                    break;
+                default:
+                    // \" \\ \/
+                    sb.append((char) c);
+            }
+            run = p;
+        }
+        sb.append(new String(buf, run, end - run, StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+
+    /** @return the 4 hex digits at p, or -1 if they aren't hex digits */
+    private int parseHex(int p) {
+        int v = 0;
+        for (int i = p; i < p + 4; i++) {
+            int d = Character.digit(buf[i], 16);
+            if (d < 0) {
+                return -1;
+            }
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    private int findField(int keyStart, int keyEnd) {
+        int len = keyEnd - keyStart;
+        for (Field f : Field.FIELDS) {
+            if (f.nameBytes.length == len
+                    && Arrays.equals(buf, keyStart, keyEnd, f.nameBytes, 0, len)) {
+                return f.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int start, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buf[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte b, int from) {
+        for (int i = from; i < lineEnd; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < lineEnd
+                && (buf[p] == ' ' || buf[p] == '\t' || buf[p] == '\r' || buf[p] == '\n')) {
+            p++;
+        }
+        return p;
+    }
+
+    // the bytes of a bare json number, true, false or null
+    private static boolean isLiteralByte(byte b) {
+        return (b >= '0' && b <= '9')
+                || (b >= 'a' && b <= 'z')
+                || b == '-'
+                || b == '+'
+                || b == '.'
+                || b == 'E';
+    }
+}
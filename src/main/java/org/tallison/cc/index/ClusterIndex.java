@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tika.pipes.fetcher.FetchKey;
+
+/**
+ * The block boundaries of a crawl's index files, from its {@code cluster.idx}. Each line of
+ * cluster.idx describes one gzip member (block) of a few thousand lines:
+ *
+ * <pre>
+ * 0,100,22,165)/ 20240722120756\tcdx-00000.gz\t0\t188224\t1
+ * </pre>
+ *
+ * i.e. the SURT key and timestamp of the block's first line, the index file, and the
+ * compressed offset and length of the block. The lines of all index files are sorted by SURT
+ * key, so a block holds the keys from its own first key up to the next block's.
+ *
+ * <p>This turns the blocks into work units: only the blocks that can hold keys with one of the
+ * given SURT prefixes (all blocks, if there are none), merged into byte ranges of at most a
+ * given number of consecutive blocks. That way the work can be spread over more threads than
+ * there are index files, and a selector that only wants a few hosts reads only their blocks.
+ */
+public class ClusterIndex {
+
+    public static final String CLUSTER_IDX = "cluster.idx";
+
+    // index file name -> {start, end (inclusive)} of its work units
+    private final Map<String, List<long[]>> workUnits = new HashMap<>();
+    private final int blocksPerWorkUnit;
+    private final List<String> surtPrefixes;
+    private long blocks = 0;
+    private long selectedBlocks = 0;
+
+    // the work unit being built
+    private String unitFile;
+    private long unitStart = -1;
+    private long unitEnd = -1;
+    private int unitBlocks = 0;
+
+    private ClusterIndex(int blocksPerWorkUnit, List<String> surtPrefixes) {
+        this.blocksPerWorkUnit = blocksPerWorkUnit;
+        this.surtPrefixes = surtPrefixes;
+    }
+
+    /**
+     * @param reader a cluster.idx
+     * @param blocksPerWorkUnit the most blocks in a work unit; -1 for no limit
+     * @param surtPrefixes only select the blocks that can hold keys with one of these prefixes;
+     *     null to select all blocks
+     */
+    public static ClusterIndex load(
+            BufferedReader reader, int blocksPerWorkUnit, List<String> surtPrefixes)
+            throws IOException {
+        ClusterIndex clusterIndex = new ClusterIndex(blocksPerWorkUnit, surtPrefixes);
+        // a block's last key is only known once the next block has been read
+        Block last = null;
+        String line = reader.readLine();
+        while (line != null) {
+            Block block = Block.parse(line);
+            if (last != null) {
+                if (block.file.equals(last.file) && block.offset <= last.offset) {
+                    throw new IOException("cluster.idx offsets out of order for " + block.file);
+                }
+                clusterIndex.add(last, block);
+            }
+            last = block;
+            line = reader.readLine();
+        }
+        if (last != null) {
+            clusterIndex.add(last, null);
+        }
+        clusterIndex.closeWorkUnit();
+        return clusterIndex;
+    }
+
+    private void add(Block block, Block next) {
+        blocks++;
+        workUnits.computeIfAbsent(block.file, k -> new ArrayList<>());
+        if (!isSelected(block.key, next == null ? null : next.key)) {
+            closeWorkUnit();
+            return;
+        }
+        selectedBlocks++;
+        if (!block.file.equals(unitFile)
+                || (blocksPerWorkUnit > 0 && unitBlocks >= blocksPerWorkUnit)) {
+            closeWorkUnit();
+        }
+        if (unitFile == null) {
+            unitFile = block.file;
+            unitStart = block.offset;
+        }
+        unitBlocks++;
+        // the last block of a file runs to its end
+        unitEnd =
+                next != null && next.file.equals(block.file) ? next.offset - 1 : Long.MAX_VALUE;
+    }
+
+    private void closeWorkUnit() {
+        if (unitFile != null) {
+            workUnits.get(unitFile).add(new long[] {unitStart, unitEnd});
+        }
+        unitFile = null;
+        unitBlocks = 0;
+    }
+
+    /**
+     * @param firstKey the block's first key
+     * @param nextKey the next block's first key; null for the last block
+     */
+    private boolean isSelected(String firstKey, String nextKey) {
+        if (surtPrefixes == null) {
+            return true;
+        }
+        for (String prefix : surtPrefixes) {
+            if (firstKey.startsWith(prefix)) {
+                return true;
+            }
+            // the prefix sorts inside the block
+            if (firstKey.compareTo(prefix) < 0
+                    && (nextKey == null || nextKey.compareTo(prefix) >= 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param indexFile the path of an index file, e.g. .../indexes/cdx-00000.gz
+     * @return the fetch keys of the index file's work units, in order; an empty list if none of
+     *     its blocks were selected, or null if the index file isn't in this cluster.idx. The last
+     *     block of a file runs to the end of the file.
+     */
+    public List<FetchKey> getWorkUnits(String indexFile) {
+        List<long[]> ranges = workUnits.get(getFileName(indexFile));
+        if (ranges == null) {
+            return null;
+        }
+        List<FetchKey> fetchKeys = new ArrayList<>();
+        for (long[] range : ranges) {
+            fetchKeys.add(new FetchKey("", indexFile, range[0], range[1]));
+        }
+        return fetchKeys;
+    }
+
+    /** @return the number of blocks in the cluster.idx */
+    public long getBlockCount() {
+        return blocks;
+    }
+
+    /** @return the number of blocks that are in a work unit */
+    public long getSelectedBlockCount() {
+        return selectedBlocks;
+    }
+
+    /** @return the path of the cluster.idx next to the index file */
+    public static String getClusterIndexPath(String indexFile) {
+        int i = indexFile.lastIndexOf('/');
+        return i < 0 ? CLUSTER_IDX : indexFile.substring(0, i + 1) + CLUSTER_IDX;
+    }
+
+    private static String getFileName(String indexFile) {
+        int i = indexFile.lastIndexOf('/');
+        return i < 0 ? indexFile : indexFile.substring(i + 1);
+    }
+
+    private static class Block {
+        private final String key;
+        private final String file;
+        private final long offset;
+
+        private Block(String key, String file, long offset) {
+            this.key = key;
+            this.file = file;
+            this.offset = offset;
+        }
+
+        private static Block parse(String line) throws IOException {
+            String[] cols = line.split("\t");
+            if (cols.length < 4) {
+                throw new IOException("bad cluster.idx line: " + line);
+            }
+            try {
+                return new Block(cols[0], cols[1], Long.parseLong(cols[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("bad offset in cluster.idx line: " + line);
+            }
+        }
+    }
+}
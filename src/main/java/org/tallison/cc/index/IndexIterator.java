@@ -18,6 +18,8 @@ package org.tallison.cc.index;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -27,8 +29,15 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -53,6 +62,10 @@ import org.apache.tika.pipes.pipesiterator.PipesIterator;
 
 public class IndexIterator extends PipesIterator implements Initializable {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexIterator.class);
+
+    private static final long SAMPLE_POLL_MILLIS = 1000;
+
     // temporary storage of the paths this class was constructed with.
     // During initialization, we figure out if these are index list paths
     // or literal index file paths.
@@ -63,6 +76,21 @@ public class IndexIterator extends PipesIterator implements Initializable {
 
     int maxIndexFiles = -1;
     int skipIndexFiles = 0;
+    // -1: each index file is a single work unit
+    int blocksPerWorkUnit = -1;
+    // null: read every block of every index file
+    private List<String> surtPrefixes = null;
+    // null: read all of the work units
+    private IndexSample sample;
+    // how the sample is going; null if there's no way to tell
+    private CCIndexReaderCounter counter;
+
+    // the index files after skipIndexFiles and maxIndexFiles, split into work units
+    private final List<FetchKey> workUnits = new ArrayList<>();
+    // the same work units, grouped into the units that are sampled
+    private final List<List<FetchKey>> sampleUnits = new ArrayList<>();
+    // the sample's tuples; null if there's no sample or it hasn't been iterated yet
+    private ArrayBlockingQueue<FetchEmitTuple> sampleQueue;
 
     @JsonCreator
     public IndexIterator(
@@ -70,7 +98,9 @@ public class IndexIterator extends PipesIterator implements Initializable {
             @JsonProperty("basePath") String basePath,
             @JsonProperty("paths") List<String> indexPaths,
             @JsonProperty("maxIndexFiles") Integer maxIndexFiles,
-            @JsonProperty("skipIndexFiles") Integer skipIndexFiles) {
+            @JsonProperty("skipIndexFiles") Integer skipIndexFiles,
+            @JsonProperty("blocksPerWorkUnit") Integer blocksPerWorkUnit,
+            @JsonProperty("sample") IndexSample sample) {
         if (profile != null) {
             fetcher = new S3Fetcher();
             ((S3Fetcher) fetcher).setProfile(profile);
@@ -93,6 +123,10 @@ public class IndexIterator extends PipesIterator implements Initializable {
         if (skipIndexFiles != null) {
             this.skipIndexFiles = skipIndexFiles;
         }
+        if (blocksPerWorkUnit != null) {
+            this.blocksPerWorkUnit = blocksPerWorkUnit;
+        }
+        this.sample = sample;
     }
 
     private static void resolveIndexList(
@@ -126,24 +160,98 @@ public class IndexIterator extends PipesIterator implements Initializable {
 
     @Override
     protected void enqueue() throws IOException, TimeoutException, InterruptedException {
-        int added = 0;
-        int skipped = 0;
-        for (String p : resolvedIndexFiles) {
-            if (skipped < skipIndexFiles) {
-                skipped++;
-                continue;
-            }
-            FetchEmitTuple t = new FetchEmitTuple(p, new FetchKey("", p), new EmitKey());
-            tryToAdd(t);
-            if (maxIndexFiles > -1 && ++added >= maxIndexFiles) {
-                break;
+        if (sample != null) {
+            enqueueSample();
+        } else {
+            for (FetchKey k : workUnits) {
+                add(k);
             }
         }
         tryToAdd(PipesIterator.COMPLETED_SEMAPHORE);
     }
 
+    /**
+     * PipesIterator's iterator holds each tuple back until the one after it is added, and a
+     * sample doesn't add the next batch until the last file of this one is read. So a sample
+     * hands its tuples out through an iterator of its own, as soon as they're added.
+     */
+    @Override
+    public Iterator<FetchEmitTuple> iterator() {
+        if (sample == null) {
+            return super.iterator();
+        }
+        if (sampleQueue != null) {
+            throw new IllegalStateException("can only iterate once");
+        }
+        sampleQueue = new ArrayBlockingQueue<>(PipesIterator.DEFAULT_QUEUE_SIZE);
+        FutureTask<Integer> task = new FutureTask<>(this);
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        return new SampleTupleIterator(task);
+    }
+
+    @Override
+    protected void tryToAdd(FetchEmitTuple t) throws InterruptedException, TimeoutException {
+        if (sampleQueue == null) {
+            super.tryToAdd(t);
+        } else {
+            sampleQueue.put(t);
+        }
+    }
+
+    private void add(FetchKey k) throws TimeoutException, InterruptedException {
+        String id = k.hasRange() ? k.getFetchKey() + "#" + k.getRangeStart() : k.getFetchKey();
+        tryToAdd(new FetchEmitTuple(id, k, new EmitKey()));
+    }
+
+    /**
+     * Enqueues the sample's batches one after another, waiting for each to be read so that the
+     * next can be sized from the records selected so far.
+     */
+    private void enqueueSample() throws TimeoutException, InterruptedException {
+        IndexSample.Plan plan = sample.plan(sampleUnits);
+        long enqueued = 0;
+        List<List<FetchKey>> batch = plan.nextBatch(0);
+        while (!batch.isEmpty()) {
+            for (List<FetchKey> unit : batch) {
+                for (FetchKey k : unit) {
+                    add(k);
+                    enqueued++;
+                }
+            }
+            if (counter == null) {
+                LOGGER.warn("can't tell how the sample is going; only reading the first batch");
+                return;
+            }
+            while (counter.getIndexFilesCompleted().get() < enqueued) {
+                if (counter.isStopped()) {
+                    // e.g. a quota is met; the files of this batch that are left won't be
+                    // finished
+                    LOGGER.info("the run is stopping; not sampling any more of the index");
+                    return;
+                }
+                Thread.sleep(SAMPLE_POLL_MILLIS);
+            }
+            long selected = counter.getRecordsSelected().get();
+            LOGGER.info(
+                    "sampled {} of {} {}: {} records selected of the {} wanted",
+                    plan.getHandedOut(),
+                    plan.size(),
+                    sample.blocks ? "blocks" : "index files",
+                    selected,
+                    sample.records);
+            batch = plan.nextBatch(selected);
+        }
+    }
+
     @Override
     public void initialize(Map<String, Param> params) throws TikaConfigException {
+        if (sample != null && (skipIndexFiles > 0 || maxIndexFiles > -1)) {
+            // they'd limit the sample to a run of SURT keys again
+            throw new TikaConfigException(
+                    "'sample' can't be combined with 'skipIndexFiles' or 'maxIndexFiles'");
+        }
         if (fetcher == null) {
             fetcher = new BackoffHttpFetcher(ExtractorConfig.DEFAULT_THROTTLE_SECONDS);
         }
@@ -173,6 +281,78 @@ public class IndexIterator extends PipesIterator implements Initializable {
                                 + "or indexes (indexes/cdx-\\d\\d\\d\\d\\d.gz");
             }
         }
+        try {
+            resolveWorkUnits();
+        } catch (IOException | TikaException e) {
+            throw new TikaConfigException("Problem reading " + ClusterIndex.CLUSTER_IDX, e);
+        }
+    }
+
+    private void resolveWorkUnits() throws IOException, TikaException {
+        workUnits.clear();
+        sampleUnits.clear();
+        // each block is a unit of its own
+        boolean sampleBlocks = sample != null && sample.blocks;
+        // a crawl's index files share one cluster.idx
+        Map<String, ClusterIndex> clusterIndices = new HashMap<>();
+        int added = 0;
+        int skipped = 0;
+        for (String p : resolvedIndexFiles) {
+            if (skipped < skipIndexFiles) {
+                skipped++;
+                continue;
+            }
+            List<FetchKey> units;
+            if (blocksPerWorkUnit > 0 || surtPrefixes != null || sampleBlocks) {
+                String clusterIndexPath = ClusterIndex.getClusterIndexPath(p);
+                ClusterIndex clusterIndex = clusterIndices.get(clusterIndexPath);
+                if (clusterIndex == null) {
+                    clusterIndex = loadClusterIndex(clusterIndexPath);
+                    clusterIndices.put(clusterIndexPath, clusterIndex);
+                }
+                units = clusterIndex.getWorkUnits(p);
+                if (units == null) {
+                    LOGGER.warn("{} isn't in {}; processing it as a whole", p, clusterIndexPath);
+                    units = List.of(new FetchKey("", p));
+                }
+            } else {
+                units = List.of(new FetchKey("", p));
+            }
+            workUnits.addAll(units);
+            if (sampleBlocks) {
+                for (FetchKey unit : units) {
+                    sampleUnits.add(List.of(unit));
+                }
+            } else if (!units.isEmpty()) {
+                sampleUnits.add(units);
+            }
+            if (maxIndexFiles > -1 && ++added >= maxIndexFiles) {
+                break;
+            }
+        }
+    }
+
+    private ClusterIndex loadClusterIndex(String path) throws IOException, TikaException {
+        LOGGER.info("loading {} to split index files into work units", path);
+        ClusterIndex clusterIndex;
+        try (InputStream is = fetcher.fetch(path, new Metadata(), new ParseContext());
+                BufferedReader reader = getReader(is, path)) {
+            // a sample of blocks needs them one by one
+            clusterIndex =
+                    ClusterIndex.load(
+                            reader,
+                            sample != null && sample.blocks ? 1 : blocksPerWorkUnit,
+                            surtPrefixes);
+        }
+        if (surtPrefixes != null) {
+            LOGGER.info(
+                    "{} of {} blocks in {} may hold records with the SURT prefixes {}",
+                    clusterIndex.getSelectedBlockCount(),
+                    clusterIndex.getBlockCount(),
+                    path,
+                    surtPrefixes);
+        }
+        return clusterIndex;
     }
 
     /**
@@ -182,6 +362,55 @@ public class IndexIterator extends PipesIterator implements Initializable {
         return resolvedIndexFiles.size();
     }
 
+    /**
+     * Returns the number of work units that will be enqueued: the index files after {@code
+     * skipIndexFiles} and {@code maxIndexFiles}, or, with {@code blocksPerWorkUnit} or SURT
+     * prefixes, the block ranges they are split into. With a {@code sample}, this is the
+     * number it's taken from.
+     */
+    public int getWorkUnitCount() {
+        return workUnits.size();
+    }
+
+    /**
+     * Overrides the configured {@code blocksPerWorkUnit}; call before {@link
+     * #initialize(Map)}.
+     *
+     * @param blocksPerWorkUnit -1 to process each index file as a single work unit
+     */
+    public void setBlocksPerWorkUnit(int blocksPerWorkUnit) {
+        this.blocksPerWorkUnit = blocksPerWorkUnit;
+    }
+
+    /**
+     * Limits the work units to the blocks of the index files that can hold records whose SURT
+     * keys start with one of the prefixes (see {@link
+     * org.tallison.cc.index.selector.RecordSelector#getSurtPrefixes()}). Call before {@link
+     * #initialize(Map)}.
+     *
+     * @param surtPrefixes null to read every block
+     */
+    public void setSurtPrefixes(List<String> surtPrefixes) {
+        this.surtPrefixes = surtPrefixes;
+    }
+
+    /**
+     * Overrides the configured {@code sample}; call before {@link #initialize(Map)}.
+     *
+     * @param sample null to read all of the work units
+     */
+    public void setSample(IndexSample sample) {
+        this.sample = sample;
+    }
+
+    /**
+     * Lets a {@code sample} see how many records have been selected, so that it can read as
+     * much of the index as it takes; without it, only the first batch of the sample is read.
+     */
+    public void setCounter(CCIndexReaderCounter counter) {
+        this.counter = counter;
+    }
+
     private void loadLocalFiles(Fetcher fetcher) throws IOException {
         if (fetcher instanceof FileSystemFetcher) {
             Path basePath = ((FileSystemFetcher) fetcher).getBasePath();
@@ -190,4 +419,55 @@ public class IndexIterator extends PipesIterator implements Initializable {
                     .forEach(p -> configuredPaths.add(basePath.relativize(p).toString()));
         }
     }
+
+    private class SampleTupleIterator implements Iterator<FetchEmitTuple> {
+
+        private final FutureTask<Integer> task;
+        private FetchEmitTuple next = null;
+
+        private SampleTupleIterator(FutureTask<Integer> task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = take();
+            }
+            return next != PipesIterator.COMPLETED_SEMAPHORE;
+        }
+
+        @Override
+        public FetchEmitTuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            FetchEmitTuple t = next;
+            next = null;
+            return t;
+        }
+
+        private FetchEmitTuple take() {
+            try {
+                while (true) {
+                    FetchEmitTuple t = sampleQueue.poll(SAMPLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (t != null) {
+                        return t;
+                    }
+                    if (task.isDone()) {
+                        // rethrows whatever stopped it before it added the completed semaphore
+                        task.get();
+                        // it may have added the rest since the poll
+                        t = sampleQueue.poll();
+                        return t == null ? PipesIterator.COMPLETED_SEMAPHORE : t;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return PipesIterator.COMPLETED_SEMAPHORE;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
 }
@@ -18,10 +18,22 @@
 package org.tallison.cc.index;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public interface IndexRecordProcessor {
 
     public boolean process(String json) throws IOException, InterruptedException;
 
+    /**
+     * Processes an index line straight from the decompressed bytes. The bytes are only valid
+     * for the duration of the call. By default, this decodes the line and calls {@link
+     * #process(String)}; processors that can work on the bytes (see {@link CdxLineParser})
+     * override this.
+     */
+    public default boolean process(byte[] line, int offset, int length)
+            throws IOException, InterruptedException {
+        return process(new String(line, offset, length, StandardCharsets.UTF_8));
+    }
+
     public void close() throws IOException;
 }
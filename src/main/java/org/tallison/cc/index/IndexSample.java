@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.tika.pipes.fetcher.FetchKey;
+
+/**
+ * A seeded random sample of the index, for a representative sample of records without reading
+ * all of it. Unlike {@code skipIndexFiles} and {@code maxIndexFiles}, which take a run of
+ * index files and so of SURT keys, this picks index files (or, with {@code blocks}, the gzip
+ * blocks of the {@code cluster.idx}) from all over the index.
+ *
+ * <p>The units, which are in SURT order, are split into {@code pilotUnits} strata of (nearly)
+ * equal size, and each stratum is shuffled with the seed. They're handed out a round at a
+ * time, one from each stratum, so that however many have been handed out, they're spread
+ * evenly over the index. They're handed out in batches: first {@code pilotUnits} of them, i.e.
+ * one from each stratum, then, once those have been read, as many more as the records selected
+ * per unit so far suggest are needed to reach {@code records}, and so on until it's reached or
+ * there are no units left. Units are read whole, so the records selected usually overshoot
+ * {@code records} by part of the last batch.
+ */
+public class IndexSample {
+
+    static final int DEFAULT_PILOT_UNITS = 8;
+    // ask for a bit more than the estimate so that one more batch is rarely needed
+    static final double HEADROOM = 1.25;
+
+    final long records;
+    final long seed;
+    final boolean blocks;
+    final int pilotUnits;
+
+    /**
+     * @param records the number of records to select
+     * @param seed picks the units; the same seed picks the same ones. Defaults to 0
+     * @param blocks whether to pick cluster.idx blocks rather than whole index files
+     * @param pilotUnits the number of units to read before the rest are estimated
+     * @throws IllegalArgumentException if records or pilotUnits isn't positive
+     */
+    @JsonCreator
+    public IndexSample(
+            @JsonProperty("records") Long records,
+            @JsonProperty("seed") Long seed,
+            @JsonProperty("blocks") Boolean blocks,
+            @JsonProperty("pilotUnits") Integer pilotUnits) {
+        if (records == null || records < 1) {
+            throw new IllegalArgumentException("a sample needs 'records' of at least 1");
+        }
+        this.records = records;
+        this.seed = seed == null ? 0 : seed;
+        this.blocks = blocks != null && blocks;
+        this.pilotUnits = pilotUnits == null ? DEFAULT_PILOT_UNITS : pilotUnits;
+        if (this.pilotUnits < 1) {
+            throw new IllegalArgumentException("pilotUnits must be at least 1");
+        }
+    }
+
+    /**
+     * @param units the units to sample from: an index file's work units, or a single block
+     */
+    Plan plan(List<List<FetchKey>> units) {
+        Random random = new Random(seed);
+        int strata = Math.min(pilotUnits, units.size());
+        List<List<List<FetchKey>>> shuffled = new ArrayList<>();
+        List<Integer> order = new ArrayList<>();
+        for (int s = 0; s < strata; s++) {
+            int from = (int) ((long) s * units.size() / strata);
+            int to = (int) ((long) (s + 1) * units.size() / strata);
+            List<List<FetchKey>> stratum = new ArrayList<>(units.subList(from, to));
+            Collections.shuffle(stratum, random);
+            shuffled.add(stratum);
+            order.add(s);
+        }
+        List<List<FetchKey>> ordered = new ArrayList<>(units.size());
+        for (int round = 0; ordered.size() < units.size(); round++) {
+            // so that a batch that ends partway through a round doesn't favor the first strata
+            Collections.shuffle(order, random);
+            for (int s : order) {
+                if (round < shuffled.get(s).size()) {
+                    ordered.add(shuffled.get(s).get(round));
+                }
+            }
+        }
+        return new Plan(ordered);
+    }
+
+    /** The units handed out so far, and the next ones. */
+    class Plan {
+        private final List<List<FetchKey>> units;
+        private int next = 0;
+
+        private Plan(List<List<FetchKey>> units) {
+            this.units = units;
+        }
+
+        /**
+         * @param selected the records selected from the units handed out so far, once all of
+         *     them have been read
+         * @return the next units to read; none once the target is reached or all of the units
+         *     have been handed out
+         */
+        List<List<FetchKey>> nextBatch(long selected) {
+            int remaining = units.size() - next;
+            if (remaining == 0 || selected >= records) {
+                return List.of();
+            }
+            long n;
+            if (next == 0) {
+                n = pilotUnits;
+            } else if (selected == 0) {
+                // nothing to estimate from yet, so read as many again
+                n = next;
+            } else {
+                n = (long) Math.ceil((records - selected) * HEADROOM * next / selected);
+            }
+            n = Math.max(1, Math.min(n, remaining));
+            List<List<FetchKey>> batch = units.subList(next, next + (int) n);
+            next += (int) n;
+            return batch;
+        }
+
+        /** @return the number of units handed out so far */
+        int getHandedOut() {
+            return next;
+        }
+
+        /** @return the number of units there are to sample from */
+        int size() {
+            return units.size();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import org.tallison.cc.index.CdxLineParser.Field;
+
+/**
+ * A view of the line last parsed by a {@link CdxLineParser} that decodes each field the first
+ * time it's asked for. Handing this to the {@link org.tallison.cc.index.selector.RecordSelector}
+ * means that only the fields the selector looks at are decoded for the lines it rejects, which
+ * is nearly all of them.
+ *
+ * <p>The view changes with every line the parser parses, so it must not be kept; use {@link
+ * #materialize()} for a record that outlives the line.
+ */
+public class LazyCCIndexRecord extends CCIndexRecord {
+
+    private final CdxLineParser parser;
+
+    public LazyCCIndexRecord(CdxLineParser parser) {
+        this.parser = parser;
+    }
+
+    /** @return a record with all fields decoded, reusing those already decoded */
+    public CCIndexRecord materialize() {
+        return parser.toRecord();
+    }
+
+    @Override
+    public String getUrl() {
+        return parser.get(Field.URL);
+    }
+
+    @Override
+    public String getSurtKey() {
+        return parser.getSurtKey();
+    }
+
+    @Override
+    public String getTimestamp() {
+        return parser.getTimestamp();
+    }
+
+    @Override
+    public String getMime() {
+        return parser.get(Field.MIME);
+    }
+
+    @Override
+    public Integer getStatus() {
+        // CdxLineParser#parse already checked that it's a number
+        return parser.has(Field.STATUS) ? (int) parser.getLong(Field.STATUS) : null;
+    }
+
+    @Override
+    public String getDigest() {
+        return parser.get(Field.DIGEST);
+    }
+
+    @Override
+    public Long getLength() {
+        return parser.has(Field.LENGTH) ? parser.getLong(Field.LENGTH) : null;
+    }
+
+    @Override
+    public Integer getOffset() {
+        return parser.has(Field.OFFSET) ? (int) parser.getLong(Field.OFFSET) : null;
+    }
+
+    @Override
+    public String getFilename() {
+        return parser.get(Field.FILENAME);
+    }
+
+    @Override
+    public String getMimeDetected() {
+        return parser.get(Field.MIME_DETECTED);
+    }
+
+    @Override
+    public String getCharset() {
+        return parser.get(Field.CHARSET);
+    }
+
+    @Override
+    public String getLanguages() {
+        return parser.get(Field.LANGUAGES);
+    }
+
+    @Override
+    public String getTruncated() {
+        return parser.get(Field.TRUNCATED);
+    }
+
+    @Override
+    public String getRedirect() {
+        return parser.get(Field.REDIRECT);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import java.net.IDN;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Builds prefixes of the SURT (Sort-friendly URI Reordering Transform) keys at the start of
+ * each line of Common Crawl's index files and cluster.idx: the scheme and a leading "www."
+ * (or "www2.", etc.) are dropped, the host is reversed and comma-separated, and everything
+ * is lowercased, e.g. {@code https://www.Example.com/a/B.html} becomes
+ * {@code com,example)/a/b.html}.
+ *
+ * <p>The crawler's canonicalization does more than this: it sorts query parameters,
+ * normalizes percent-escapes, strips session ids and resolves dot segments. Rather than
+ * reproduce that, the prefixes built here stop before anything it might rewrite, so they
+ * can match more lines than the url would, but never fewer. They're meant to narrow down
+ * which parts of the index to read; records still have to be checked against the selector.
+ */
+public class Surt {
+
+    // www, www2, www3...
+    private static final Pattern WWW = Pattern.compile("\\Awww\\d*\\.");
+
+    private Surt() {
+    }
+
+    /**
+     * @param url a url with or without a scheme
+     * @return a prefix of the SURT key of the url: the host and as much of the path as can be
+     *     canonicalized reliably, without the query or a trailing '/', e.g.
+     *     {@code com,example)/docs} for {@code https://example.com/docs/?q=1}
+     */
+    public static String toSurtPrefix(String url) {
+        String s = url.trim();
+        String scheme = "";
+        int schemeEnd = s.indexOf("://");
+        if (schemeEnd > -1) {
+            scheme = s.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            s = s.substring(schemeEnd + 3);
+        }
+        int fragment = s.indexOf('#');
+        if (fragment > -1) {
+            s = s.substring(0, fragment);
+        }
+        int pathStart = indexOfPathStart(s);
+        String authority = pathStart < 0 ? s : s.substring(0, pathStart);
+        String path = pathStart < 0 ? "/" : s.substring(pathStart);
+        int query = path.indexOf('?');
+        if (query > -1) {
+            path = path.substring(0, query);
+        }
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+        int userInfo = authority.lastIndexOf('@');
+        if (userInfo > -1) {
+            authority = authority.substring(userInfo + 1);
+        }
+        String port = "";
+        int colon = authority.lastIndexOf(':');
+        if (colon > -1) {
+            port = authority.substring(colon + 1);
+            authority = authority.substring(0, colon);
+            if (isDefaultPort(scheme, port)) {
+                port = "";
+            }
+        }
+        StringBuilder sb = new StringBuilder(hostToSurt(authority));
+        if (!port.isEmpty()) {
+            sb.append(':').append(port);
+        }
+        return sb.append(')').append(canonicalPathPrefix(path)).toString();
+    }
+
+    /**
+     * @param host e.g. www.example.com
+     * @return the host part of a SURT key, without the closing ')', e.g. com,example
+     */
+    public static String hostToSurt(String host) {
+        String h = host.toLowerCase(Locale.ROOT);
+        while (h.endsWith(".")) {
+            h = h.substring(0, h.length() - 1);
+        }
+        try {
+            h = IDN.toASCII(h, IDN.ALLOW_UNASSIGNED);
+        } catch (IllegalArgumentException e) {
+            // not a valid IDN; leave it as it is
+        }
+        String withoutWww = WWW.matcher(h).replaceFirst("");
+        if (!withoutWww.isEmpty()) {
+            h = withoutWww;
+        }
+        String[] parts = h.split("\\.");
+        StringBuilder sb = new StringBuilder();
+        for (int i = parts.length - 1; i >= 0; i--) {
+            sb.append(parts[i]);
+            if (i > 0) {
+                sb.append(',');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return whether a url prefix is long enough to be turned into a SURT prefix: it must
+     *     include the whole host, i.e. the '/' that starts the path
+     */
+    public static boolean isCompleteHost(String urlPrefix) {
+        String s = urlPrefix;
+        int scheme = s.indexOf("://");
+        if (scheme > -1) {
+            s = s.substring(scheme + 3);
+        }
+        return indexOfPathStart(s) > -1;
+    }
+
+    /**
+     * @param path starts with '/', without the query
+     * @return the lowercased path up to the first character the crawler might rewrite,
+     *     without a trailing '/' unless that's all there is
+     */
+    private static String canonicalPathPrefix(String path) {
+        if (path.contains("/./") || path.contains("/../")
+                || path.endsWith("/.") || path.endsWith("/..")) {
+            // resolving these can remove what comes before them
+            return "/";
+        }
+        int end = path.length();
+        for (int i = 0; i < path.length(); i++) {
+            if (!isStable(path.charAt(i))
+                    || (i > 0 && path.charAt(i) == '/' && path.charAt(i - 1) == '/')) {
+                end = i;
+                break;
+            }
+        }
+        String prefix = path.substring(0, end);
+        while (prefix.length() > 1 && prefix.endsWith("/")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        return prefix.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return whether the crawler's canonicalization leaves the character alone in a path:
+     *     not e.g. '%' (escapes are normalized), ';' (session ids are stripped) or anything it
+     *     escapes
+     */
+    private static boolean isStable(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+            return true;
+        }
+        return "/-._~!$&'()*+,=:@".indexOf(c) > -1;
+    }
+
+    private static boolean isDefaultPort(String scheme, String port) {
+        switch (scheme) {
+            case "http":
+                return port.equals("80");
+            case "https":
+                return port.equals("443");
+            default:
+                // without a scheme, assume the port is the default for whichever it was
+                return port.equals("80") || port.equals("443");
+        }
+    }
+
+    private static int indexOfPathStart(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '/' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -28,9 +28,17 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.CCIndexRecord;
 
 import org.apache.tika.exception.TikaConfigException;
 
@@ -72,8 +80,14 @@ public class CCColumnarIndexExtractor {
         }
 
         CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        ArrayBlockingQueue<CCIndexRecord> fetchQueue =
+                new ArrayBlockingQueue<>(fetcherConfig.getFetchQueueSize());
+        WarcLocalityBuffer localityBuffer = WarcLocalityBuffer.newBuffer(fetcherConfig);
+        // null unless only a sample of the selected records is to be fetched
+        SampleReservoir reservoir = SampleReservoir.newReservoir(fetcherConfig);
         CCFileExtractorRecordProcessor processor =
-                new CCFileExtractorRecordProcessor(fetcherConfig, counter);
+                new CCFileExtractorRecordProcessor(
+                        fetcherConfig, counter, fetchQueue, localityBuffer, reservoir);
 
         String sql = "SELECT url, content_mime_type, content_mime_detected, fetch_status, "
                 + "content_digest, content_charset, content_languages, content_truncated, "
@@ -83,6 +97,38 @@ public class CCColumnarIndexExtractor {
 
         LOGGER.info("querying columnar index: {}", sql);
         long start = System.currentTimeMillis();
+        List<Callable<Long>> fetchWorkers =
+                FetchWorker.newFetchWorkers(fetcherConfig, fetchQueue, counter);
+        ExecutorService fetchExecutor = Executors.newFixedThreadPool(fetchWorkers.size());
+        List<Future<Long>> fetchWorkerFutures = new ArrayList<>();
+        for (Callable<Long> fetchWorker : fetchWorkers) {
+            fetchWorkerFutures.add(fetchExecutor.submit(fetchWorker));
+        }
+        try {
+            queryAndProcess(sql, processor, localityBuffer, reservoir, fetchQueue);
+            for (Future<Long> fetchWorkerFuture : fetchWorkerFutures) {
+                fetchWorkerFuture.get();
+            }
+        } finally {
+            fetchExecutor.shutdownNow();
+            if (localityBuffer != null) {
+                localityBuffer.close();
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        LOGGER.info(
+                "Finished querying columnar index in ({}) ms: {}",
+                String.format(Locale.US, "%,d", elapsed),
+                counter);
+    }
+
+    private static void queryAndProcess(
+            String sql,
+            CCFileExtractorRecordProcessor processor,
+            WarcLocalityBuffer localityBuffer,
+            SampleReservoir reservoir,
+            ArrayBlockingQueue<CCIndexRecord> fetchQueue)
+            throws SQLException, IOException, InterruptedException {
         try {
             try (Connection conn = DriverManager.getConnection("jdbc:duckdb:")) {
                 try (Statement setup = conn.createStatement()) {
@@ -122,12 +168,20 @@ public class CCColumnarIndexExtractor {
             }
         } finally {
             processor.close();
+            try {
+                if (reservoir != null) {
+                    LOGGER.info("queuing the sample of {} records in WARC order", reservoir.size());
+                    processor.queueSample(reservoir);
+                }
+                if (localityBuffer != null) {
+                    LOGGER.info("queuing {} records in WARC order", localityBuffer.size());
+                    localityBuffer.drainTo(fetchQueue);
+                }
+            } finally {
+                // let the fetch workers drain what's left on the queue and then stop
+                fetchQueue.put(FetchWorker.COMPLETED_SEMAPHORE);
+            }
         }
-        long elapsed = System.currentTimeMillis() - start;
-        LOGGER.info(
-                "Finished querying columnar index in ({}) ms: {}",
-                String.format(Locale.US, "%,d", elapsed),
-                counter);
     }
 
     /**
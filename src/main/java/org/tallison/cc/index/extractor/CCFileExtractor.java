@@ -20,15 +20,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Locale;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -36,24 +32,14 @@ import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.zip.GZIPInputStream;
 
-import org.tallison.cc.index.AbstractRecordProcessor;
 import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.CCIndexRecord;
 import org.tallison.cc.index.IndexIterator;
 
-import org.apache.tika.exception.TikaConfigException;
 import org.apache.tika.exception.TikaException;
-import org.apache.tika.io.TikaInputStream;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.ParseContext;
 import org.apache.tika.pipes.FetchEmitTuple;
-import org.apache.tika.pipes.fetcher.Fetcher;
 import org.apache.tika.pipes.pipesiterator.CallablePipesIterator;
-import org.apache.tika.pipes.pipesiterator.PipesIterator;
-import org.apache.tika.utils.StringUtils;
 
 /**
  * This is a lighter class that doesn't rely on a database to extract files from CC and log a list
@@ -61,7 +47,6 @@ import org.apache.tika.utils.StringUtils;
  */
 public class CCFileExtractor {
 
-    private static final Long INDEX_WORKER_ID = 42L;
     private static final Long INDEX_ITERATOR_ID = 1L;
     private static final Logger LOGGER = LoggerFactory.getLogger(CCFileExtractor.class);
 
@@ -78,158 +63,124 @@ public class CCFileExtractor {
         // for workers to process.
 
         // Each IndexWorker fetches and processes one index file (cdx-*.gz) at a time,
-        // extracting non-truncated files and logging truncated URLs.
-        int totalThreads = fetcherConfig.getNumThreads() + 1;
+        // logging truncated URLs and putting the records to be extracted on the fetch queue.
+        // The FetchWorkers drain the fetch queue and extract the files from the WARCs.
+        ArrayBlockingQueue<CCIndexRecord> fetchQueue =
+                new ArrayBlockingQueue<>(fetcherConfig.getFetchQueueSize());
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        // null unless the selected records are to be fetched in WARC order
+        WarcLocalityBuffer localityBuffer = WarcLocalityBuffer.newBuffer(fetcherConfig);
+        // null unless the index workers download their next index file ahead of time
+        IndexPrefetcher prefetcher = IndexPrefetcher.newPrefetcher(fetcherConfig);
+        int numIndexThreads = fetcherConfig.getNumIndexThreads();
+        List<Callable<Long>> fetchWorkers =
+                FetchWorker.newFetchWorkers(fetcherConfig, fetchQueue, counter);
+        int totalThreads = numIndexThreads + fetchWorkers.size() + 1;
 
         ExecutorService executorService = Executors.newFixedThreadPool(totalThreads);
         ExecutorCompletionService<Long> executorCompletionService =
                 new ExecutorCompletionService<>(executorService);
 
         IndexIterator indexIterator = fetcherConfig.getIndexIterator();
+        // only read the parts of the index files that can hold selected records
+        indexIterator.setSurtPrefixes(fetcherConfig.getRecordSelector().getSurtPrefixes());
+        // a sample reads as much of the index as it takes to select its records
+        indexIterator.setCounter(counter);
         indexIterator.initialize(Collections.EMPTY_MAP);
         executorCompletionService.submit(new CallablePipesIterator(indexIterator, indexFileQueue));
-        CCIndexReaderCounter counter = new CCIndexReaderCounter();
         int totalIndexFiles = indexIterator.getResolvedIndexFileCount();
-        counter.setTotalIndexFiles(totalIndexFiles);
-        LOGGER.info("Resolved {} index files to process", totalIndexFiles);
-        int finishedWorkers = 0;
+        // with blocksPerWorkUnit, progress is counted in work units rather than whole files
+        counter.setTotalIndexFiles(indexIterator.getWorkUnitCount());
+        LOGGER.info(
+                "Resolved {} index files ({} work units) to process with {} index threads and "
+                        + "fetch mode {}",
+                totalIndexFiles,
+                indexIterator.getWorkUnitCount(),
+                numIndexThreads,
+                fetcherConfig.getFetchMode());
+        int finishedIndexWorkers = 0;
+        int finishedFetchWorkers = 0;
+        // one per index thread, if only a sample of the selected records is to be fetched
+        List<SampleReservoir> reservoirs = new ArrayList<>();
+        // queues the merged sample
+        CCFileExtractorRecordProcessor sampleProcessor = null;
         try {
-            for (int i = 0; i < fetcherConfig.getNumThreads(); i++) {
+            for (int i = 0; i < numIndexThreads; i++) {
+                SampleReservoir reservoir = SampleReservoir.newReservoir(fetcherConfig);
                 CCFileExtractorRecordProcessor processor =
-                        new CCFileExtractorRecordProcessor(fetcherConfig, counter);
+                        new CCFileExtractorRecordProcessor(
+                                fetcherConfig, counter, fetchQueue, localityBuffer, reservoir);
+                if (reservoir != null) {
+                    reservoirs.add(reservoir);
+                    sampleProcessor = processor;
+                }
                 executorCompletionService.submit(
                         new IndexWorker(
-                                fetcherConfig, indexFileQueue,
-                                processor, counter));
+                                fetcherConfig, indexFileQueue, processor, counter, prefetcher));
+            }
+            for (Callable<Long> fetchWorker : fetchWorkers) {
+                executorCompletionService.submit(fetchWorker);
             }
 
-            while (finishedWorkers < fetcherConfig.getNumThreads()) {
+            while (finishedFetchWorkers < fetchWorkers.size()) {
                 // blocking
                 Future<Long> future = executorCompletionService.take();
                 if (future != null) {
                     Long f = future.get();
                     LOGGER.debug("completed {}", f);
-                    if (f.equals(INDEX_WORKER_ID)) {
-                        finishedWorkers++;
+                    if (f.equals(IndexWorker.INDEX_WORKER_ID)) {
+                        finishedIndexWorkers++;
+                        if (finishedIndexWorkers == numIndexThreads) {
+                            if (!reservoirs.isEmpty()) {
+                                SampleReservoir sample = reservoirs.get(0);
+                                for (SampleReservoir reservoir : reservoirs) {
+                                    if (reservoir != sample) {
+                                        sample.merge(reservoir);
+                                    }
+                                }
+                                LOGGER.info(
+                                        "Index workers finished; queuing the sample of {} records "
+                                                + "in WARC order",
+                                        sample.size());
+                                sampleProcessor.queueSample(sample);
+                            }
+                            if (localityBuffer != null) {
+                                LOGGER.info(
+                                        "Index workers finished; queuing {} records in WARC order",
+                                        localityBuffer.size());
+                                localityBuffer.drainTo(fetchQueue);
+                            }
+                            LOGGER.info(
+                                    "Index workers finished; waiting for {} queued fetches",
+                                    fetchQueue.size());
+                            fetchQueue.put(FetchWorker.COMPLETED_SEMAPHORE);
+                        }
+                    } else if (f.equals(FetchWorker.FETCH_WORKER_ID)) {
+                        finishedFetchWorkers++;
                     } else if (f.equals(INDEX_ITERATOR_ID)) {
                         LOGGER.info("Index paths reader successfully completed");
                     }
                 }
             }
-        } catch (TikaConfigException | IOException e) {
-            LOGGER.error("main loop exception", e);
-            throw new RuntimeException(e);
         } catch (ExecutionException e) {
             LOGGER.error("main loop exception", e);
             throw new RuntimeException(e);
         } catch (InterruptedException e) {
             LOGGER.warn("main loop interrupted exception", e);
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            LOGGER.error("couldn't read back the WARC-ordered records", e);
+            throw new RuntimeException(e);
         } finally {
             executorService.shutdown();
             executorService.shutdownNow();
-        }
-        LOGGER.info("Finished: {}", counter);
-    }
-
-    private static class IndexWorker implements Callable<Long> {
-
-        private final ArrayBlockingQueue<FetchEmitTuple> indexUrls;
-        private final AbstractRecordProcessor recordProcessor;
-        private final CCIndexReaderCounter counter;
-
-        private final Fetcher indexFetcher;
-
-        IndexWorker(
-                ExtractorConfig fetcherConfig,
-                ArrayBlockingQueue<FetchEmitTuple> indexUrls,
-                CCFileExtractorRecordProcessor recordProcessor,
-                CCIndexReaderCounter counter)
-                throws TikaException {
-            this.indexUrls = indexUrls;
-            this.recordProcessor = recordProcessor;
-            this.counter = counter;
-            this.indexFetcher = fetcherConfig.newIndexFileFetcher();
-        }
-
-        @Override
-        public Long call() throws Exception {
-            boolean shouldContinue = true;
-            while (shouldContinue) {
-
-                FetchEmitTuple indexUrl = indexUrls.poll(120, TimeUnit.MINUTES);
-                if (indexUrl == null) {
-                    throw new TimeoutException("waited 120 minutes for a new record");
-                }
-
-                if (indexUrl == PipesIterator.COMPLETED_SEMAPHORE) {
-                    recordProcessor.close();
-                    // can hang forever
-                    indexUrls.put(PipesIterator.COMPLETED_SEMAPHORE);
-                    return INDEX_WORKER_ID;
-                }
-                LOGGER.trace(indexUrl.toString());
-                shouldContinue = processFile(indexUrl, recordProcessor);
+            if (localityBuffer != null) {
+                localityBuffer.close();
             }
-            return INDEX_WORKER_ID;
-        }
-
-        private boolean processFile(
-                FetchEmitTuple fetchEmitTuple, AbstractRecordProcessor recordProcessor)
-                throws InterruptedException {
-            long start = System.currentTimeMillis();
-            LOGGER.info(
-                    "starting to fetch index gz: {}", fetchEmitTuple.getFetchKey().getFetchKey());
-            try (TikaInputStream tis =
-                    (TikaInputStream)
-                            indexFetcher.fetch(
-                                    fetchEmitTuple.getFetchKey().getFetchKey(),
-                                    new Metadata(),
-                                    new ParseContext())) {
-                try (InputStream is = new BufferedInputStream(new GZIPInputStream(tis))) {
-                    try (BufferedReader reader =
-                            new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-                        String line = reader.readLine();
-                        int lines = 0;
-                        long elapsed = System.currentTimeMillis() - start;
-                        LOGGER.info(
-                                "Finished fetching index {} bytes in {} ms for index gz: {}",
-                                String.format(Locale.US, "%,d", tis.getLength()),
-                                String.format(Locale.US, "%,d", elapsed),
-                                fetchEmitTuple.getFetchKey().getFetchKey());
-                        while (line != null) {
-                            LOGGER.trace("about to add a line");
-                            if (StringUtils.isBlank(line)) {
-                                line = reader.readLine();
-                                continue;
-                            }
-                            try {
-                                boolean shouldContinue = recordProcessor.process(line);
-                                if (!shouldContinue) {
-                                    return shouldContinue;
-                                }
-                            } catch (IOException e) {
-                                LOGGER.warn("bad json: " + line);
-                            }
-                            lines++;
-                            line = reader.readLine();
-                        }
-                    }
-                }
-            } catch (TikaException | IOException | RuntimeException e) {
-                // RuntimeException covers TikaTimeoutException (extends RuntimeException, not
-                // TikaException) -- an occasional slow fetch must not kill the whole run.
-                LOGGER.error(
-                        "failed while processing " + fetchEmitTuple.getFetchKey().getFetchKey(), e);
+            if (prefetcher != null) {
+                prefetcher.close();
             }
-            long elapsed = System.currentTimeMillis() - start;
-            counter.getIndexFilesCompleted().incrementAndGet();
-            LOGGER.info(
-                    "finished processing index gz in ({}) ms: {} -- {}",
-                    String.format(Locale.US, "%,d", elapsed),
-                    fetchEmitTuple.getFetchKey().getFetchKey(),
-                    counter.progressSummary());
-            return true;
         }
+        LOGGER.info("Finished: {}", counter);
     }
 }
@@ -20,13 +20,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
 
 import org.tallison.cc.index.AbstractRecordProcessor;
 import org.tallison.cc.index.CCIndexReaderCounter;
 import org.tallison.cc.index.CCIndexRecord;
+import org.tallison.cc.index.CdxLineParser;
+import org.tallison.cc.index.LazyCCIndexRecord;
+import org.tallison.cc.index.selector.LinePrefilter;
 
-import org.apache.tika.exception.TikaConfigException;
 import org.apache.tika.utils.StringUtils;
 
 public class CCFileExtractorRecordProcessor extends AbstractRecordProcessor {
@@ -39,26 +44,48 @@ public class CCFileExtractorRecordProcessor extends AbstractRecordProcessor {
     private final ExtractorConfig fetcherConfig;
     private final CCIndexReaderCounter counter;
 
-    private final FileFromCCWarcExtractor fileFromCCWarcFetcher;
+    // selected records are handed off to the FetchWorkers through this queue
+    private final BlockingQueue<CCIndexRecord> fetchQueue;
+
+    // if not null, selected records are held here and only put on the fetch queue,
+    // in WARC order, after the index scan
+    private final WarcLocalityBuffer localityBuffer;
+
+    // if not null, this thread's share of the sample of the selected records, which is all
+    // that is fetched, after the index scan
+    private final SampleReservoir reservoir;
 
     private static final long REPORT_EVERY = 100_000;
 
+    private final CdxLineParser cdxLine = new CdxLineParser();
+    private final LazyCCIndexRecord lazyRecord = new LazyCCIndexRecord(cdxLine);
+    // null if the selector has nothing to check on the raw line
+    private final LinePrefilter prefilter;
+
     public CCFileExtractorRecordProcessor(
-            ExtractorConfig fetcherConfig, CCIndexReaderCounter counter)
-            throws TikaConfigException, IOException {
+            ExtractorConfig fetcherConfig,
+            CCIndexReaderCounter counter,
+            BlockingQueue<CCIndexRecord> fetchQueue) {
+        this(fetcherConfig, counter, fetchQueue, null, null);
+    }
+
+    CCFileExtractorRecordProcessor(
+            ExtractorConfig fetcherConfig,
+            CCIndexReaderCounter counter,
+            BlockingQueue<CCIndexRecord> fetchQueue,
+            WarcLocalityBuffer localityBuffer,
+            SampleReservoir reservoir) {
         this.fetcherConfig = fetcherConfig;
         this.counter = counter;
-        this.fileFromCCWarcFetcher = new FileFromCCWarcExtractor(fetcherConfig, counter);
+        this.prefilter = fetcherConfig.getRecordSelector().getLinePrefilter();
+        this.fetchQueue = fetchQueue;
+        this.localityBuffer = localityBuffer;
+        this.reservoir = reservoir;
     }
 
     @Override
     public boolean process(String json) throws IOException, InterruptedException {
-        long totalRead = counter.getRecordsRead().incrementAndGet();
-        if (totalRead % REPORT_EVERY == 0) {
-            LOGGER.info("progress: {}", counter.progressSummary());
-        }
-        if (fetcherConfig.getMaxRecords() > -1 && totalRead >= fetcherConfig.getMaxRecords()) {
-            LOGGER.info("hit max read");
+        if (!countRead()) {
             return false;
         }
         Optional<CCIndexRecord> record = CCIndexRecord.parseRecord(json);
@@ -66,10 +93,54 @@ public class CCFileExtractorRecordProcessor extends AbstractRecordProcessor {
             // problem already logged
             return true;
         }
-        CCIndexRecord r = record.get();
-        if (!fetcherConfig.getRecordSelector().select(r)) {
+        if (!fetcherConfig.getRecordSelector().select(record.get())) {
+            return true;
+        }
+        return processSelected(record.get(), () -> json);
+    }
+
+    @Override
+    public boolean process(byte[] line, int offset, int length)
+            throws IOException, InterruptedException {
+        if (prefilter != null && !prefilter.mayMatch(line, offset, length)) {
+            // can't be selected, so don't bother parsing it
+            return countRead();
+        }
+        if (!cdxLine.parse(line, offset, length)) {
+            // e.g. json that needs repairing
+            return process(new String(line, offset, length, StandardCharsets.UTF_8));
+        }
+        if (!countRead()) {
+            return false;
+        }
+        // only the fields that the selector looks at are decoded for the records it rejects
+        if (!fetcherConfig.getRecordSelector().select(lazyRecord)) {
             return true;
         }
+        return processSelected(lazyRecord.materialize(), cdxLine::getLine);
+    }
+
+    private boolean countRead() {
+        long totalRead = counter.getRecordsRead().incrementAndGet();
+        if (totalRead % REPORT_EVERY == 0) {
+            LOGGER.info("progress: {}", counter.progressSummary());
+        }
+        if (fetcherConfig.getMaxRecords() > -1 && totalRead >= fetcherConfig.getMaxRecords()) {
+            LOGGER.info("hit max read");
+            return false;
+        }
+        if (fetcherConfig.getRecordSelector().isDone()) {
+            // no more records can be selected
+            LOGGER.info("met every quota");
+            return false;
+        }
+        return true;
+    }
+
+    /** @param line the index line of the record; only decoded if it's needed */
+    private boolean processSelected(CCIndexRecord r, Supplier<String> line)
+            throws IOException, InterruptedException {
+        counter.getRecordsSelected().incrementAndGet();
         // if truncated, count appropriately and test for limits
         if (!StringUtils.isBlank(r.getTruncated())) {
             long truncated = counter.getTruncated().incrementAndGet();
@@ -81,17 +152,19 @@ public class CCFileExtractorRecordProcessor extends AbstractRecordProcessor {
         }
 
         if (fetcherConfig.isExtractTruncated() || StringUtils.isBlank(r.getTruncated())) {
-            long extracted = counter.getFilesExtracted().incrementAndGet();
-            if (fetcherConfig.getMaxFilesExtracted() > -1
-                    && extracted >= fetcherConfig.getMaxFilesExtracted()) {
-                LOGGER.info("hit max extracted files");
+            if (reservoir != null) {
+                // counted as extracted, or logged for a dry run, once the sample is queued
+                reservoir.offer(r, line);
+                return true;
+            }
+            if (!countExtracted()) {
                 return false;
             }
             if (fetcherConfig.isDryRun()) {
                 LOGGER.info("dry run, but would have extracted {}", r);
                 return true;
             }
-            fetchBytes(r);
+            fetchBytes(r, line);
             return true;
         } else {
             String url = r.getUrl();
@@ -110,8 +183,48 @@ public class CCFileExtractorRecordProcessor extends AbstractRecordProcessor {
         }
     }
 
-    private void fetchBytes(CCIndexRecord r) throws InterruptedException {
-        fileFromCCWarcFetcher.fetchToPath(r);
+    /**
+     * Puts a sample's records on the fetch queue once the index scan is done, in WARC order,
+     * counting them as extracted as they go, up to maxFilesExtracted. This blocks while the
+     * queue is full.
+     *
+     * @return the number of records put on the queue
+     */
+    long queueSample(SampleReservoir sample) throws InterruptedException {
+        long queued = 0;
+        for (CCIndexRecord r : sample.drain()) {
+            if (!countExtracted()) {
+                break;
+            }
+            if (fetcherConfig.isDryRun()) {
+                LOGGER.info("dry run, but would have extracted {}", r);
+                continue;
+            }
+            fetchQueue.put(r);
+            queued++;
+        }
+        return queued;
+    }
+
+    /** @return false if this record hits maxFilesExtracted, and it shouldn't be extracted */
+    private boolean countExtracted() {
+        long extracted = counter.getFilesExtracted().incrementAndGet();
+        if (fetcherConfig.getMaxFilesExtracted() > -1
+                && extracted >= fetcherConfig.getMaxFilesExtracted()) {
+            LOGGER.info("hit max extracted files");
+            return false;
+        }
+        return true;
+    }
+
+    private void fetchBytes(CCIndexRecord r, Supplier<String> line)
+            throws IOException, InterruptedException {
+        if (localityBuffer != null) {
+            localityBuffer.add(r, line.get());
+            return;
+        }
+        // blocks if the fetch workers have fallen behind
+        fetchQueue.put(r);
     }
 
     @Override
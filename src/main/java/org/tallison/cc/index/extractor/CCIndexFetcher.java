@@ -72,6 +72,10 @@ public class CCIndexFetcher {
                 new ExecutorCompletionService<>(executorService);
 
         IndexIterator indexIterator = fetcherConfig.getIndexIterator();
+        // this copies whole index files
+        indexIterator.setBlocksPerWorkUnit(-1);
+        indexIterator.setSurtPrefixes(null);
+        indexIterator.setSample(null);
         indexIterator.initialize(Collections.EMPTY_MAP);
         executorCompletionService.submit(new CallablePipesIterator(indexIterator, indexFileQueue));
         int finishedWorkers = 0;
@@ -23,13 +23,9 @@ import org.apache.commons.lang3.mutable.MutableLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -37,34 +33,27 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.zip.GZIPInputStream;
 
 import org.tallison.cc.index.AbstractRecordProcessor;
 import org.tallison.cc.index.CCIndexReaderCounter;
 import org.tallison.cc.index.CCIndexRecord;
+import org.tallison.cc.index.CdxLineParser;
 import org.tallison.cc.index.IndexIterator;
+import org.tallison.cc.index.LazyCCIndexRecord;
+import org.tallison.cc.index.selector.LinePrefilter;
 
 import org.apache.tika.exception.TikaConfigException;
 import org.apache.tika.exception.TikaException;
-import org.apache.tika.io.TikaInputStream;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.ParseContext;
 import org.apache.tika.pipes.FetchEmitTuple;
-import org.apache.tika.pipes.fetcher.Fetcher;
 import org.apache.tika.pipes.pipesiterator.CallablePipesIterator;
-import org.apache.tika.pipes.pipesiterator.PipesIterator;
 import org.apache.tika.utils.StringUtils;
 
 /**
@@ -72,10 +61,8 @@ import org.apache.tika.utils.StringUtils;
  */
 public class CCMimeCounter {
 
-    private static final Long INDEX_WORKER_ID = 42L;
     private static final Long INDEX_ITERATOR_ID = 1L;
     private static final Logger LOGGER = LoggerFactory.getLogger(CCMimeCounter.class);
-    private static final int BATCH_SIZE = 50000;
 
     public static void main(String[] args) throws Exception {
         ExtractorConfig fetcherConfig =
@@ -98,12 +85,18 @@ public class CCMimeCounter {
                 new ExecutorCompletionService<>(executorService);
 
         IndexIterator indexIterator = fetcherConfig.getIndexIterator();
+        // only read the parts of the index files that can hold selected records
+        indexIterator.setSurtPrefixes(fetcherConfig.getRecordSelector().getSurtPrefixes());
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        // a sample reads as much of the index as it takes to select its records
+        indexIterator.setCounter(counter);
         indexIterator.initialize(Collections.EMPTY_MAP);
         executorCompletionService.submit(new CallablePipesIterator(indexIterator, indexFileQueue));
-        CCIndexReaderCounter counter = new CCIndexReaderCounter();
-        counter.setTotalIndexFiles(indexIterator.getResolvedIndexFileCount());
-        LOGGER.info("Resolved {} index files to process",
-                indexIterator.getResolvedIndexFileCount());
+        counter.setTotalIndexFiles(indexIterator.getWorkUnitCount());
+        LOGGER.info("Resolved {} index files ({} work units) to process",
+                indexIterator.getResolvedIndexFileCount(), indexIterator.getWorkUnitCount());
+        // null unless the index workers download their next index file ahead of time
+        IndexPrefetcher prefetcher = IndexPrefetcher.newPrefetcher(fetcherConfig);
         int finishedWorkers = 0;
         List<DetectedMimeCounter> detectedMimeCounters = new ArrayList<>();
         try {
@@ -111,8 +104,8 @@ public class CCMimeCounter {
                 DetectedMimeCounter processor = new DetectedMimeCounter(fetcherConfig, counter);
                 detectedMimeCounters.add(processor);
                 executorCompletionService.submit(
-                        new IndexWorker(fetcherConfig, indexFileQueue,
-                                processor, counter));
+                        new IndexWorker(
+                                fetcherConfig, indexFileQueue, processor, counter, prefetcher));
             }
 
             while (finishedWorkers < fetcherConfig.getNumThreads()) {
@@ -121,7 +114,7 @@ public class CCMimeCounter {
                 if (future != null) {
                     Long f = future.get();
                     LOGGER.debug("completed worker or reader value={}", f);
-                    if (f.equals(INDEX_WORKER_ID)) {
+                    if (f.equals(IndexWorker.INDEX_WORKER_ID)) {
                         finishedWorkers++;
                     } else if (f.equals(INDEX_ITERATOR_ID)) {
                         LOGGER.info("Index paths reader successfully completed");
@@ -140,6 +133,9 @@ public class CCMimeCounter {
         } finally {
             executorService.shutdown();
             executorService.shutdownNow();
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
         }
         LOGGER.info("finished processing; now off to writing reports");
         summarize(detectedMimeCounters);
@@ -200,139 +196,54 @@ public class CCMimeCounter {
         }
     }
 
-    private static class IndexWorker implements Callable<Long> {
-
-        private final ArrayBlockingQueue<FetchEmitTuple> indexUrls;
-        private final AbstractRecordProcessor recordProcessor;
-        private final CCIndexReaderCounter counter;
-
-        private final Fetcher fetcher;
-
-        IndexWorker(
-                ExtractorConfig fetcherConfig,
-                ArrayBlockingQueue<FetchEmitTuple> indexUrls,
-                AbstractRecordProcessor recordProcessor,
-                CCIndexReaderCounter counter)
-                throws TikaException {
-            this.indexUrls = indexUrls;
-            this.recordProcessor = recordProcessor;
-            this.counter = counter;
-            this.fetcher = fetcherConfig.newIndexFileFetcher();
-        }
-
-        @Override
-        public Long call() throws Exception {
-            boolean shouldContinue = true;
-            while (shouldContinue) {
-
-                FetchEmitTuple indexUrl = indexUrls.poll(120, TimeUnit.MINUTES);
-                if (indexUrl == null) {
-                    throw new TimeoutException("waited 120 minutes for a new record");
-                }
-
-                if (indexUrl == PipesIterator.COMPLETED_SEMAPHORE) {
-                    recordProcessor.close();
-                    // can hang forever
-                    indexUrls.put(PipesIterator.COMPLETED_SEMAPHORE);
-                    return INDEX_WORKER_ID;
-                }
-                shouldContinue = processFile(indexUrl, recordProcessor);
-            }
-            return INDEX_WORKER_ID;
-        }
-
-        private boolean processFile(
-                FetchEmitTuple fetchEmitTuple, AbstractRecordProcessor recordProcessor)
-                throws InterruptedException {
-            long start = System.currentTimeMillis();
-            LOGGER.info(
-                    "starting to fetch index gz path={} with fetcher class={}",
-                    fetchEmitTuple.getFetchKey().getFetchKey(),
-                    fetcher.getClass());
-            try (TikaInputStream tis =
-                    (TikaInputStream)
-                            fetcher.fetch(
-                                    fetchEmitTuple.getFetchKey().getFetchKey(),
-                                    new Metadata(),
-                                    new ParseContext())) {
-                try (InputStream is = new BufferedInputStream(new GZIPInputStream(tis))) {
-                    try (BufferedReader reader =
-                            new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-                        int lineCount = 0;
-                        long elapsed = System.currentTimeMillis() - start;
-                        LOGGER.info(
-                                "Finished fetching {} bytes in {} ms for index gz: {}",
-                                String.format(Locale.US, "%,d", tis.getLength()),
-                                String.format(Locale.US, "%,d", elapsed),
-                                fetchEmitTuple.getFetchKey().getFetchKey());
-                        List<String> lines = new ArrayList<>();
-                        String line = reader.readLine();
-                        while (line != null) {
-                            if (StringUtils.isBlank(line)) {
-                                line = reader.readLine();
-                                continue;
-                            }
-                            lines.add(line);
-                            if (lines.size() >= BATCH_SIZE) {
-                                boolean shouldContinue = processLines(lines, recordProcessor);
-                                if (!shouldContinue) {
-                                    return shouldContinue;
-                                }
-                                lines.clear();
-                            }
-                            line = reader.readLine();
-                        }
-                        boolean shouldContinue = processLines(lines, recordProcessor);
-                        if (!shouldContinue) {
-                            return shouldContinue;
-                        }
-                    }
-                }
-            } catch (TikaException | IOException | RuntimeException e) {
-                // RuntimeException covers TikaTimeoutException (extends RuntimeException, not
-                // TikaException) -- an occasional slow fetch must not kill the whole run.
-                LOGGER.error(
-                        "failed while processing " + fetchEmitTuple.getFetchKey().getFetchKey(), e);
-            }
-            long elapsed = System.currentTimeMillis() - start;
-            counter.getIndexFilesCompleted().incrementAndGet();
-            LOGGER.info(
-                    "finished processing index gz in ({}) ms: {} -- {}",
-                    String.format(Locale.US, "%,d", elapsed),
-                    fetchEmitTuple.getFetchKey().getFetchKey(),
-                    counter.progressSummary());
-            return true;
-        }
-
-        private boolean processLines(List<String> lines, AbstractRecordProcessor recordProcessor)
-                throws InterruptedException {
-            for (String line : lines) {
-                try {
-                    boolean shouldContinue = recordProcessor.process(line);
-                    if (!shouldContinue) {
-                        return shouldContinue;
-                    }
-                } catch (IOException e) {
-                    LOGGER.warn("bad json: " + line);
-                }
-            }
-            return true;
-        }
-    }
-
     private static class DetectedMimeCounter extends AbstractRecordProcessor {
         private final ExtractorConfig fetcherConfig;
         private final CCIndexReaderCounter counter;
         private final Map<String, MutableLong> totalCounts = new HashMap<>();
         private final Map<String, MutableLong> truncatedCounts = new HashMap<>();
+        private final CdxLineParser cdxLine = new CdxLineParser();
+        private final LazyCCIndexRecord lazyRecord = new LazyCCIndexRecord(cdxLine);
+        // null if the selector has nothing to check on the raw line
+        private final LinePrefilter prefilter;
 
         public DetectedMimeCounter(ExtractorConfig fetcherConfig, CCIndexReaderCounter counter) {
             this.fetcherConfig = fetcherConfig;
             this.counter = counter;
+            this.prefilter = fetcherConfig.getRecordSelector().getLinePrefilter();
         }
 
         @Override
         public boolean process(String json) throws IOException, InterruptedException {
+            if (!countRead()) {
+                return false;
+            }
+            Optional<CCIndexRecord> record = CCIndexRecord.parseRecord(json);
+            if (record.isEmpty()) {
+                // problem already logged
+                return true;
+            }
+            return processRecord(record.get());
+        }
+
+        @Override
+        public boolean process(byte[] line, int offset, int length)
+                throws IOException, InterruptedException {
+            if (prefilter != null && !prefilter.mayMatch(line, offset, length)) {
+                // can't be selected, so don't bother parsing it
+                return countRead();
+            }
+            if (!cdxLine.parse(line, offset, length)) {
+                // e.g. json that needs repairing
+                return process(new String(line, offset, length, StandardCharsets.UTF_8));
+            }
+            if (!countRead()) {
+                return false;
+            }
+            // nothing outlives the line, so the fields are only ever decoded as needed
+            return processRecord(lazyRecord);
+        }
+
+        private boolean countRead() {
             long totalRead = counter.getRecordsRead().incrementAndGet();
             if (totalRead % 100_000 == 0) {
                 LOGGER.info("progress: {}", counter.progressSummary());
@@ -341,15 +252,19 @@ public class CCMimeCounter {
                 LOGGER.info("hit max read");
                 return false;
             }
-            Optional<CCIndexRecord> record = CCIndexRecord.parseRecord(json);
-            if (record.isEmpty()) {
-                // problem already logged
-                return true;
+            if (fetcherConfig.getRecordSelector().isDone()) {
+                // no more records can be selected
+                LOGGER.info("met every quota");
+                return false;
             }
-            CCIndexRecord r = record.get();
+            return true;
+        }
+
+        private boolean processRecord(CCIndexRecord r) {
             if (!fetcherConfig.getRecordSelector().select(r)) {
                 return true;
             }
+            counter.getRecordsSelected().incrementAndGet();
             increment(totalCounts, r.getNormalizedMimeDetected());
             if (!StringUtils.isBlank(r.getTruncated())) {
                 long truncated = counter.getTruncated().incrementAndGet();
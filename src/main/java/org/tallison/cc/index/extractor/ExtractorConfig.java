@@ -21,7 +21,9 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Locale;
 
 import org.tallison.cc.index.IndexIterator;
 import org.tallison.cc.index.io.BackoffHttpFetcher;
@@ -54,6 +56,18 @@ public class ExtractorConfig {
 
     public static long[] DEFAULT_THROTTLE_SECONDS = new long[] {30, 120, 600, 1800};
     private int numThreads = 2;
+    // threads reading and selecting from index files; -1 falls back to numThreads
+    private int numIndexThreads = -1;
+    // threads fetching selected records from the WARC files; -1 falls back to numThreads
+    private int numFetchThreads = -1;
+    // maximum selected records waiting for a fetch thread before index threads block
+    private int fetchQueueSize = 1000;
+
+    private FetchMode fetchMode = FetchMode.POOL;
+    // only used with FetchMode.VIRTUAL; numFetchThreads bounds in-flight fetches for POOL
+    private int maxFetchesInFlight = 1000;
+    // times an index worker re-requests the rest of an index file after a dropped connection
+    private int maxIndexResumeAttempts = 5;
     // maximum records to read
     private long maxRecords = -1;
 
@@ -91,6 +105,25 @@ public class ExtractorConfig {
     @JsonProperty("columnarIndex")
     private ColumnarIndexConfig columnarIndexConfig;
 
+    // null: every selected record is fetched with its own range request
+    @JsonProperty("coalesce")
+    private CoalesceConfig coalesceConfig;
+
+    // null: selected records are fetched in index order, as soon as they're selected
+    @JsonProperty("warcOrder")
+    private WarcOrderConfig warcOrderConfig;
+
+    // null: every selected record is fetched
+    @JsonProperty("reservoir")
+    private ReservoirConfig reservoirConfig;
+
+    @JsonProperty("payloadBuffer")
+    private PayloadBufferConfig payloadBufferConfig = new PayloadBufferConfig(null, null, null);
+
+    // null: an index worker starts fetching its next index file when it's done with the last
+    @JsonProperty("indexPrefetch")
+    private IndexPrefetchConfig indexPrefetchConfig;
+
     public static String getCcHttpsBase() {
         return CC_HTTPS_BASE;
     }
@@ -103,6 +136,54 @@ public class ExtractorConfig {
         this.numThreads = numThreads;
     }
 
+    public int getNumIndexThreads() {
+        return numIndexThreads > 0 ? numIndexThreads : numThreads;
+    }
+
+    public void setNumIndexThreads(int numIndexThreads) {
+        this.numIndexThreads = numIndexThreads;
+    }
+
+    public int getNumFetchThreads() {
+        return numFetchThreads > 0 ? numFetchThreads : numThreads;
+    }
+
+    public void setNumFetchThreads(int numFetchThreads) {
+        this.numFetchThreads = numFetchThreads;
+    }
+
+    public int getFetchQueueSize() {
+        return fetchQueueSize;
+    }
+
+    public void setFetchQueueSize(int fetchQueueSize) {
+        this.fetchQueueSize = fetchQueueSize;
+    }
+
+    public FetchMode getFetchMode() {
+        return fetchMode;
+    }
+
+    public void setFetchMode(String fetchMode) {
+        this.fetchMode = FetchMode.valueOf(fetchMode.toUpperCase(Locale.ROOT));
+    }
+
+    public int getMaxFetchesInFlight() {
+        return maxFetchesInFlight;
+    }
+
+    public void setMaxFetchesInFlight(int maxFetchesInFlight) {
+        this.maxFetchesInFlight = maxFetchesInFlight;
+    }
+
+    public int getMaxIndexResumeAttempts() {
+        return maxIndexResumeAttempts;
+    }
+
+    public void setMaxIndexResumeAttempts(int maxIndexResumeAttempts) {
+        this.maxIndexResumeAttempts = maxIndexResumeAttempts;
+    }
+
     public long getMaxRecords() {
         return maxRecords;
     }
@@ -171,14 +252,15 @@ public class ExtractorConfig {
         if (fetchConfig == null) {
             fetchConfig = new FetchConfig(null, DEFAULT_THROTTLE_SECONDS, null);
         }
-        return fetchConfig.newFetcher();
+        return fetchConfig.newFetcher(false);
     }
 
     public Fetcher newIndexFileFetcher() throws TikaConfigException {
         if (indexFileFetchConfig == null) {
             indexFileFetchConfig = new FetchConfig(null, DEFAULT_THROTTLE_SECONDS, null);
         }
-        return indexFileFetchConfig.newFetcher();
+        // index files are read front to back, so parse them while they download
+        return indexFileFetchConfig.newFetcher(true);
     }
 
     public StreamEmitter newEmitter() throws TikaConfigException {
@@ -188,6 +270,16 @@ public class ExtractorConfig {
         return emitConfig.newEmitter();
     }
 
+    /**
+     * @return the local directory the docs are written to, or null if they're emitted to S3
+     */
+    public Path getLocalDocsPath() {
+        if (emitConfig == null) {
+            emitConfig = new EmitConfig(DEFAULT_FS_DOCS_PATH);
+        }
+        return emitConfig.getLocalPath();
+    }
+
     public void setExtractTruncated(boolean extractTruncated) {
         this.extractTruncated = extractTruncated;
     }
@@ -208,6 +300,40 @@ public class ExtractorConfig {
         return columnarIndexConfig;
     }
 
+    public CoalesceConfig getCoalesceConfig() {
+        return coalesceConfig;
+    }
+
+    public WarcOrderConfig getWarcOrderConfig() {
+        return warcOrderConfig;
+    }
+
+    public ReservoirConfig getReservoirConfig() {
+        return reservoirConfig;
+    }
+
+    public PayloadBufferConfig getPayloadBufferConfig() {
+        return payloadBufferConfig;
+    }
+
+    public IndexPrefetchConfig getIndexPrefetchConfig() {
+        return indexPrefetchConfig;
+    }
+
+    /**
+     * How the fetch stage runs the WARC range requests.
+     */
+    public enum FetchMode {
+        /** {@code numFetchThreads} platform threads, one fetch at a time each */
+        POOL,
+        /**
+         * one virtual thread per fetch, at most {@code maxFetchesInFlight} at a time. Falls
+         * back to an unbounded platform thread pool (still bounded by {@code
+         * maxFetchesInFlight}) on Java versions without virtual threads.
+         */
+        VIRTUAL
+    }
+
     /**
      * Config for {@link CCColumnarIndexExtractor} (the "QueryIndex" command) -- queries
      * Common Crawl's columnar (Parquet) index at
@@ -253,23 +379,233 @@ public class ExtractorConfig {
         }
     }
 
+    /**
+     * Config for merging the range requests of selected records that are close together in the
+     * same WARC file. See {@link WarcRangeCoalescer}.
+     */
+    public static class CoalesceConfig {
+        private static final long DEFAULT_MAX_GAP_BYTES = 64 * 1024;
+        private static final long DEFAULT_MAX_RANGE_BYTES = 16 * 1024 * 1024;
+        private static final int DEFAULT_BATCH_SIZE = 100;
+
+        private final long maxGapBytes;
+        private final long maxRangeBytes;
+        private final int batchSize;
+
+        @JsonCreator
+        public CoalesceConfig(
+                @JsonProperty("maxGapBytes") Long maxGapBytes,
+                @JsonProperty("maxRangeBytes") Long maxRangeBytes,
+                @JsonProperty("batchSize") Integer batchSize) {
+            this.maxGapBytes = maxGapBytes == null ? DEFAULT_MAX_GAP_BYTES : maxGapBytes;
+            this.maxRangeBytes =
+                    maxRangeBytes == null ? DEFAULT_MAX_RANGE_BYTES : maxRangeBytes;
+            this.batchSize = batchSize == null ? DEFAULT_BATCH_SIZE : batchSize;
+            if (this.batchSize < 1) {
+                throw new IllegalArgumentException("coalesce.batchSize must be > 0");
+            }
+        }
+
+        /** merge records with at most this many bytes between them */
+        public long getMaxGapBytes() {
+            return maxGapBytes;
+        }
+
+        /** maximum length of a single merged request */
+        public long getMaxRangeBytes() {
+            return maxRangeBytes;
+        }
+
+        /** maximum records a fetch worker takes off the fetch queue at a time to merge */
+        public int getBatchSize() {
+            return batchSize;
+        }
+    }
+
+    /**
+     * Config for fetching the selected records in (WARC filename, offset) order after the index
+     * scan instead of in index order during the scan. See {@link WarcLocalityBuffer}.
+     */
+    public static class WarcOrderConfig {
+        private static final int DEFAULT_MAX_RECORDS_IN_MEMORY = 1_000_000;
+
+        private final int maxRecordsInMemory;
+        private final Path spillDirectory;
+
+        @JsonCreator
+        public WarcOrderConfig(
+                @JsonProperty("maxRecordsInMemory") Integer maxRecordsInMemory,
+                @JsonProperty("spillDirectory") String spillDirectory) {
+            this.maxRecordsInMemory =
+                    maxRecordsInMemory == null ? DEFAULT_MAX_RECORDS_IN_MEMORY : maxRecordsInMemory;
+            if (this.maxRecordsInMemory < 1) {
+                throw new IllegalArgumentException("warcOrder.maxRecordsInMemory must be > 0");
+            }
+            this.spillDirectory =
+                    StringUtils.isBlank(spillDirectory)
+                            ? Paths.get(System.getProperty("java.io.tmpdir"))
+                            : Paths.get(spillDirectory);
+        }
+
+        /** selected records beyond this are sorted and spilled to disk */
+        public int getMaxRecordsInMemory() {
+            return maxRecordsInMemory;
+        }
+
+        /** where the sorted runs are spilled; defaults to java.io.tmpdir */
+        public Path getSpillDirectory() {
+            return spillDirectory;
+        }
+    }
+
+    /**
+     * Config for fetching a sample of exactly {@code size} of the selected records for each
+     * value of a field, after the index scan. See {@link SampleReservoir}.
+     */
+    public static class ReservoirConfig {
+        private final String field;
+        private final int size;
+        private final long seed;
+
+        @JsonCreator
+        public ReservoirConfig(
+                @JsonProperty("field") String field,
+                @JsonProperty("size") Integer size,
+                @JsonProperty("seed") Long seed) {
+            if (StringUtils.isBlank(field)) {
+                throw new IllegalArgumentException("reservoir.field is required");
+            }
+            if (size == null || size < 1) {
+                throw new IllegalArgumentException("reservoir.size must be > 0");
+            }
+            // fail on the config rather than after the index scan has started
+            RecordSelector.getField(field);
+            this.field = field;
+            this.size = size;
+            this.seed = seed == null ? 0 : seed;
+        }
+
+        /** the field whose values each get a sample, e.g. "tld" */
+        public String getField() {
+            return field;
+        }
+
+        /** the number of records to fetch for each value of the field */
+        public int getSize() {
+            return size;
+        }
+
+        /** picks the records; the same seed picks the same ones. Defaults to 0 */
+        public long getSeed() {
+            return seed;
+        }
+    }
+
+    /**
+     * Config for holding extracted payloads in memory before they're written. See {@link
+     * PayloadBuffer}.
+     */
+    public static class PayloadBufferConfig {
+        private static final long DEFAULT_MAX_IN_MEMORY_BYTES = 1024 * 1024;
+        private static final long DEFAULT_MAX_POOLED_BYTES = 64 * 1024 * 1024;
+
+        private final long maxInMemoryBytes;
+        private final long maxPooledBytes;
+        private final Path tmpDirectory;
+
+        @JsonCreator
+        public PayloadBufferConfig(
+                @JsonProperty("maxInMemoryBytes") Long maxInMemoryBytes,
+                @JsonProperty("maxPooledBytes") Long maxPooledBytes,
+                @JsonProperty("tmpDirectory") String tmpDirectory) {
+            this.maxInMemoryBytes =
+                    maxInMemoryBytes == null ? DEFAULT_MAX_IN_MEMORY_BYTES : maxInMemoryBytes;
+            this.maxPooledBytes =
+                    maxPooledBytes == null ? DEFAULT_MAX_POOLED_BYTES : maxPooledBytes;
+            this.tmpDirectory = StringUtils.isBlank(tmpDirectory) ? null : Paths.get(tmpDirectory);
+        }
+
+        /** payloads larger than this are written to a temp file; 0 writes them all to disk */
+        public long getMaxInMemoryBytes() {
+            return maxInMemoryBytes;
+        }
+
+        /** the most memory the payloads of all fetch threads may hold at a time */
+        public long getMaxPooledBytes() {
+            return maxPooledBytes;
+        }
+
+        /**
+         * where larger payloads are spilled; null for the docs directory or, when the docs go to
+         * S3, java.io.tmpdir
+         */
+        public Path getTmpDirectory() {
+            return tmpDirectory;
+        }
+    }
+
+    /**
+     * Config for downloading each index worker's next index file while it processes the current
+     * one. See {@link IndexPrefetcher}.
+     */
+    public static class IndexPrefetchConfig {
+        private static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+
+        private final long maxBytes;
+        private final Path tmpDirectory;
+
+        @JsonCreator
+        public IndexPrefetchConfig(
+                @JsonProperty("maxBytes") Long maxBytes,
+                @JsonProperty("tmpDirectory") String tmpDirectory) {
+            this.maxBytes = maxBytes == null ? DEFAULT_MAX_BYTES : maxBytes;
+            this.tmpDirectory =
+                    StringUtils.isBlank(tmpDirectory)
+                            ? Paths.get(System.getProperty("java.io.tmpdir"))
+                            : Paths.get(tmpDirectory);
+        }
+
+        /** the most disk space the prefetched index files of all workers may take up */
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        /** where the index files are downloaded; defaults to java.io.tmpdir */
+        public Path getTmpDirectory() {
+            return tmpDirectory;
+        }
+    }
+
     private static class FetchConfig {
         private final String profile;
         private final long[] throttleSeconds;
         private final String basePath;
+        // null: use the default for the kind of fetcher
+        private final Boolean streaming;
+
+        private FetchConfig(String profile, long[] throttleSeconds, String basePath) {
+            this(profile, throttleSeconds, basePath, null);
+        }
 
         @JsonCreator
         public FetchConfig(
                 @JsonProperty("profile") String profile,
                 @JsonProperty("throttleSeconds") long[] throttleSeconds,
-                @JsonProperty("basePath") String basePath) {
+                @JsonProperty("basePath") String basePath,
+                @JsonProperty("streaming") Boolean streaming) {
             this.profile = profile;
             this.throttleSeconds =
                     (throttleSeconds == null) ? DEFAULT_THROTTLE_SECONDS : throttleSeconds;
             this.basePath = basePath;
+            this.streaming = streaming;
         }
 
-        Fetcher newFetcher() throws TikaConfigException {
+        /**
+         * @param defaultStreaming whether the fetcher should hand back the response as it
+         *     arrives rather than spool it first, unless "streaming" is configured
+         */
+        Fetcher newFetcher(boolean defaultStreaming) throws TikaConfigException {
+            boolean stream = streaming == null ? defaultStreaming : streaming;
             Fetcher fetcher;
             if (profile != null) {
                 fetcher = new S3Fetcher();
@@ -278,11 +614,12 @@ public class ExtractorConfig {
                 ((S3Fetcher) fetcher).setBucket(ExtractorConfig.CC_S3_BUCKET);
                 ((S3Fetcher) fetcher).setRegion(ExtractorConfig.CC_REGION);
                 ((S3Fetcher) fetcher).setThrottleSeconds(throttleSeconds);
+                ((S3Fetcher) fetcher).setSpoolToTemp(!stream);
             } else if (basePath != null) {
                 fetcher = new FileSystemFetcher();
                 ((FileSystemFetcher) fetcher).setBasePath(basePath);
             } else {
-                fetcher = new BackoffHttpFetcher(throttleSeconds);
+                fetcher = new BackoffHttpFetcher(throttleSeconds, stream);
             }
             if (fetcher instanceof Initializable) {
                 ((Initializable) fetcher).initialize(Collections.EMPTY_MAP);
@@ -318,6 +655,13 @@ public class ExtractorConfig {
             this.path = path;
         }
 
+        Path getLocalPath() {
+            if (!StringUtils.isBlank(profile)) {
+                return null;
+            }
+            return Paths.get(StringUtils.isBlank(path) ? DEFAULT_FS_DOCS_PATH : path);
+        }
+
         public StreamEmitter newEmitter() throws TikaConfigException {
             if (!StringUtils.isBlank(profile)) {
                 S3Emitter emitter = new S3Emitter();
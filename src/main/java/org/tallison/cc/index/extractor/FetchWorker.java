@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.CCIndexRecord;
+
+import org.apache.tika.exception.TikaConfigException;
+
+/**
+ * Drains selected records from the fetch queue and extracts them from the WARC files. This
+ * decouples the (latency-bound) range requests from the (CPU-bound) index scanning so that a
+ * slow fetch doesn't stall the reading of an index file.
+ */
+class FetchWorker implements Callable<Long> {
+
+    /**
+     * Sentinel value returned by fetch workers so the orchestrator can distinguish them from index
+     * workers (42L) and the index-reader (1L).
+     */
+    static final Long FETCH_WORKER_ID = 43L;
+
+    /**
+     * Put on the fetch queue once all index workers have finished. Each fetch worker puts it back
+     * on the queue so that its siblings see it too.
+     */
+    static final CCIndexRecord COMPLETED_SEMAPHORE = new CCIndexRecord();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FetchWorker.class);
+
+    private final BlockingQueue<CCIndexRecord> fetchQueue;
+    private final FileFromCCWarcExtractor fileFromCCWarcExtractor;
+    // null if coalescing is turned off
+    private final WarcRangeCoalescer coalescer;
+    private final int batchSize;
+
+    FetchWorker(
+            BlockingQueue<CCIndexRecord> fetchQueue,
+            FileFromCCWarcExtractor fileFromCCWarcExtractor,
+            ExtractorConfig.CoalesceConfig coalesceConfig) {
+        this.fetchQueue = fetchQueue;
+        this.fileFromCCWarcExtractor = fileFromCCWarcExtractor;
+        this.coalescer = newCoalescer(coalesceConfig);
+        this.batchSize = coalesceConfig == null ? 1 : coalesceConfig.getBatchSize();
+    }
+
+    /**
+     * Builds the fetch stage for the configured {@link ExtractorConfig.FetchMode}: {@code
+     * numFetchThreads} FetchWorkers, or a single {@link VirtualThreadFetchWorker}. Each returns
+     * {@link #FETCH_WORKER_ID} when it's done.
+     */
+    static List<Callable<Long>> newFetchWorkers(
+            ExtractorConfig fetcherConfig,
+            BlockingQueue<CCIndexRecord> fetchQueue,
+            CCIndexReaderCounter counter)
+            throws TikaConfigException {
+        List<Callable<Long>> workers = new ArrayList<>();
+        PayloadBufferPool bufferPool = PayloadBufferPool.newPool(fetcherConfig);
+        if (fetcherConfig.getFetchMode() == ExtractorConfig.FetchMode.VIRTUAL) {
+            workers.add(
+                    new VirtualThreadFetchWorker(
+                            fetchQueue,
+                            new FileFromCCWarcExtractor(fetcherConfig, counter, bufferPool),
+                            fetcherConfig.getCoalesceConfig(),
+                            fetcherConfig.getMaxFetchesInFlight()));
+            return workers;
+        }
+        for (int i = 0; i < fetcherConfig.getNumFetchThreads(); i++) {
+            workers.add(
+                    new FetchWorker(
+                            fetchQueue,
+                            new FileFromCCWarcExtractor(fetcherConfig, counter, bufferPool),
+                            fetcherConfig.getCoalesceConfig()));
+        }
+        return workers;
+    }
+
+    static WarcRangeCoalescer newCoalescer(ExtractorConfig.CoalesceConfig coalesceConfig) {
+        if (coalesceConfig == null) {
+            return null;
+        }
+        return new WarcRangeCoalescer(
+                coalesceConfig.getMaxGapBytes(), coalesceConfig.getMaxRangeBytes());
+    }
+
+    /**
+     * Blocks for the next record and then takes up to {@code batchSize - 1} more without
+     * blocking.
+     *
+     * @return true if the batch contained the {@link #COMPLETED_SEMAPHORE}. It is removed from
+     *     the batch and put back on the queue for the other workers.
+     */
+    static boolean takeBatch(
+            BlockingQueue<CCIndexRecord> fetchQueue, int batchSize, List<CCIndexRecord> batch)
+            throws InterruptedException {
+        // no timeout -- a very selective record selector may not select anything
+        // for hours. The orchestrator signals the end with COMPLETED_SEMAPHORE.
+        batch.add(fetchQueue.take());
+        if (batchSize > 1) {
+            fetchQueue.drainTo(batch, batchSize - 1);
+        }
+        if (batch.remove(COMPLETED_SEMAPHORE)) {
+            fetchQueue.put(COMPLETED_SEMAPHORE);
+            return true;
+        }
+        return false;
+    }
+
+    /** @return one range per record if coalescer is null */
+    static List<WarcRangeCoalescer.WarcRange> toRanges(
+            List<CCIndexRecord> batch, WarcRangeCoalescer coalescer) {
+        if (coalescer != null) {
+            return coalescer.coalesce(batch);
+        }
+        List<WarcRangeCoalescer.WarcRange> ranges = new ArrayList<>();
+        for (CCIndexRecord r : batch) {
+            ranges.add(new WarcRangeCoalescer.WarcRange(r));
+        }
+        return ranges;
+    }
+
+    @Override
+    public Long call() throws Exception {
+        List<CCIndexRecord> batch = new ArrayList<>();
+        while (true) {
+            batch.clear();
+            boolean completed = takeBatch(fetchQueue, batchSize, batch);
+            for (WarcRangeCoalescer.WarcRange range : toRanges(batch, coalescer)) {
+                try {
+                    fileFromCCWarcExtractor.fetchToPath(range);
+                } catch (RuntimeException e) {
+                    // an occasional bad record must not kill the whole fetch stage
+                    LOGGER.warn("failed to fetch {}", range, e);
+                }
+            }
+            if (completed) {
+                return FETCH_WORKER_ID;
+            }
+        }
+    }
+}
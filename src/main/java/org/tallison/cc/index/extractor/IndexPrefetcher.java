@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.pipes.fetcher.FetchKey;
+import org.apache.tika.pipes.fetcher.Fetcher;
+import org.apache.tika.pipes.fetcher.RangeFetcher;
+
+/**
+ * Downloads the next index file of an {@link IndexWorker} to a temp file while the worker is
+ * still processing the current one, so that workers don't sit idle at every file boundary.
+ *
+ * <p>All workers share one byte budget. A download that runs out of budget, or that is still
+ * running when the worker gets to it, stops where it is; the worker reads what was downloaded
+ * and range-requests the rest.
+ */
+class IndexPrefetcher implements Closeable {
+
+    static final String TMP_PREFIX = ".ccindex-prefetch-";
+
+    // the budget is handed out in blocks of this size
+    static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexPrefetcher.class);
+
+    private final Semaphore budget;
+    private final Path tmpDirectory;
+    private final ExecutorService executorService =
+            Executors.newCachedThreadPool(
+                    r -> {
+                        Thread t = new Thread(r, "index-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    });
+
+    /**
+     * @param maxBytes the most bytes all prefetched index files together may take up
+     * @param tmpDirectory where the index files are downloaded
+     */
+    IndexPrefetcher(long maxBytes, Path tmpDirectory) {
+        this.budget = new Semaphore((int) Math.min(Integer.MAX_VALUE, maxBytes / BLOCK_SIZE));
+        this.tmpDirectory = tmpDirectory;
+    }
+
+    /** @return null if index files aren't to be prefetched */
+    static IndexPrefetcher newPrefetcher(ExtractorConfig fetcherConfig) {
+        ExtractorConfig.IndexPrefetchConfig config = fetcherConfig.getIndexPrefetchConfig();
+        if (config == null) {
+            return null;
+        }
+        return new IndexPrefetcher(config.getMaxBytes(), config.getTmpDirectory());
+    }
+
+    /**
+     * Starts downloading the index file, or the work unit of one, in the background.
+     *
+     * @param fetcher must be a {@link RangeFetcher} so that a partial download can be resumed
+     */
+    Prefetch start(Fetcher fetcher, FetchKey fetchKey) {
+        Prefetch prefetch = new Prefetch((RangeFetcher) fetcher, fetchKey);
+        prefetch.future = executorService.submit(prefetch::download);
+        return prefetch;
+    }
+
+    int availableBlocks() {
+        return budget.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    /** A single index file being downloaded. */
+    class Prefetch implements Closeable {
+
+        private final RangeFetcher fetcher;
+        private final String indexFile;
+        private final long rangeStart;
+        // inclusive
+        private final long rangeEnd;
+        private Future<?> future;
+        private volatile boolean stopped = false;
+        private Path file;
+        private long bytes = 0;
+        private int blocks = 0;
+        private boolean complete = false;
+        private boolean closed = false;
+
+        private Prefetch(RangeFetcher fetcher, FetchKey fetchKey) {
+            this.fetcher = fetcher;
+            this.indexFile = fetchKey.getFetchKey();
+            this.rangeStart = fetchKey.hasRange() ? fetchKey.getRangeStart() : 0;
+            this.rangeEnd = fetchKey.hasRange() ? fetchKey.getRangeEnd() : Long.MAX_VALUE;
+        }
+
+        private Void download() throws Exception {
+            file = Files.createTempFile(tmpDirectory, TMP_PREFIX, "");
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream is = fetcher.fetch(indexFile, rangeStart, rangeEnd, new Metadata());
+                    OutputStream os = Files.newOutputStream(file)) {
+                while (!stopped) {
+                    if (bytes + buffer.length > (long) blocks * BLOCK_SIZE) {
+                        if (!budget.tryAcquire()) {
+                            LOGGER.debug(
+                                    "out of prefetch budget after {} bytes of {}",
+                                    bytes,
+                                    indexFile);
+                            return null;
+                        }
+                        blocks++;
+                    }
+                    int read = is.read(buffer);
+                    if (read < 0) {
+                        complete = true;
+                        return null;
+                    }
+                    os.write(buffer, 0, read);
+                    bytes += read;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Stops the download if it is still running and hands over what has been downloaded so
+         * far, followed by a range request for the rest. The temp file is deleted and the budget
+         * released when the stream is closed.
+         *
+         * @return null if the download failed; the caller should fetch the file itself
+         */
+        InputStream open() throws InterruptedException {
+            stopped = true;
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                LOGGER.warn("failed to prefetch {}; fetching it directly", indexFile, e);
+                close();
+                return null;
+            }
+            LOGGER.debug(
+                    "prefetched {} bytes of {} (complete={})", bytes, indexFile, complete);
+            InputStream is;
+            try {
+                is = Files.newInputStream(file);
+                if (!complete) {
+                    is = new SequenceInputStream(is, new RestInputStream());
+                }
+            } catch (IOException e) {
+                LOGGER.warn("can't read prefetched {}; fetching it directly", indexFile, e);
+                close();
+                return null;
+            }
+            return new FilterInputStream(is) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        Prefetch.this.close();
+                    }
+                }
+            };
+        }
+
+        /** Stops the download, if it's running, and deletes what was downloaded. */
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            stopped = true;
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // already logged by open(), or irrelevant if this was never opened
+            }
+            closed = true;
+            budget.release(blocks);
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.warn("can't delete {}", file.toAbsolutePath(), e);
+                }
+            }
+        }
+
+        /** The part of the index file after what was prefetched; requested on first read. */
+        private class RestInputStream extends InputStream {
+            private InputStream rest;
+
+            @Override
+            public int read() throws IOException {
+                return open().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return open().read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (rest != null) {
+                    rest.close();
+                }
+            }
+
+            private InputStream open() throws IOException {
+                if (rest == null && rangeStart + bytes > rangeEnd) {
+                    // the whole range was downloaded
+                    rest = InputStream.nullInputStream();
+                }
+                if (rest == null) {
+                    try {
+                        rest =
+                                fetcher.fetch(
+                                        indexFile, rangeStart + bytes, rangeEnd, new Metadata());
+                    } catch (TikaException e) {
+                        throw new IOException("can't fetch the rest of " + indexFile, e);
+                    }
+                }
+                return rest;
+            }
+        }
+    }
+}
@@ -16,33 +16,53 @@
  */
 package org.tallison.cc.index.extractor;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.zip.GZIPInputStream;
 
 import org.tallison.cc.index.AbstractRecordProcessor;
+import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.io.ByteLineReader;
+import org.tallison.cc.index.io.GzipMemberReader;
 
 import org.apache.tika.exception.TikaException;
-import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.pipes.FetchEmitTuple;
+import org.apache.tika.pipes.fetcher.FetchKey;
 import org.apache.tika.pipes.fetcher.Fetcher;
+import org.apache.tika.pipes.fetcher.RangeFetcher;
 import org.apache.tika.pipes.pipesiterator.PipesIterator;
-import org.apache.tika.utils.StringUtils;
 
+/**
+ * Fetches and processes one index file (cdx-*.gz), or work unit of one, at a time. With a
+ * streaming index fetcher (the default over HTTPS), the lines are gunzipped and processed as the
+ * file downloads.
+ *
+ * <p>A work unit is either a whole index file or, with {@code blocksPerWorkUnit} (see {@link
+ * org.tallison.cc.index.ClusterIndex}), a byte range of consecutive gzip members of one.
+ *
+ * <p>If the download fails partway through, the rest of the work unit is requested with a range
+ * request from the start of the gzip member that was being read, and the lines of that member
+ * that were already processed are skipped.
+ *
+ * <p>If the selector narrows down the SURT keys, the worker stops reading a work unit once its
+ * lines, which are sorted by SURT key, are past the last key that can be selected.
+ *
+ * <p>With an {@link IndexPrefetcher}, the worker takes the next index file off the queue as it
+ * starts on the current one and downloads it in the background.
+ */
 class IndexWorker implements Callable<Long> {
 
     /**
@@ -61,91 +81,332 @@ class IndexWorker implements Callable<Long> {
 
     private final ArrayBlockingQueue<FetchEmitTuple> indexFileQueue;
     private final AbstractRecordProcessor recordProcessor;
+    private final CCIndexReaderCounter counter;
     private final Fetcher indexFileFetcher;
+    private final int maxResumeAttempts;
+    // null unless the next index file is to be downloaded during the current one
+    private final IndexPrefetcher prefetcher;
+    // the last SURT prefix the selector can select; null if it can select any key
+    private final byte[] lastSurtPrefix;
 
     IndexWorker(
             ExtractorConfig fetcherConfig,
             ArrayBlockingQueue<FetchEmitTuple> indexFileQueue,
-            AbstractRecordProcessor recordProcessor)
+            AbstractRecordProcessor recordProcessor,
+            CCIndexReaderCounter counter)
+            throws TikaException {
+        this(fetcherConfig, indexFileQueue, recordProcessor, counter, null);
+    }
+
+    /**
+     * @param prefetcher shared by all index workers; may be null
+     */
+    IndexWorker(
+            ExtractorConfig fetcherConfig,
+            ArrayBlockingQueue<FetchEmitTuple> indexFileQueue,
+            AbstractRecordProcessor recordProcessor,
+            CCIndexReaderCounter counter,
+            IndexPrefetcher prefetcher)
             throws TikaException {
         this.indexFileQueue = indexFileQueue;
         this.recordProcessor = recordProcessor;
+        this.counter = counter;
         this.indexFileFetcher = fetcherConfig.newIndexFileFetcher();
+        this.maxResumeAttempts = fetcherConfig.getMaxIndexResumeAttempts();
+        if (prefetcher != null && !(indexFileFetcher instanceof RangeFetcher)) {
+            // i.e. a local basePath, which there is no point in prefetching
+            LOGGER.info("not prefetching index files with {}", indexFileFetcher.getClass());
+            prefetcher = null;
+        }
+        this.prefetcher = prefetcher;
+        List<String> prefixes = fetcherConfig.getRecordSelector().getSurtPrefixes();
+        // they're sorted and none starts with another, so the last one's keys sort last
+        this.lastSurtPrefix =
+                prefixes == null || prefixes.isEmpty()
+                        ? null
+                        : prefixes.get(prefixes.size() - 1).getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
     public Long call() throws Exception {
-        boolean shouldContinue = true;
-        while (shouldContinue) {
-
-            FetchEmitTuple indexUrl = indexFileQueue.poll(POLL_TIMEOUT_MINUTES, TimeUnit.MINUTES);
-            if (indexUrl == null) {
-                throw new TimeoutException(
-                        "waited " + POLL_TIMEOUT_MINUTES + " minutes for a new record");
+        FetchEmitTuple indexUrl = take();
+        IndexPrefetcher.Prefetch prefetch = null;
+        try {
+            while (true) {
+                if (indexUrl == PipesIterator.COMPLETED_SEMAPHORE) {
+                    recordProcessor.close();
+                    // can hang forever
+                    indexFileQueue.put(PipesIterator.COMPLETED_SEMAPHORE);
+                    return INDEX_WORKER_ID;
+                }
+                LOGGER.trace(indexUrl.toString());
+                IndexPrefetcher.Prefetch current = prefetch;
+                prefetch = null;
+                // don't wait for the next file: if there isn't one yet, there's nothing to
+                // prefetch
+                FetchEmitTuple next = prefetcher == null ? null : indexFileQueue.poll();
+                if (next != null && next != PipesIterator.COMPLETED_SEMAPHORE) {
+                    prefetch =
+                            prefetcher.start(indexFileFetcher, next.getFetchKey());
+                }
+                boolean shouldContinue;
+                try {
+                    shouldContinue = processFile(indexUrl, current, recordProcessor);
+                } finally {
+                    if (current != null) {
+                        current.close();
+                    }
+                }
+                if (!shouldContinue) {
+                    // e.g. for a sample that's waiting on this file to be finished
+                    counter.stop();
+                    giveBack(next);
+                    return INDEX_WORKER_ID;
+                }
+                indexUrl = next == null ? take() : next;
             }
-
-            if (indexUrl == PipesIterator.COMPLETED_SEMAPHORE) {
-                recordProcessor.close();
-                // can hang forever
-                indexFileQueue.put(PipesIterator.COMPLETED_SEMAPHORE);
-                return INDEX_WORKER_ID;
+        } finally {
+            if (prefetch != null) {
+                prefetch.close();
             }
-            LOGGER.trace(indexUrl.toString());
-            shouldContinue = processFile(indexUrl, recordProcessor);
         }
-        return INDEX_WORKER_ID;
     }
 
+    /** Puts a file this worker took off the queue to prefetch back for the other workers. */
+    private void giveBack(FetchEmitTuple next) throws InterruptedException {
+        if (next == PipesIterator.COMPLETED_SEMAPHORE) {
+            indexFileQueue.put(PipesIterator.COMPLETED_SEMAPHORE);
+        } else if (next != null && !indexFileQueue.offer(next)) {
+            LOGGER.warn("index file queue is full; dropping {}", next.getFetchKey().getFetchKey());
+        }
+    }
+
+    private FetchEmitTuple take() throws InterruptedException, TimeoutException {
+        FetchEmitTuple indexUrl = indexFileQueue.poll(POLL_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        if (indexUrl == null) {
+            throw new TimeoutException(
+                    "waited " + POLL_TIMEOUT_MINUTES + " minutes for a new record");
+        }
+        return indexUrl;
+    }
+
+    /**
+     * @param prefetch the download of this file if it was prefetched, otherwise null
+     * @return false if the record processor asked to stop
+     */
     private boolean processFile(
-            FetchEmitTuple fetchEmitTuple, AbstractRecordProcessor recordProcessor)
+            FetchEmitTuple fetchEmitTuple,
+            IndexPrefetcher.Prefetch prefetch,
+            AbstractRecordProcessor recordProcessor)
             throws InterruptedException {
         long start = System.currentTimeMillis();
-        LOGGER.info("starting to fetch index gz: {}", fetchEmitTuple.getFetchKey().getFetchKey());
-        try (TikaInputStream tis =
-                (TikaInputStream)
-                        indexFileFetcher.fetch(
-                                fetchEmitTuple.getFetchKey().getFetchKey(),
-                                new Metadata(),
-                                new ParseContext())) {
-            try (InputStream is = new BufferedInputStream(new GZIPInputStream(tis))) {
-                try (BufferedReader reader =
-                        new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-                    String line = reader.readLine();
-                    int lines = 0;
+        FetchKey fetchKey = fetchEmitTuple.getFetchKey();
+        String indexFile = fetchKey.getFetchKey();
+        ReadState state = new ReadState();
+        state.prefetch = prefetch;
+        if (fetchKey.hasRange()) {
+            // a work unit of a few blocks of the file
+            state.memberOffset = fetchKey.getRangeStart();
+            state.rangeEnd = fetchKey.getRangeEnd();
+        }
+        LOGGER.info(
+                "starting to fetch index gz path={}{} with fetcher class={}",
+                indexFile,
+                fetchKey.hasRange() ? " from offset " + fetchKey.getRangeStart() : "",
+                indexFileFetcher.getClass());
+        int resumeAttempts = 0;
+        boolean shouldContinue = true;
+        while (true) {
+            try {
+                shouldContinue = readFile(indexFile, state, recordProcessor, start);
+                break;
+            } catch (RuntimeException e) {
+                // RuntimeException covers TikaTimeoutException (extends RuntimeException, not
+                // TikaException) -- an occasional slow fetch must not kill the whole run.
+                LOGGER.error("failed while processing " + indexFile, e);
+                break;
+            } catch (TikaException | IOException e) {
+                if (resumeAttempts >= maxResumeAttempts) {
+                    LOGGER.error("failed while processing " + indexFile, e);
+                    break;
+                }
+                resumeAttempts++;
+                LOGGER.warn(
+                        "failed while processing {}; resuming (#{}) from offset {} after line {} "
+                                + "of that gzip member",
+                        indexFile,
+                        resumeAttempts,
+                        state.memberOffset,
+                        state.memberLinesDone,
+                        e);
+            }
+        }
+        if (!shouldContinue) {
+            return false;
+        }
+        // with blocksPerWorkUnit, this counts work units rather than whole files
+        long elapsed = System.currentTimeMillis() - start;
+        counter.getIndexFilesCompleted().incrementAndGet();
+        LOGGER.info(
+                "finished processing {} lines of index gz in ({}) ms: {} -- {}",
+                String.format(Locale.US, "%,d", state.lines),
+                String.format(Locale.US, "%,d", elapsed),
+                indexFile,
+                counter.progressSummary());
+        return true;
+    }
+
+    /**
+     * Reads the index file from {@link ReadState#memberOffset} onwards, skipping the lines of
+     * that gzip member that were processed before a failure.
+     *
+     * @return false if the record processor asked to stop
+     */
+    private boolean readFile(
+            String indexFile,
+            ReadState state,
+            AbstractRecordProcessor recordProcessor,
+            long start)
+            throws TikaException, IOException, InterruptedException {
+        InputStream compressed = null;
+        if (state.prefetch != null) {
+            // only the first attempt reads the prefetched file
+            compressed = state.prefetch.open();
+            state.prefetch = null;
+        }
+        if (compressed != null) {
+            LOGGER.debug("reading prefetched {}", indexFile);
+        } else {
+            compressed = open(indexFile, state.memberOffset, state.rangeEnd);
+        }
+        try (GzipMemberReader members = new GzipMemberReader(compressed, state.memberOffset)) {
+            // lines don't cross gzip members in Common Crawl's index files
+            ByteLineReader reader = new ByteLineReader(members.memberStream());
+            while (members.nextMember()) {
+                if (state.rangeEnd >= 0 && members.getMemberOffset() > state.rangeEnd) {
+                    // e.g. a prefetched or spooled whole file: the rest is other work units'
+                    return true;
+                }
+                if (members.getMemberOffset() != state.memberOffset) {
+                    state.memberOffset = members.getMemberOffset();
+                    state.memberLinesDone = 0;
+                }
+                reader.reset();
+                long memberLine = 0;
+                boolean hasLine = reader.readLine();
+                if (!state.firstLineRead) {
+                    state.firstLineRead = true;
                     long elapsed = System.currentTimeMillis() - start;
+                    // for a spooling fetcher, this is the time to download the whole file
                     LOGGER.info(
-                            "Finished fetching index {} bytes in {} ms for index gz: {}",
-                            String.format(Locale.US, "%,d", tis.getLength()),
+                            "Read the first line after {} ms for index gz: {}",
                             String.format(Locale.US, "%,d", elapsed),
-                            fetchEmitTuple.getFetchKey().getFetchKey());
-                    while (line != null) {
-                        LOGGER.trace("about to add a line");
-                        if (StringUtils.isBlank(line)) {
-                            line = reader.readLine();
-                            continue;
-                        }
-                        try {
-                            boolean shouldContinue = recordProcessor.process(line);
-                            if (!shouldContinue) {
-                                return shouldContinue;
-                            }
-                        } catch (IOException e) {
-                            LOGGER.warn("bad json: " + line);
+                            indexFile);
+                }
+                while (hasLine) {
+                    memberLine++;
+                    byte[] lineBuffer = reader.getBuffer();
+                    int lineStart = reader.getLineStart();
+                    int lineLength = reader.getLineLength();
+                    if (memberLine <= state.memberLinesDone
+                            || isBlank(lineBuffer, lineStart, lineLength)) {
+                        hasLine = reader.readLine();
+                        continue;
+                    }
+                    if (lastSurtPrefix != null
+                            && isPast(lineBuffer, lineStart, lineLength, lastSurtPrefix)) {
+                        // the lines are sorted by SURT key, so none of the rest can be selected
+                        LOGGER.debug(
+                                "past the last selectable SURT key after {} lines of {}",
+                                state.lines,
+                                indexFile);
+                        return true;
+                    }
+                    LOGGER.trace("about to add a line");
+                    try {
+                        if (!recordProcessor.process(lineBuffer, lineStart, lineLength)) {
+                            return false;
                         }
-                        lines++;
-                        line = reader.readLine();
+                    } catch (IOException e) {
+                        LOGGER.warn(
+                                "bad json: "
+                                        + new String(
+                                                lineBuffer,
+                                                lineStart,
+                                                lineLength,
+                                                StandardCharsets.UTF_8));
                     }
+                    state.memberLinesDone = memberLine;
+                    state.lines++;
+                    hasLine = reader.readLine();
                 }
             }
-        } catch (TikaException | IOException e) {
-            LOGGER.error(
-                    "failed while processing " + fetchEmitTuple.getFetchKey().getFetchKey(), e);
         }
-        long elapsed = System.currentTimeMillis() - start;
-        LOGGER.info(
-                "finished processing index gz in ({}) ms: {}",
-                String.format(Locale.US, "%,d", elapsed),
-                fetchEmitTuple.getFetchKey().getFetchKey());
         return true;
     }
+
+    /**
+     * @param end the last byte to read (inclusive), or -1 to read to the end of the file
+     */
+    private InputStream open(String indexFile, long start, long end)
+            throws TikaException, IOException {
+        if (start == 0 && end < 0) {
+            return indexFileFetcher.fetch(indexFile, new Metadata(), new ParseContext());
+        }
+        if (indexFileFetcher instanceof RangeFetcher) {
+            return ((RangeFetcher) indexFileFetcher)
+                    .fetch(indexFile, start, end < 0 ? Long.MAX_VALUE : end, new Metadata());
+        }
+        // e.g. a local basePath
+        InputStream is = indexFileFetcher.fetch(indexFile, new Metadata(), new ParseContext());
+        try {
+            IOUtils.skipFully(is, start);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        if (end < 0 || end == Long.MAX_VALUE) {
+            return is;
+        }
+        return BoundedInputStream.builder()
+                .setInputStream(is)
+                .setMaxCount(end - start + 1)
+                .get();
+    }
+
+    /** @return whether the line's SURT key sorts after every key that starts with the prefix */
+    private static boolean isPast(byte[] buf, int offset, int length, byte[] prefix) {
+        // the index files are sorted by the bytes of the lines, so compare unsigned bytes; if
+        // the key is shorter than the prefix, the space after it sorts first
+        int n = Math.min(length, prefix.length);
+        for (int i = 0; i < n; i++) {
+            int c = (buf[offset + i] & 0xff) - (prefix[i] & 0xff);
+            if (c != 0) {
+                return c > 0;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(byte[] buf, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buf[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Where to pick up reading an index file after a failure. */
+    private static class ReadState {
+        // compressed offset of the gzip member being read
+        private long memberOffset = 0;
+        // the last byte of the work unit (inclusive); -1 for the end of the file
+        private long rangeEnd = -1;
+        // lines of that member that have already been processed
+        private long memberLinesDone = 0;
+        private long lines = 0;
+        private boolean firstLineRead = false;
+        private IndexPrefetcher.Prefetch prefetch;
+    }
 }
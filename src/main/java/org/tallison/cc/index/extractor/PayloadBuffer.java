@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds a single payload: in chunks from the {@link PayloadBufferPool} while it is small
+ * enough and the pool has room, in a temp file otherwise. Small payloads (most HTML and
+ * images) never touch the disk until they are written to their final place.
+ */
+class PayloadBuffer implements Closeable {
+
+    static final String TMP_PREFIX = ".ccfile-fetcher-";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PayloadBuffer.class);
+
+    private final PayloadBufferPool pool;
+    private final List<byte[]> chunks = new ArrayList<>();
+    // bytes used in the last chunk
+    private int lastChunkLength = 0;
+    private long size = 0;
+    private Path file;
+    private OutputStream fileStream;
+
+    PayloadBuffer(PayloadBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Reads the stream to the end.
+     *
+     * @return the number of bytes read
+     */
+    long copyFrom(InputStream is) throws IOException {
+        long start = size;
+        while (file == null) {
+            byte[] chunk = nextChunk();
+            if (chunk == null) {
+                spill();
+                break;
+            }
+            int read = is.read(chunk, lastChunkLength, chunk.length - lastChunkLength);
+            if (read < 0) {
+                return size - start;
+            }
+            lastChunkLength += read;
+            size += read;
+        }
+        size += IOUtils.copy(is, fileStream, pool.getChunkSize());
+        return size - start;
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isInMemory() {
+        return file == null;
+    }
+
+    InputStream openInputStream() throws IOException {
+        if (file != null) {
+            if (fileStream != null) {
+                fileStream.flush();
+            }
+            return Files.newInputStream(file);
+        }
+        List<InputStream> streams = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            int length = i == chunks.size() - 1 ? lastChunkLength : chunk.length;
+            streams.add(new ByteArrayInputStream(chunk, 0, length));
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * @return a file with the contents: the spill file, or, for an in-memory payload, a new temp
+     *     file in the directory. Either way, the file is deleted by {@link #close()} unless the
+     *     caller moves it.
+     */
+    Path toFile(Path directory) throws IOException {
+        if (file == null) {
+            file = Files.createTempFile(directory, TMP_PREFIX, "");
+            try (OutputStream os = Files.newOutputStream(file)) {
+                writeChunks(os);
+            }
+            releaseChunks();
+        } else {
+            fileStream.close();
+        }
+        return file;
+    }
+
+    @Override
+    public void close() {
+        releaseChunks();
+        if (file == null) {
+            return;
+        }
+        if (fileStream != null) {
+            try {
+                fileStream.close();
+            } catch (IOException e) {
+                LOGGER.warn("can't close {}", file.toAbsolutePath(), e);
+            }
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("can't delete {}", file.toAbsolutePath(), e);
+        }
+    }
+
+    /** @return a chunk with room in it, or null if the payload has to be spilled */
+    private byte[] nextChunk() {
+        if (!chunks.isEmpty() && lastChunkLength < pool.getChunkSize()) {
+            return chunks.get(chunks.size() - 1);
+        }
+        if (size >= pool.getMaxInMemoryBytes()) {
+            return null;
+        }
+        byte[] chunk = pool.acquire();
+        if (chunk != null) {
+            chunks.add(chunk);
+            lastChunkLength = 0;
+        }
+        return chunk;
+    }
+
+    private void spill() throws IOException {
+        file =
+                pool.getSpillDirectory() == null
+                        ? Files.createTempFile(TMP_PREFIX, "")
+                        : Files.createTempFile(pool.getSpillDirectory(), TMP_PREFIX, "");
+        fileStream = new BufferedOutputStream(Files.newOutputStream(file), pool.getChunkSize());
+        writeChunks(fileStream);
+        releaseChunks();
+    }
+
+    private void writeChunks(OutputStream os) throws IOException {
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            os.write(chunk, 0, i == chunks.size() - 1 ? lastChunkLength : chunk.length);
+        }
+    }
+
+    private void releaseChunks() {
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        lastChunkLength = 0;
+    }
+}
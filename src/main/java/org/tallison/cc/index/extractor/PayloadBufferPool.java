@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fixed-size byte[] chunks shared by the {@link PayloadBuffer}s of all fetch workers. The
+ * total memory handed out is bounded by {@code maxPooledBytes}; when the pool is exhausted,
+ * buffers spill to disk instead of waiting.
+ */
+class PayloadBufferPool {
+
+    static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    private final long maxInMemoryBytes;
+    private final int chunkSize;
+    private final Path spillDirectory;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxInMemoryBytes payloads larger than this are spilled to disk; 0 to always spill
+     * @param maxPooledBytes the most memory all buffers together may hold
+     * @param spillDirectory where payloads are spilled
+     */
+    PayloadBufferPool(long maxInMemoryBytes, long maxPooledBytes, Path spillDirectory) {
+        this.maxInMemoryBytes = maxInMemoryBytes;
+        this.chunkSize = (int) Math.max(1, Math.min(MAX_CHUNK_SIZE, maxInMemoryBytes));
+        this.spillDirectory = spillDirectory;
+        long chunks = maxInMemoryBytes > 0 ? maxPooledBytes / chunkSize : 0;
+        this.permits = new Semaphore((int) Math.min(Integer.MAX_VALUE, chunks));
+    }
+
+    static PayloadBufferPool newPool(ExtractorConfig fetcherConfig) {
+        ExtractorConfig.PayloadBufferConfig config = fetcherConfig.getPayloadBufferConfig();
+        Path spillDirectory = config.getTmpDirectory();
+        if (spillDirectory == null) {
+            // spilling into the docs directory turns the final move into a rename
+            spillDirectory = fetcherConfig.getLocalDocsPath();
+        }
+        return new PayloadBufferPool(
+                config.getMaxInMemoryBytes(), config.getMaxPooledBytes(), spillDirectory);
+    }
+
+    PayloadBuffer newBuffer() {
+        return new PayloadBuffer(this);
+    }
+
+    long getMaxInMemoryBytes() {
+        return maxInMemoryBytes;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** @return null for java.io.tmpdir */
+    Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /** @return null if the pool is exhausted */
+    byte[] acquire() {
+        if (!permits.tryAcquire()) {
+            return null;
+        }
+        byte[] chunk = free.poll();
+        return chunk == null ? new byte[chunkSize] : chunk;
+    }
+
+    void release(byte[] chunk) {
+        free.add(chunk);
+        permits.release();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.tallison.cc.index.CCIndexRecord;
+import org.tallison.cc.index.selector.AbstractSamplingSelector;
+import org.tallison.cc.index.selector.RecordSelector;
+
+/**
+ * Keeps a uniform sample of exactly {@code size} of the selected records for each value of a
+ * field (or all of them, if there are fewer), so that only those are fetched once the index
+ * scan is done. Each record's priority is a seeded hash of its url and where it is in the WARC
+ * files, so repeated captures of a url are sampled independently, and the reservoir keeps the
+ * records with the lowest: a bottom-k sample, which is the same whatever order the records come
+ * in, so the reservoirs of the index threads can each be filled without locking and merged at
+ * the end.
+ *
+ * <p>For each record kept, there's just its priority and the UTF-8 bytes of its index line,
+ * which the record is parsed back from when the reservoir is drained.
+ */
+class SampleReservoir {
+
+    private static final Comparator<CCIndexRecord> WARC_ORDER =
+            Comparator.comparing(CCIndexRecord::getFilename)
+                    .thenComparingLong(CCIndexRecord::getOffset);
+
+    private final Function<CCIndexRecord, String> field;
+    private final int size;
+    private final long seed;
+    private final Map<String, Heap> heaps = new HashMap<>();
+
+    SampleReservoir(String field, int size, long seed) {
+        this.field = RecordSelector.getField(field);
+        this.size = size;
+        this.seed = seed;
+    }
+
+    /** @return null if reservoir isn't configured */
+    static SampleReservoir newReservoir(ExtractorConfig fetcherConfig) {
+        ExtractorConfig.ReservoirConfig config = fetcherConfig.getReservoirConfig();
+        if (config == null) {
+            return null;
+        }
+        return new SampleReservoir(config.getField(), config.getSize(), config.getSeed());
+    }
+
+    /**
+     * @param line the record's index line; only asked for if the record is kept
+     * @return whether the record is in the sample so far
+     */
+    boolean offer(CCIndexRecord record, Supplier<String> line) {
+        String key = field.apply(record);
+        if (key == null || record.getUrl() == null) {
+            return false;
+        }
+        long priority = AbstractSamplingSelector.hash(captureKey(record), seed);
+        Heap heap = heaps.get(key);
+        if (heap == null) {
+            heap = new Heap();
+            heaps.put(key, heap);
+        }
+        if (!heap.accepts(priority, size)) {
+            return false;
+        }
+        heap.add(priority, line.get().getBytes(StandardCharsets.UTF_8), size);
+        return true;
+    }
+
+    /** Adds the records kept by another reservoir with the same field, size and seed. */
+    void merge(SampleReservoir other) {
+        for (Map.Entry<String, Heap> e : other.heaps.entrySet()) {
+            Heap heap = heaps.computeIfAbsent(e.getKey(), k -> new Heap());
+            Heap from = e.getValue();
+            for (int i = 0; i < from.count; i++) {
+                if (heap.accepts(from.priorities[i], size)) {
+                    heap.add(from.priorities[i], from.lines[i], size);
+                }
+            }
+        }
+        other.heaps.clear();
+    }
+
+    /** @return the number of records kept */
+    long size() {
+        long kept = 0;
+        for (Heap heap : heaps.values()) {
+            kept += heap.count;
+        }
+        return kept;
+    }
+
+    /**
+     * Empties the reservoir.
+     *
+     * @return the records kept, in (WARC filename, offset) order
+     */
+    List<CCIndexRecord> drain() {
+        List<CCIndexRecord> records = new ArrayList<>();
+        for (Heap heap : heaps.values()) {
+            for (int i = 0; i < heap.count; i++) {
+                Optional<CCIndexRecord> record =
+                        CCIndexRecord.parseRecord(
+                                new String(heap.lines[i], StandardCharsets.UTF_8));
+                record.ifPresent(records::add);
+            }
+        }
+        heaps.clear();
+        records.sort(WARC_ORDER);
+        return records;
+    }
+
+    /** @return what's hashed for the record's priority: one capture of its url */
+    static String captureKey(CCIndexRecord record) {
+        return record.getUrl() + " " + record.getFilename() + " " + record.getOffset();
+    }
+
+    /**
+     * A max-heap on the priorities, compared as unsigned numbers, with the lines in a parallel
+     * array. It grows up to the size of the sample as it's needed.
+     */
+    private static class Heap {
+        private long[] priorities = new long[16];
+        private byte[][] lines = new byte[16][];
+        private int count = 0;
+
+        private boolean accepts(long priority, int size) {
+            return count < size || Long.compareUnsigned(priority, priorities[0]) < 0;
+        }
+
+        /** Call only if it {@link #accepts(long, int)} the priority. */
+        private void add(long priority, byte[] line, int size) {
+            if (count < size) {
+                if (count == priorities.length) {
+                    int capacity = (int) Math.min(size, 2L * count);
+                    priorities = Arrays.copyOf(priorities, capacity);
+                    lines = Arrays.copyOf(lines, capacity);
+                }
+                int i = count++;
+                // sift up
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (Long.compareUnsigned(priorities[parent], priority) >= 0) {
+                        break;
+                    }
+                    priorities[i] = priorities[parent];
+                    lines[i] = lines[parent];
+                    i = parent;
+                }
+                priorities[i] = priority;
+                lines[i] = line;
+                return;
+            }
+            // replace the highest priority, and sift down
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= count) {
+                    break;
+                }
+                if (child + 1 < count
+                        && Long.compareUnsigned(priorities[child + 1], priorities[child]) > 0) {
+                    child++;
+                }
+                if (Long.compareUnsigned(priorities[child], priority) <= 0) {
+                    break;
+                }
+                priorities[i] = priorities[child];
+                lines[i] = lines[child];
+                i = child;
+            }
+            priorities[i] = priority;
+            lines[i] = line;
+        }
+    }
+}
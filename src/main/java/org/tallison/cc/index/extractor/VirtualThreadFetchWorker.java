@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+/**
+ * Fetch stage for {@link ExtractorConfig.FetchMode#VIRTUAL}. A single dispatcher drains the
+ * fetch queue and runs each fetch on its own virtual thread. A semaphore bounds the number of
+ * fetches in flight, so thousands of range requests can wait on the network without thousands
+ * of platform threads.
+ *
+ * <p>We compile against Java 17, so the virtual thread executor is looked up reflectively. On
+ * a runtime without virtual threads, this falls back to a cached platform thread pool, which
+ * is still bounded by the semaphore.
+ */
+class VirtualThreadFetchWorker implements Callable<Long> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadFetchWorker.class);
+
+    private final BlockingQueue<CCIndexRecord> fetchQueue;
+    private final FileFromCCWarcExtractor fileFromCCWarcExtractor;
+    // null if coalescing is turned off
+    private final WarcRangeCoalescer coalescer;
+    private final int batchSize;
+    private final int maxFetchesInFlight;
+    private final Semaphore inFlight;
+
+    VirtualThreadFetchWorker(
+            BlockingQueue<CCIndexRecord> fetchQueue,
+            FileFromCCWarcExtractor fileFromCCWarcExtractor,
+            ExtractorConfig.CoalesceConfig coalesceConfig,
+            int maxFetchesInFlight) {
+        this.fetchQueue = fetchQueue;
+        this.fileFromCCWarcExtractor = fileFromCCWarcExtractor;
+        this.coalescer = FetchWorker.newCoalescer(coalesceConfig);
+        this.batchSize = coalesceConfig == null ? 1 : coalesceConfig.getBatchSize();
+        this.maxFetchesInFlight = maxFetchesInFlight;
+        this.inFlight = new Semaphore(maxFetchesInFlight);
+    }
+
+    @Override
+    public Long call() throws Exception {
+        ExecutorService executorService = newVirtualThreadPerTaskExecutor();
+        List<CCIndexRecord> batch = new ArrayList<>();
+        try {
+            boolean completed = false;
+            while (!completed) {
+                batch.clear();
+                completed = FetchWorker.takeBatch(fetchQueue, batchSize, batch);
+                for (WarcRangeCoalescer.WarcRange range :
+                        FetchWorker.toRanges(batch, coalescer)) {
+                    inFlight.acquire();
+                    executorService.execute(() -> fetch(range));
+                }
+            }
+            // wait for the fetches still in flight
+            inFlight.acquire(maxFetchesInFlight);
+        } finally {
+            executorService.shutdownNow();
+        }
+        return FetchWorker.FETCH_WORKER_ID;
+    }
+
+    private void fetch(WarcRangeCoalescer.WarcRange range) {
+        try {
+            fileFromCCWarcExtractor.fetchToPath(range);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.warn("failed to fetch {}", range, e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService)
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            LOGGER.warn(
+                    "virtual threads require Java 21+ (running {}); "
+                            + "falling back to a cached thread pool",
+                    Runtime.version());
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+/**
+ * Collects selected records from all index files and hands them to the fetch queue ordered by
+ * (WARC filename, offset) once the index scan is done. The index files are sorted by SURT, so
+ * in index order consecutive fetches jump between WARC files; in WARC order, consecutive
+ * fetches hit the same (warm) object, and {@link WarcRangeCoalescer} gets to see neighbors.
+ *
+ * <p>Up to {@code maxRecordsInMemory} records are kept in memory. Beyond that, the buffer is
+ * sorted and spilled to a run file, and the runs are merged when the buffer is drained.
+ */
+class WarcLocalityBuffer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarcLocalityBuffer.class);
+
+    private static final Comparator<Entry> WARC_ORDER =
+            Comparator.comparing((Entry e) -> e.filename).thenComparingLong(e -> e.offset);
+
+    private final int maxRecordsInMemory;
+    private final Path spillDirectory;
+    private final List<Entry> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long size = 0;
+
+    WarcLocalityBuffer(int maxRecordsInMemory, Path spillDirectory) {
+        this.maxRecordsInMemory = maxRecordsInMemory;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /** @return null if warcOrder isn't configured */
+    static WarcLocalityBuffer newBuffer(ExtractorConfig fetcherConfig) {
+        ExtractorConfig.WarcOrderConfig config = fetcherConfig.getWarcOrderConfig();
+        if (config == null) {
+            return null;
+        }
+        return new WarcLocalityBuffer(
+                config.getMaxRecordsInMemory(), config.getSpillDirectory());
+    }
+
+    /**
+     * @param record the parsed record, used for its filename and offset
+     * @param cdxLine the raw index line the record was parsed from; this is what is kept and
+     *     spilled
+     */
+    synchronized void add(CCIndexRecord record, String cdxLine) throws IOException {
+        buffer.add(new Entry(record.getFilename(), record.getOffset(), cdxLine));
+        size++;
+        if (buffer.size() >= maxRecordsInMemory) {
+            spill();
+        }
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Puts all records on the queue in (filename, offset) order. This blocks while the queue is
+     * full.
+     *
+     * @return the number of records put on the queue
+     */
+    synchronized long drainTo(BlockingQueue<CCIndexRecord> queue)
+            throws IOException, InterruptedException {
+        buffer.sort(WARC_ORDER);
+        List<Cursor> cursors = new ArrayList<>();
+        long drained = 0;
+        try {
+            PriorityQueue<Cursor> merge =
+                    new PriorityQueue<>(Comparator.comparing(c -> c.current, WARC_ORDER));
+            cursors.add(new Cursor(buffer.iterator(), null));
+            for (Path run : runs) {
+                BufferedReader reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+                cursors.add(new Cursor(new RunIterator(reader), reader));
+            }
+            for (Cursor c : cursors) {
+                if (c.advance()) {
+                    merge.add(c);
+                }
+            }
+            while (!merge.isEmpty()) {
+                Cursor c = merge.poll();
+                Optional<CCIndexRecord> record = CCIndexRecord.parseRecord(c.current.cdxLine);
+                if (record.isPresent()) {
+                    queue.put(record.get());
+                    drained++;
+                }
+                if (c.advance()) {
+                    merge.add(c);
+                }
+            }
+        } finally {
+            for (Cursor c : cursors) {
+                c.close();
+            }
+            buffer.clear();
+            deleteRuns();
+            size = 0;
+        }
+        return drained;
+    }
+
+    @Override
+    public synchronized void close() {
+        buffer.clear();
+        deleteRuns();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(WARC_ORDER);
+        Path run = Files.createTempFile(spillDirectory, "cc-warc-order-", ".txt");
+        runs.add(run);
+        try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+            for (Entry e : buffer) {
+                writer.write(e.filename);
+                writer.write('\t');
+                writer.write(Long.toString(e.offset));
+                writer.write('\t');
+                writer.write(e.cdxLine);
+                writer.write('\n');
+            }
+        }
+        LOGGER.debug("spilled {} records to {}", buffer.size(), run);
+        buffer.clear();
+    }
+
+    private void deleteRuns() {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                LOGGER.warn("can't delete {}", run.toAbsolutePath(), e);
+            }
+        }
+        runs.clear();
+    }
+
+    private static class Entry {
+        private final String filename;
+        private final long offset;
+        private final String cdxLine;
+
+        private Entry(String filename, long offset, String cdxLine) {
+            this.filename = filename;
+            this.offset = offset;
+            this.cdxLine = cdxLine;
+        }
+    }
+
+    private static class RunIterator implements Iterator<Entry> {
+        private final BufferedReader reader;
+        private String next;
+
+        private RunIterator(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            this.next = reader.readLine();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry next() {
+            String line = next;
+            try {
+                next = reader.readLine();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            int first = line.indexOf('\t');
+            int second = line.indexOf('\t', first + 1);
+            return new Entry(
+                    line.substring(0, first),
+                    Long.parseLong(line.substring(first + 1, second)),
+                    line.substring(second + 1));
+        }
+    }
+
+    private static class Cursor implements Closeable {
+        private final Iterator<Entry> entries;
+        private final Closeable closeable;
+        private Entry current;
+
+        private Cursor(Iterator<Entry> entries, Closeable closeable) {
+            this.entries = entries;
+            this.closeable = closeable;
+        }
+
+        private boolean advance() {
+            if (!entries.hasNext()) {
+                return false;
+            }
+            current = entries.next();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeable != null) {
+                closeable.close();
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.tallison.cc.index.extractor;
 
 import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.netpreserve.jwarc.MediaType;
 import org.netpreserve.jwarc.WarcPayload;
@@ -27,9 +28,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Optional;
 
 import org.tallison.cc.index.CCIndexReaderCounter;
@@ -45,6 +49,11 @@ import org.apache.tika.pipes.emitter.StreamEmitter;
 /**
  * Extracts a payload from a WARC record, verifies its digest against the CC index, computes a
  * target digest (SHA-256), and writes the file via a {@link StreamEmitter}.
+ *
+ * <p>Both digests are computed while the payload is copied into a {@link PayloadBuffer}, so the
+ * payload is written once and, for S3, read once. When the docs go to a local directory, the
+ * payload is written to a temp file in that directory and moved into place once its name (the
+ * SHA-256) is known.
  */
 class WarcPayloadWriter {
 
@@ -54,6 +63,9 @@ class WarcPayloadWriter {
             LoggerFactory.getLogger("extracted-urls-all");
 
     private final StreamEmitter emitter;
+    // null if the docs are emitted to S3
+    private final Path docsPath;
+    private final PayloadBufferPool bufferPool;
     private final TargetPathRewriter targetPathRewriter;
     private final boolean extractTruncated;
     private final CCIndexReaderCounter counter;
@@ -61,10 +73,14 @@ class WarcPayloadWriter {
 
     WarcPayloadWriter(
             StreamEmitter emitter,
+            Path docsPath,
+            PayloadBufferPool bufferPool,
             TargetPathRewriter targetPathRewriter,
             boolean extractTruncated,
             CCIndexReaderCounter counter) {
         this.emitter = emitter;
+        this.docsPath = docsPath;
+        this.bufferPool = bufferPool;
         this.targetPathRewriter = targetPathRewriter;
         this.extractTruncated = extractTruncated;
         this.counter = counter;
@@ -93,13 +109,16 @@ class WarcPayloadWriter {
             return;
         }
 
-        Path tmp = Files.createTempFile("ccfile-fetcher-", "");
-        try {
-            Files.copy(payload.get().body().stream(), tmp, StandardCopyOption.REPLACE_EXISTING);
-            String base32Sha1 = computeSha1Base32(tmp);
-            if (base32Sha1 == null) {
-                return;
+        try (PayloadBuffer buffer = bufferPool.newBuffer()) {
+            MessageDigest sha1 = DigestUtils.getSha1Digest();
+            MessageDigest sha256 = DigestUtils.getSha256Digest();
+            long length;
+            try (InputStream is =
+                    new DigestInputStream(
+                            new DigestInputStream(payload.get().body().stream(), sha1), sha256)) {
+                length = buffer.copyFrom(is);
             }
+            String base32Sha1 = base32.encodeAsString(sha1.digest());
             if (!base32Sha1.equals(ccIndexRecord.getDigest())) {
                 LOGGER.warn(
                         "Bad digest for url={} ccindex={} sha1={}",
@@ -107,42 +126,42 @@ class WarcPayloadWriter {
                         ccIndexRecord.getDigest(),
                         base32Sha1);
             }
-            String targetDigest = computeSha256Hex(tmp);
-            if (targetDigest == null) {
-                return;
-            }
-            long length = Files.size(tmp);
+            // TODO: make digest and encoding configurable
+            String targetDigest = Hex.encodeHexString(sha256.digest());
             String targetPath = targetPathRewriter.rewrite(targetDigest);
-            try (InputStream is = TikaInputStream.get(tmp, new Metadata())) {
-                emitter.emit(targetPath, is, new Metadata(), new ParseContext());
+            try {
+                if (docsPath == null) {
+                    try (InputStream is = TikaInputStream.get(buffer.openInputStream())) {
+                        emitter.emit(targetPath, is, new Metadata(), new ParseContext());
+                    }
+                } else {
+                    moveIntoPlace(buffer, docsPath.resolve(targetPath));
+                }
                 logSuccess(ccIndexRecord, targetDigest, length, targetPath);
             } catch (IOException | TikaException e) {
                 LOGGER.warn("problem writing id={}", id, e);
             }
-        } finally {
-            try {
-                Files.delete(tmp);
-            } catch (IOException e) {
-                LOGGER.warn("can't delete {}", tmp.toAbsolutePath(), e);
-            }
         }
     }
 
-    private String computeSha1Base32(Path file) {
-        try (InputStream is = Files.newInputStream(file)) {
-            return base32.encodeAsString(DigestUtils.sha1(is));
-        } catch (IOException e) {
-            LOGGER.warn("IOException during SHA-1 digesting: {}", file.toAbsolutePath());
-            return null;
+    /**
+     * Same semantics as the file system emitter with onExists=skip: an existing file with this
+     * digest is left alone.
+     */
+    private void moveIntoPlace(PayloadBuffer buffer, Path target) throws IOException {
+        if (Files.exists(target)) {
+            return;
         }
-    }
-
-    private String computeSha256Hex(Path file) {
-        try (InputStream is = Files.newInputStream(file)) {
-            return DigestUtils.sha256Hex(is);
-        } catch (IOException e) {
-            LOGGER.warn("IOException during SHA-256 digesting: {}", file.toAbsolutePath());
-            return null;
+        Path parent = target.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        // a spilled payload may already be in the docs directory
+        Path tmp = buffer.toFile(docsPath);
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
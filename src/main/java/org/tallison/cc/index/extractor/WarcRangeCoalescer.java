@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+/**
+ * Groups selected records by WARC file and merges records whose byte ranges are close enough
+ * together into a single range request. Every request counts against Common Crawl's request
+ * rate (and its 503 throttling), so for dense selections it's cheaper to download a few
+ * unselected bytes between records than to issue another request.
+ */
+class WarcRangeCoalescer {
+
+    private static final Comparator<CCIndexRecord> BY_OFFSET =
+            Comparator.comparingLong(r -> r.getOffset());
+
+    private final long maxGapBytes;
+    private final long maxRangeBytes;
+
+    /**
+     * @param maxGapBytes records are merged if there are at most this many bytes between the end
+     *     of one and the start of the next
+     * @param maxRangeBytes a merged range is never longer than this; a single record longer than
+     *     this gets its own range
+     */
+    WarcRangeCoalescer(long maxGapBytes, long maxRangeBytes) {
+        this.maxGapBytes = maxGapBytes;
+        this.maxRangeBytes = maxRangeBytes;
+    }
+
+    List<WarcRange> coalesce(Collection<CCIndexRecord> records) {
+        Map<String, List<CCIndexRecord>> byFilename = new LinkedHashMap<>();
+        for (CCIndexRecord r : records) {
+            byFilename.computeIfAbsent(r.getFilename(), k -> new ArrayList<>()).add(r);
+        }
+        List<WarcRange> ranges = new ArrayList<>();
+        for (Map.Entry<String, List<CCIndexRecord>> e : byFilename.entrySet()) {
+            List<CCIndexRecord> sorted = e.getValue();
+            sorted.sort(BY_OFFSET);
+            WarcRange current = null;
+            for (CCIndexRecord r : sorted) {
+                if (current != null && canMerge(current, r)) {
+                    current.add(r);
+                } else {
+                    current = new WarcRange(r);
+                    ranges.add(current);
+                }
+            }
+        }
+        return ranges;
+    }
+
+    private boolean canMerge(WarcRange range, CCIndexRecord r) {
+        if (r.getOffset() <= range.end) {
+            // overlaps the range, e.g. the same record selected twice: the range is read
+            // front to back, so it can't be read again
+            return false;
+        }
+        long gap = r.getOffset() - range.end - 1;
+        return gap <= maxGapBytes && endOf(r) - range.start + 1 <= maxRangeBytes;
+    }
+
+    private static long endOf(CCIndexRecord r) {
+        return r.getOffset() + r.getLength() - 1;
+    }
+
+    /** A byte range (inclusive) in a WARC file covering one or more records. */
+    static class WarcRange {
+        private final String filename;
+        private final long start;
+        private long end;
+        private final List<CCIndexRecord> records = new ArrayList<>();
+
+        WarcRange(CCIndexRecord r) {
+            this.filename = r.getFilename();
+            this.start = r.getOffset();
+            this.end = endOf(r);
+            records.add(r);
+        }
+
+        void add(CCIndexRecord r) {
+            end = Math.max(end, endOf(r));
+            records.add(r);
+        }
+
+        String getFilename() {
+            return filename;
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        long getEnd() {
+            return end;
+        }
+
+        /** @return the records in this range, sorted by offset */
+        List<CCIndexRecord> getRecords() {
+            return Collections.unmodifiableList(records);
+        }
+
+        @Override
+        public String toString() {
+            return "WarcRange{filename='" + filename + "', start=" + start + ", end=" + end
+                    + ", records=" + records.size() + '}';
+        }
+    }
+}
@@ -19,8 +19,20 @@ package org.tallison.cc.index.io;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,16 +48,56 @@ import org.apache.tika.pipes.fetcher.http.HttpFetcher;
 /**
  * We need this because it allows for back-off on 503 and it adds the protocol+host base to the
  * paths: {@link ExtractorConfig#CC_HTTPS_BASE}
+ *
+ * <p>In streaming mode, the response body is handed back as it arrives instead of being
+ * spooled by the underlying {@link HttpFetcher}, so that a ~700MB index file can be gunzipped
+ * and parsed while it is still downloading. A read that waits longer than the read timeout
+ * for more of the body fails with an IOException rather than blocking forever.
  */
 public class BackoffHttpFetcher extends HttpFetcher {
 
     private static Logger LOGGER = LoggerFactory.getLogger(BackoffHttpFetcher.class);
 
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofMinutes(2);
+    private static final Duration READ_TIMEOUT = Duration.ofMinutes(2);
+
+    // closes the bodies of stalled streaming responses
+    private static final ScheduledExecutorService WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(
+                    r -> {
+                        Thread t = new Thread(r, "http-read-watchdog");
+                        t.setDaemon(true);
+                        return t;
+                    });
+
     // backoff
     private final long[] throttleSeconds;
+    // null unless streaming
+    private final HttpClient streamingClient;
+    private final Duration readTimeout;
 
     public BackoffHttpFetcher(long[] throttleSeconds) {
+        this(throttleSeconds, false);
+    }
+
+    public BackoffHttpFetcher(long[] throttleSeconds, boolean streaming) {
+        this(throttleSeconds, streaming, READ_TIMEOUT);
+    }
+
+    /**
+     * @param readTimeout how long a read of a streaming response body may wait for data
+     */
+    BackoffHttpFetcher(long[] throttleSeconds, boolean streaming, Duration readTimeout) {
         this.throttleSeconds = throttleSeconds;
+        this.readTimeout = readTimeout;
+        this.streamingClient =
+                streaming
+                        ? HttpClient.newBuilder()
+                                .connectTimeout(CONNECT_TIMEOUT)
+                                .followRedirects(HttpClient.Redirect.NORMAL)
+                                .build()
+                        : null;
     }
 
     @Override
@@ -117,7 +169,10 @@ public class BackoffHttpFetcher extends HttpFetcher {
 
     private TikaInputStream _fetch(FetchKey fetchKey, Metadata metadata)
             throws IOException, TikaException {
-        if (fetchKey.getRangeStart() > 0) {
+        if (streamingClient != null) {
+            return TikaInputStream.get(stream(fetchKey));
+        }
+        if (fetchKey.getRangeStart() > 0 || fetchKey.getRangeEnd() > 0) {
             return (TikaInputStream)
                     super.fetch(
                             fetchKey.getFetchKey(),
@@ -130,8 +185,144 @@ public class BackoffHttpFetcher extends HttpFetcher {
         }
     }
 
+    /**
+     * Failed requests throw the same "bad status code" message as {@link HttpFetcher}, so that
+     * they go through the same backoff. A range request that gets the whole file (200) back
+     * fails too.
+     */
+    private InputStream stream(FetchKey fetchKey) throws IOException {
+        HttpRequest.Builder request =
+                HttpRequest.newBuilder(URI.create(fetchKey.getFetchKey()))
+                        .timeout(RESPONSE_TIMEOUT)
+                        .GET();
+        boolean ranged = fetchKey.getRangeStart() > 0 || fetchKey.getRangeEnd() > 0;
+        if (ranged) {
+            request.header(
+                    "Range",
+                    "bytes="
+                            + fetchKey.getRangeStart()
+                            + "-"
+                            + (fetchKey.getRangeEnd() < Long.MAX_VALUE
+                                    ? Long.toString(fetchKey.getRangeEnd())
+                                    : ""));
+        }
+        HttpResponse<InputStream> response;
+        try {
+            response =
+                    streamingClient.send(
+                            request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        }
+        int status = response.statusCode();
+        if (status < 200 || status >= 300) {
+            String body;
+            try (InputStream is = response.body()) {
+                body = new String(is.readNBytes(1000), StandardCharsets.UTF_8);
+            }
+            throw new IOException("bad status code: " + status + " :: " + body);
+        }
+        if (ranged && status != 206) {
+            response.body().close();
+            throw new IOException(
+                    "expected 206 for a range request but got " + status + " for "
+                            + fetchKey.getFetchKey());
+        }
+        return new IdleTimeoutInputStream(response.body(), readTimeout);
+    }
+
     @Override
     public String getName() {
         return "backoffHttpFetcher";
     }
+
+    /**
+     * Closes the body if a read has waited longer than the timeout, and fails that read, so that
+     * a stalled download is resumed or given up on.
+     */
+    private static class IdleTimeoutInputStream extends FilterInputStream {
+
+        private static final long NOT_READING = Long.MIN_VALUE;
+
+        private final Duration timeout;
+        private final ScheduledFuture<?> watchdog;
+        // when the read in progress started; NOT_READING if none is
+        private volatile long readStart = NOT_READING;
+        private volatile boolean timedOut = false;
+
+        IdleTimeoutInputStream(InputStream in, Duration timeout) {
+            super(in);
+            this.timeout = timeout;
+            long period = Math.max(1, timeout.toNanos() / 4);
+            this.watchdog =
+                    WATCHDOG.scheduleWithFixedDelay(
+                            this::check, period, period, TimeUnit.NANOSECONDS);
+        }
+
+        private void check() {
+            long started = readStart;
+            if (started != NOT_READING && System.nanoTime() - started > timeout.toNanos()) {
+                timedOut = true;
+                watchdog.cancel(false);
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.debug("couldn't close a stalled response", e);
+                }
+            }
+        }
+
+        private void begin() throws IOException {
+            checkTimedOut();
+            readStart = System.nanoTime();
+        }
+
+        /** Fails the read if the watchdog closed the body while it was waiting. */
+        private void end() throws IOException {
+            readStart = NOT_READING;
+            checkTimedOut();
+        }
+
+        private void checkTimedOut() throws IOException {
+            if (timedOut) {
+                throw new IOException("no data for " + timeout.toMillis() + " ms");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            begin();
+            try {
+                return in.read();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            begin();
+            try {
+                return in.read(b, off, len);
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            begin();
+            try {
+                return in.skip(n);
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            watchdog.cancel(false);
+            in.close();
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into '\n' terminated lines without decoding them: each line is handed out
+ * as a range of an internal buffer, which is only valid until the next call to
+ * {@link #readLine()}. A trailing '\r' is dropped, as with {@link java.io.BufferedReader}.
+ */
+public class ByteLineReader {
+
+    private final InputStream in;
+    private byte[] buf;
+    // the unread bytes are buf[start..end)
+    private int start = 0;
+    private int end = 0;
+    // where to continue looking for '\n'
+    private int scan = 0;
+    private boolean eof = false;
+
+    private int lineStart;
+    private int lineLength;
+
+    public ByteLineReader(InputStream in) {
+        this(in, 64 * 1024);
+    }
+
+    /** @param bufferSize the initial buffer size; the buffer grows to fit longer lines */
+    public ByteLineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[bufferSize];
+    }
+
+    /** @return false at the end of the stream */
+    public boolean readLine() throws IOException {
+        while (true) {
+            for (int i = scan; i < end; i++) {
+                if (buf[i] == '\n') {
+                    setLine(i);
+                    return true;
+                }
+            }
+            scan = end;
+            if (eof) {
+                if (start < end) {
+                    setLine(end);
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Forgets the end of the stream, e.g. to read the next gzip member from a {@link
+     * GzipMemberReader#memberStream()}. The buffer is kept.
+     */
+    public void reset() {
+        start = 0;
+        end = 0;
+        scan = 0;
+        eof = false;
+    }
+
+    /** @return the buffer holding the current line */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /** @return the offset of the current line in {@link #getBuffer()} */
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    /** @return the length of the current line, without its line terminator */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    private void setLine(int terminator) {
+        lineStart = start;
+        lineLength = terminator - start;
+        if (lineLength > 0 && buf[terminator - 1] == '\r') {
+            lineLength--;
+        }
+        start = Math.min(terminator + 1, end);
+        scan = start;
+    }
+
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            scan -= start;
+            start = 0;
+        }
+        if (end == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int read = in.read(buf, end, buf.length - end);
+        if (read < 0) {
+            eof = true;
+        } else {
+            end += read;
+        }
+    }
+}
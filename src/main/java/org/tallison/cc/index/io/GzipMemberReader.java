@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes a multi-member gzip stream one member at a time and keeps track of the compressed
+ * offset at which each member starts. Common Crawl's cdx-*.gz files are a concatenation of
+ * independently compressed blocks of a few thousand lines, so a download that fails partway
+ * through can be resumed with a range request from the start of the current member.
+ *
+ * <p>Unlike {@link java.util.zip.GZIPInputStream}, this never reads decompressed bytes past the
+ * end of the current member: {@link #memberStream()} returns -1 at the end of each member.
+ */
+public class GzipMemberReader implements Closeable {
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[64 * 1024];
+    private int pos = 0;
+    private int len = 0;
+    // compressed offset of buf[0]
+    private long bufOffset;
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final InputStream memberStream = new MemberStream();
+    private long memberOffset = -1;
+    private long memberLength = 0;
+    private boolean inMember = false;
+
+    /**
+     * @param in the compressed stream, positioned at the start of a member
+     * @param offset the offset of {@code in}'s first byte in the file, e.g. the start of the
+     *     range request
+     */
+    public GzipMemberReader(InputStream in, long offset) {
+        this.in = in;
+        this.bufOffset = offset;
+    }
+
+    /**
+     * Skips whatever is left of the current member and reads the header of the next one.
+     *
+     * @return false at the end of the stream
+     */
+    public boolean nextMember() throws IOException {
+        if (inMember) {
+            byte[] skip = new byte[8192];
+            while (memberStream.read(skip) >= 0) {
+                // drain
+            }
+        }
+        if (!fill()) {
+            return false;
+        }
+        memberOffset = bufOffset + pos;
+        readHeader();
+        inflater.reset();
+        crc.reset();
+        memberLength = 0;
+        inMember = true;
+        return true;
+    }
+
+    /** @return the compressed offset of the current member's header */
+    public long getMemberOffset() {
+        return memberOffset;
+    }
+
+    /** @return the decompressed bytes of the current member; reads -1 at the member's end */
+    public InputStream memberStream() {
+        return memberStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    private void readHeader() throws IOException {
+        if (readByte() != 0x1f || readByte() != 0x8b) {
+            throw new ZipException("not in gzip format at offset " + memberOffset);
+        }
+        if (readByte() != 8) {
+            throw new ZipException("unsupported compression method at offset " + memberOffset);
+        }
+        int flags = readByte();
+        // mtime, xfl, os
+        skipBytes(6);
+        if ((flags & FEXTRA) != 0) {
+            skipBytes(readByte() | (readByte() << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FHCRC) != 0) {
+            skipBytes(2);
+        }
+    }
+
+    private void readTrailer() throws IOException {
+        long expectedCrc = readIntLE();
+        long expectedLength = readIntLE();
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("corrupt gzip member at offset " + memberOffset + ": bad CRC");
+        }
+        if (expectedLength != (memberLength & 0xffffffffL)) {
+            throw new ZipException(
+                    "corrupt gzip member at offset " + memberOffset + ": bad length");
+        }
+    }
+
+    private long readIntLE() throws IOException {
+        long v = 0;
+        for (int i = 0; i < 4; i++) {
+            v |= ((long) readByte()) << (8 * i);
+        }
+        return v;
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        while (readByte() != 0) {
+            // skip
+        }
+    }
+
+    private void skipBytes(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            readByte();
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (!fill()) {
+            throw new EOFException("truncated gzip member at offset " + memberOffset);
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    /** @return false if there are no more bytes */
+    private boolean fill() throws IOException {
+        if (pos < len) {
+            return true;
+        }
+        bufOffset += len;
+        pos = 0;
+        len = 0;
+        int read = 0;
+        while (read == 0) {
+            read = in.read(buf);
+        }
+        if (read < 0) {
+            return false;
+        }
+        len = read;
+        return true;
+    }
+
+    private class MemberStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int read = read(one, 0, 1);
+            return read < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int n) throws IOException {
+            if (!inMember) {
+                return -1;
+            }
+            if (n == 0) {
+                return 0;
+            }
+            while (true) {
+                int read;
+                try {
+                    read = inflater.inflate(b, off, n);
+                } catch (DataFormatException e) {
+                    throw new ZipException(
+                            "corrupt gzip member at offset " + memberOffset + ": "
+                                    + e.getMessage());
+                }
+                if (read > 0) {
+                    crc.update(b, off, read);
+                    memberLength += read;
+                    return read;
+                }
+                if (inflater.finished()) {
+                    // give back what the inflater didn't use: the trailer and maybe more
+                    pos = len - inflater.getRemaining();
+                    readTrailer();
+                    inMember = false;
+                    return -1;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new ZipException(
+                            "gzip member at offset " + memberOffset + " needs a dictionary");
+                }
+                if (inflater.needsInput()) {
+                    if (!fill()) {
+                        throw new EOFException(
+                                "truncated gzip member at offset " + memberOffset);
+                    }
+                    inflater.setInput(buf, pos, len - pos);
+                    pos = len;
+                }
+            }
+        }
+    }
+}
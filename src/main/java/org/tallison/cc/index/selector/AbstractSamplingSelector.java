@@ -16,39 +16,102 @@
  */
 package org.tallison.cc.index.selector;
 
-import java.util.Random;
+import org.tallison.cc.index.CCIndexRecord;
 
 public abstract class AbstractSamplingSelector implements SelectorClause {
 
     final Sampler sampler;
 
-    AbstractSamplingSelector(Sampler sampler) {
-        this.sampler = sampler;
+    AbstractSamplingSelector(Double sample, Long seed) {
+        this.sampler =
+                sample == null ? new SampleAll() : new SampleSome(sample, seed == null ? 0 : seed);
     }
 
-    interface Sampler extends SelectorClause {}
+    /** @return whether the value matches, before any sampling */
+    abstract boolean matches(String val);
+
+    /**
+     * Samples on the value itself, so all the records with that value are picked or not
+     * together. Selectors use {@link #select(String, CCIndexRecord)}; this is for checking a
+     * clause on its own.
+     */
+    @Override
+    public boolean select(String val) {
+        return matches(val) && sampler.sample(val);
+    }
+
+    /** Samples on the record's url, so a url is picked or not whatever field is matched. */
+    @Override
+    public boolean select(String val, CCIndexRecord record) {
+        if (!matches(val)) {
+            return false;
+        }
+        if (sampler instanceof SampleAll) {
+            return true;
+        }
+        String url = record.getUrl();
+        return sampler.sample(url == null ? val : url);
+    }
+
+    /**
+     * Makes this clause sample independently of the selector's other clauses, which would
+     * otherwise all pick the same urls for the same seed.
+     *
+     * @param salt where the clause is in its selector, e.g. "must/url/0"
+     */
+    void salt(String salt) {
+        if (sampler instanceof SampleSome) {
+            ((SampleSome) sampler).salt = hash(salt, 0);
+        }
+    }
+
+    interface Sampler {
+        boolean sample(String key);
+    }
 
     static class SampleAll implements Sampler {
         @Override
-        public boolean select(String val) {
+        public boolean sample(String key) {
             return true;
         }
     }
 
+    /**
+     * Picks a key if a hash of it and the seed, as a fraction in [0, 1), is below the sample
+     * rate. There's no shared state to contend on, and the same key is picked or not on every
+     * run, on any thread and in any crawl; another seed picks another subset. The salt is
+     * mixed into the seed so that each clause of a selector picks its own subset.
+     */
     static class SampleSome implements Sampler {
         private final double sample;
-        private final Random random = new Random();
+        private final long seed;
+        // set once the clause's place in the selector is known
+        private volatile long salt = 0;
 
-        SampleSome(double sample) {
+        SampleSome(double sample, long seed) {
             this.sample = sample;
+            this.seed = seed;
         }
 
         @Override
-        public boolean select(String val) {
-            if (random.nextDouble() <= sample) {
-                return true;
-            }
-            return false;
+        public boolean sample(String key) {
+            return (hash(key, seed ^ salt) >>> 11) * 0x1.0p-53 < sample;
+        }
+    }
+
+    /**
+     * FNV-1a over the chars, finished with the SplitMix64 mixer so all bits count. A sample
+     * picks the keys whose hashes are lowest as unsigned numbers.
+     */
+    public static long hash(String key, long seed) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
         }
+        h += seed * 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Aho-Corasick automaton that tells whether a string contains any of a set of substrings,
+ * looking at each char of the string once. The automaton is built as a full transition table,
+ * so each char costs one lookup of its class and one of the next state. The chars that appear in
+ * the substrings each get a class; all others share class 0, which goes back to the start.
+ */
+final class AhoCorasick {
+
+    private final boolean ignoreCase;
+    // the class of each ASCII char
+    private final int[] asciiClasses = new int[128];
+    // the classes of the others
+    private final Map<Character, Integer> otherClasses = new HashMap<>();
+    private final int numClasses;
+    // the next state, by state * numClasses + class
+    private final int[] next;
+    // whether a substring ends at the state, or at one of its suffixes
+    private final boolean[] matches;
+
+    AhoCorasick(Collection<String> substrings, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        int classes = 1;
+        for (String s : substrings) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = fold(s.charAt(i));
+                if (classOf(c) == 0) {
+                    if (c < 128) {
+                        asciiClasses[c] = classes++;
+                    } else {
+                        otherClasses.put(c, classes++);
+                    }
+                }
+            }
+        }
+        this.numClasses = classes;
+
+        // the trie
+        List<int[]> children = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        children.add(newChildren());
+        ends.add(false);
+        for (String s : substrings) {
+            int state = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int c = classOf(fold(s.charAt(i)));
+                if (children.get(state)[c] == 0) {
+                    children.get(state)[c] = children.size();
+                    children.add(newChildren());
+                    ends.add(false);
+                }
+                state = children.get(state)[c];
+            }
+            ends.set(state, true);
+        }
+
+        // the failure links, folded into the transitions breadth first
+        int states = children.size();
+        this.next = new int[states * numClasses];
+        this.matches = new boolean[states];
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        matches[0] = ends.get(0);
+        while (head < tail) {
+            int state = queue[head++];
+            int[] stateChildren = children.get(state);
+            for (int c = 0; c < numClasses; c++) {
+                int child = stateChildren[c];
+                int fallback = state == 0 ? 0 : next[fail[state] * numClasses + c];
+                if (child == 0) {
+                    next[state * numClasses + c] = fallback;
+                } else {
+                    next[state * numClasses + c] = child;
+                    fail[child] = fallback;
+                    matches[child] = ends.get(child) || matches[fallback];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    private int[] newChildren() {
+        return new int[numClasses];
+    }
+
+    boolean isIn(CharSequence s) {
+        if (matches[0]) {
+            // the empty string
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < s.length(); i++) {
+            state = next[state * numClasses + classOf(fold(s.charAt(i)))];
+            if (matches[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private char fold(char c) {
+        if (!ignoreCase) {
+            return c;
+        }
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            return asciiClasses[c];
+        }
+        Integer cls = otherClasses.get(c);
+        return cls == null ? 0 : cls;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Matches strings that contain any of a list of substrings, in a single pass over the string
+ * however many substrings there are (see {@link AhoCorasick}). The substrings may be listed
+ * inline ({@code contains_any}), or in a file with one per line ({@code contains_any_file}), or
+ * both; see {@link SetSelector}.
+ */
+public class ContainsAnySelector extends AbstractSamplingSelector {
+
+    private static final boolean DEFAULT_CASE_SENSITIVE = true;
+    private final AhoCorasick automaton;
+
+    @JsonCreator
+    public ContainsAnySelector(
+            @JsonProperty("contains_any") List<String> substrings,
+            @JsonProperty("contains_any_file") String file,
+            @JsonProperty("sample") Double sample,
+            @JsonProperty("seed") Long seed,
+            @JsonProperty("case_sensitive") Boolean caseSensitive) {
+        super(sample, seed);
+        this.automaton =
+                new AhoCorasick(
+                        SetSelector.readValues(substrings, file, "contains_any"),
+                        caseSensitive == null ? !DEFAULT_CASE_SENSITIVE : !caseSensitive);
+    }
+
+    @Override
+    boolean matches(String val) {
+        return automaton.isIn(val);
+    }
+}
@@ -36,8 +36,9 @@ public class ExtensionsSelector extends AbstractSamplingSelector {
     @JsonCreator
     public ExtensionsSelector(
             @JsonProperty("extensions") String commaDelimitedExtensions,
-            @JsonProperty("sample") Double sample) {
-        super(sample == null ? new SampleAll() : new SampleSome(sample));
+            @JsonProperty("sample") Double sample,
+            @JsonProperty("seed") Long seed) {
+        super(sample, seed);
         for (String ext : commaDelimitedExtensions.split(",")) {
             if (!StringUtils.isBlank(ext)) {
                 extensions.add(ext.toLowerCase(Locale.ROOT));
@@ -46,12 +47,12 @@ public class ExtensionsSelector extends AbstractSamplingSelector {
     }
 
     @Override
-    public boolean select(String val) {
+    boolean matches(String val) {
         String ext = FilenameUtils.getExtension(val);
         if (!StringUtils.isBlank(ext)) {
             ext = ext.toLowerCase(Locale.ROOT);
             if (extensions.contains(ext)) {
-                return sampler.select(val);
+                return true;
             }
         }
         return false;
@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cheap check on the raw bytes of an index line that rules out most of the lines a {@link
+ * RecordSelector} would reject, before they are parsed. It's built from the clauses whose
+ * matches have to show up literally in the line: e.g. a line can only have a mime_detected of
+ * {@code application/pdf} if it contains {@code "application} and {@code pdf"}. Characters
+ * that might be escaped in the json (quotes, backslashes, '/' and anything that isn't
+ * printable ASCII) are left out of the literals, so the check has no false negatives; lines
+ * that pass still have to be selected.
+ *
+ * <p>If the selector narrows down the SURT keys (see {@link RecordSelector#getSurtPrefixes()}),
+ * the line also has to start with one of the prefixes; e.g. a host clause is checked against
+ * the reversed host at the start of the line instead of parsing the url.
+ *
+ * <p>Range clauses on the timestamp are checked against the timestamp's bytes, which come
+ * right after the SURT key.
+ *
+ * <p>Each literal is found by scanning for its rarest byte eight bytes at a time (SWAR, on
+ * longs read straight from the line) and comparing the rest only where that byte occurs.
+ */
+public class LinePrefilter {
+
+    // the fields that are json strings in the line, by selector key
+    private static final Set<String> JSON_KEYS =
+            Set.of(
+                    "mime",
+                    "mime_detected",
+                    "status",
+                    "url",
+                    "digest",
+                    "charset",
+                    "languages",
+                    "truncated");
+
+    private static final VarHandle LONG =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long CASE_BITS = 0x2020202020202020L;
+
+    // the line has to start with one of these; null if it can start with anything
+    private final byte[][] surtPrefixes;
+    // the timestamp has to be in all of these
+    private final TimestampRange[] timestampRanges;
+    // every requirement has to be met; a requirement is met if any of its literals is in the line
+    private final Literal[][] requirements;
+
+    private LinePrefilter(
+            List<String> surtPrefixes,
+            List<TimestampRange> timestampRanges,
+            List<List<Literal>> requirements) {
+        if (surtPrefixes == null) {
+            this.surtPrefixes = null;
+        } else {
+            this.surtPrefixes = new byte[surtPrefixes.size()][];
+            for (int i = 0; i < surtPrefixes.size(); i++) {
+                this.surtPrefixes[i] = surtPrefixes.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        this.timestampRanges = timestampRanges.toArray(new TimestampRange[0]);
+        this.requirements = new Literal[requirements.size()][];
+        for (int i = 0; i < requirements.size(); i++) {
+            this.requirements[i] = requirements.get(i).toArray(new Literal[0]);
+        }
+    }
+
+    /**
+     * @param surtPrefixes the line's SURT key has to start with one of these, as {@link
+     *     RecordSelector#getSurtPrefixes()} returns them; null if it can start with anything
+     * @return null if none of the clauses can be checked on the raw line
+     */
+    static LinePrefilter compile(
+            Map<String, List<SelectorClause>> must,
+            Map<String, List<SelectorClause>> should,
+            List<String> surtPrefixes) {
+        List<List<Literal>> requirements = new ArrayList<>();
+        List<TimestampRange> timestampRanges = new ArrayList<>();
+        for (Map.Entry<String, List<SelectorClause>> e : must.entrySet()) {
+            for (SelectorClause clause : e.getValue()) {
+                if (e.getKey().equals("timestamp") && clause instanceof RangeSelector) {
+                    timestampRanges.add(new TimestampRange((RangeSelector) clause));
+                    continue;
+                }
+                List<List<Literal>> clauseRequirements = translate(e.getKey(), clause);
+                if (clauseRequirements != null) {
+                    requirements.addAll(clauseRequirements);
+                }
+            }
+        }
+        List<Literal> anyOf = translateShould(should);
+        if (anyOf != null) {
+            requirements.add(anyOf);
+        }
+        if (requirements.isEmpty() && timestampRanges.isEmpty() && surtPrefixes == null) {
+            return null;
+        }
+        return new LinePrefilter(surtPrefixes, timestampRanges, requirements);
+    }
+
+    /** @return null if there are no should clauses or any of them can't be checked */
+    private static List<Literal> translateShould(Map<String, List<SelectorClause>> should) {
+        // only one of the should clauses has to match, so all of them have to translate
+        List<Literal> anyOf = new ArrayList<>();
+        for (Map.Entry<String, List<SelectorClause>> e : should.entrySet()) {
+            for (SelectorClause clause : e.getValue()) {
+                List<List<Literal>> clauseRequirements = translate(e.getKey(), clause);
+                if (clauseRequirements == null) {
+                    return null;
+                }
+                anyOf.addAll(mostSelective(clauseRequirements));
+            }
+        }
+        return anyOf.isEmpty() ? null : anyOf;
+    }
+
+    /**
+     * @return false if the line can't be selected; true if it has to be parsed to tell
+     */
+    public boolean mayMatch(byte[] line, int offset, int length) {
+        if (surtPrefixes != null && !startsWithAny(line, offset, length)) {
+            return false;
+        }
+        if (timestampRanges.length > 0 && !isInTimestampRanges(line, offset, length)) {
+            return false;
+        }
+        int end = offset + length;
+        for (Literal[] anyOf : requirements) {
+            boolean found = false;
+            for (Literal literal : anyOf) {
+                if (literal.isIn(line, offset, end)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWithAny(byte[] line, int offset, int length) {
+        // the prefixes are sorted and none starts with another, so the only one the line can
+        // start with is the last one that sorts at or before it
+        int end = offset + length;
+        int low = 0;
+        int high = surtPrefixes.length - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            byte[] prefix = surtPrefixes[mid];
+            if (Arrays.compareUnsigned(prefix, 0, prefix.length, line, offset, end) <= 0) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (candidate < 0) {
+            return false;
+        }
+        byte[] prefix = surtPrefixes[candidate];
+        return prefix.length <= length
+                && Arrays.equals(line, offset, offset + prefix.length, prefix, 0, prefix.length);
+    }
+
+    private boolean isInTimestampRanges(byte[] line, int offset, int length) {
+        int end = offset + length;
+        int start = offset;
+        while (start < end && line[start] != ' ') {
+            start++;
+        }
+        start++;
+        int stop = start;
+        while (stop < end && line[stop] != ' ') {
+            stop++;
+        }
+        if (stop >= end) {
+            // not a whole index line; leave it to the parser
+            return true;
+        }
+        for (TimestampRange range : timestampRanges) {
+            if (!range.contains(line, start, stop)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the literals that the line has to contain for the clause to select it, as a list
+     *     of requirements that all have to be met, or null if the clause can't be checked
+     */
+    private static List<List<Literal>> translate(String key, SelectorClause clause) {
+        if (key.equals("surt")) {
+            // the SURT key is at the start of the line, not in the json, so it isn't escaped
+            String literal;
+            boolean ignoreCase = false;
+            if (clause instanceof MatchSelector) {
+                literal = ((MatchSelector) clause).match;
+                ignoreCase = !((MatchSelector) clause).caseSensitive;
+            } else if (clause instanceof PrefixSelector) {
+                literal = ((PrefixSelector) clause).prefix;
+            } else if (clause instanceof RegexSelector
+                    && ((RegexSelector) clause).requiredLiteral != null) {
+                literal = ((RegexSelector) clause).requiredLiteral;
+            } else {
+                return null;
+            }
+            if (literal.isEmpty() || (ignoreCase && !literal.chars().allMatch(c -> c < 0x80))) {
+                return null;
+            }
+            return List.of(List.of(new Literal(literal, ignoreCase)));
+        }
+        if (!JSON_KEYS.contains(key)) {
+            // e.g. host, which is derived from the url
+            return null;
+        }
+        // status might not be quoted
+        String quote = key.equals("status") ? "" : "\"";
+        if (clause instanceof MatchSelector) {
+            MatchSelector m = (MatchSelector) clause;
+            return pieces(quote, m.match, quote, !m.caseSensitive);
+        } else if (clause instanceof PrefixSelector) {
+            return pieces(quote, ((PrefixSelector) clause).prefix, "", false);
+        } else if (clause instanceof RegexSelector) {
+            // anywhere in the value
+            String literal = ((RegexSelector) clause).requiredLiteral;
+            return literal == null ? null : pieces("", literal, "", false);
+        } else if (clause instanceof ExtensionsSelector) {
+            List<Literal> anyOf = new ArrayList<>();
+            for (String ext : ((ExtensionsSelector) clause).extensions) {
+                String literal = "." + ext;
+                if (!isSafe(literal)) {
+                    return null;
+                }
+                anyOf.add(new Literal(literal, true));
+            }
+            return anyOf.isEmpty() ? null : List.of(anyOf);
+        }
+        return null;
+    }
+
+    /**
+     * Splits a json string value at the characters that might be escaped; each piece that is
+     * long enough to be worth looking for becomes a requirement.
+     *
+     * @param open what comes before the value in the line, e.g. its opening quote
+     * @param close what comes after the value in the line
+     */
+    private static List<List<Literal>> pieces(
+            String open, String value, String close, boolean ignoreCase) {
+        String s = open + value + close;
+        int valueEnd = open.length() + value.length();
+        List<List<Literal>> requirements = new ArrayList<>();
+        int start = 0;
+        for (int i = open.length(); i <= valueEnd; i++) {
+            if (i == valueEnd || !isSafe(s.charAt(i))) {
+                int end = i == valueEnd ? s.length() : i;
+                if (end - start >= 2) {
+                    requirements.add(List.of(new Literal(s.substring(start, end), ignoreCase)));
+                }
+                start = i + 1;
+            }
+        }
+        return requirements.isEmpty() ? null : requirements;
+    }
+
+    // the requirement whose shortest literal is longest
+    private static List<Literal> mostSelective(List<List<Literal>> requirements) {
+        List<Literal> best = null;
+        int bestLength = -1;
+        for (List<Literal> anyOf : requirements) {
+            int shortest = Integer.MAX_VALUE;
+            for (Literal literal : anyOf) {
+                shortest = Math.min(shortest, literal.bytes.length);
+            }
+            if (shortest > bestLength) {
+                best = anyOf;
+                bestLength = shortest;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isSafe(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!isSafe(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSafe(char c) {
+        return c >= 0x20 && c < 0x7f && c != '"' && c != '\\' && c != '/';
+    }
+
+    /** A {@link RangeSelector} on the timestamp, as bytes. */
+    private static final class TimestampRange {
+        // null for no bound
+        private final byte[] after;
+        private final byte[] before;
+
+        private TimestampRange(RangeSelector range) {
+            this.after =
+                    range.after == null ? null : range.after.getBytes(StandardCharsets.UTF_8);
+            this.before =
+                    range.before == null ? null : range.before.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private boolean contains(byte[] line, int start, int end) {
+            if (after != null
+                    && Arrays.compareUnsigned(line, start, end, after, 0, after.length) < 0) {
+                return false;
+            }
+            return before == null
+                    || Arrays.compareUnsigned(line, start, end, before, 0, before.length) < 0;
+        }
+    }
+
+    /** A byte string to look for in the line. */
+    static final class Literal {
+        private final byte[] bytes;
+        private final boolean ignoreCase;
+        // the byte that is scanned for
+        private final int anchor;
+        private final long anchorWord;
+        // whether to fold each word to lower case before comparing it with the anchor
+        private final boolean foldCase;
+
+        Literal(String s, boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            this.bytes =
+                    (ignoreCase ? s.toLowerCase(Locale.ROOT) : s)
+                            .getBytes(StandardCharsets.UTF_8);
+            int best = 0;
+            for (int i = 1; i < bytes.length; i++) {
+                if (commonness(bytes[i]) < commonness(bytes[best])) {
+                    best = i;
+                }
+            }
+            this.anchor = best;
+            this.anchorWord = (bytes[best] & 0xffL) * ONES;
+            this.foldCase = ignoreCase && isLowerCaseLetter(bytes[best]);
+        }
+
+        boolean isIn(byte[] buf, int from, int to) {
+            // the positions in buf where the anchor byte has to be
+            int first = from + anchor;
+            int last = to - bytes.length + anchor;
+            int p = first;
+            for (; p + 8 <= last + 1; p += 8) {
+                long word = (long) LONG.get(buf, p);
+                if (foldCase) {
+                    // maps 'A'-'Z' onto 'a'-'z' (and a few others onto other bytes, which
+                    // is fine: every candidate is compared in full)
+                    word |= CASE_BITS;
+                }
+                long x = word ^ anchorWord;
+                // the high bit is set in the bytes of x that are zero, i.e. where the anchor is,
+                // and possibly in some bytes above those
+                long candidates = (x - ONES) & ~x & HIGHS;
+                while (candidates != 0) {
+                    int candidate = p + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                    if (matchesAt(buf, candidate - anchor)) {
+                        return true;
+                    }
+                    candidates &= candidates - 1;
+                }
+            }
+            for (; p <= last; p++) {
+                if (matchesAt(buf, p - anchor)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesAt(byte[] buf, int start) {
+            for (int i = 0; i < bytes.length; i++) {
+                byte b = buf[start + i];
+                if (b != bytes[i]
+                        && !(ignoreCase && isLowerCaseLetter(bytes[i]) && (b | 0x20) == bytes[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** A rough guess at how common a byte is in an index line; lower is rarer. */
+        private static int commonness(byte b) {
+            switch (b) {
+                case '"':
+                case ' ':
+                case ',':
+                case ':':
+                case '/':
+                case '.':
+                case '-':
+                    return 3;
+                default:
+                    break;
+            }
+            if ((b >= '0' && b <= '9') || "etaoinsrhlcdmpu".indexOf(b) > -1) {
+                return 2;
+            }
+            return isLowerCaseLetter(b) ? 1 : 0;
+        }
+
+        private static boolean isLowerCaseLetter(byte b) {
+            return b >= 'a' && b <= 'z';
+        }
+    }
+}
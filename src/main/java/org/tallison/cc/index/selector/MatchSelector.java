@@ -30,23 +30,15 @@ public class MatchSelector extends AbstractSamplingSelector {
     MatchSelector(
             @JsonProperty("match") String match,
             @JsonProperty("sample") Double sample,
+            @JsonProperty("seed") Long seed,
             @JsonProperty("case_sensitive") Boolean caseSensitive) {
-        super(sample == null ? new SampleAll() : new SampleSome(sample));
+        super(sample, seed);
         this.match = match;
         this.caseSensitive = caseSensitive == null ? DEFAULT_CASE_SENSITIVE : caseSensitive;
     }
 
     @Override
-    public boolean select(String val) {
-        boolean matched;
-        if (caseSensitive) {
-            matched = match.equals(val);
-        } else {
-            matched = match.equalsIgnoreCase(val);
-        }
-        if (matched) {
-            return sampler.select(val);
-        }
-        return false;
+    boolean matches(String val) {
+        return caseSensitive ? match.equals(val) : match.equalsIgnoreCase(val);
     }
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+/**
+ * Selects at most {@code max} records for each value of a field, e.g. 1000 per detected mime
+ * type, for a balanced sample. With a list of {@code keys}, only records with one of those
+ * values are selected, and once every one of them has its {@code max} the quota is {@link
+ * #isMet() met} and there's no point in reading any more of the index. Without one, every value
+ * gets its own count, and the quota is never met.
+ *
+ * <p>The counts are shared by all of the index threads without locking.
+ */
+public class Quota {
+
+    // as in the selector json, e.g. "mime_detected"
+    final String fieldKey;
+    private final SelectorPlan.Field field;
+    final long max;
+    // null if any value of the field counts
+    final List<String> keys;
+    private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+    // keys that haven't reached max yet
+    private final AtomicInteger unmet;
+    private volatile boolean met;
+
+    /**
+     * @throws IllegalArgumentException if the field isn't supported, max isn't positive or
+     *     keys is empty
+     */
+    @JsonCreator
+    public Quota(
+            @JsonProperty("field") String field,
+            @JsonProperty("max") long max,
+            @JsonProperty("keys") List<String> keys) {
+        if (max < 1) {
+            throw new IllegalArgumentException("a quota's max must be at least 1, not " + max);
+        }
+        if (keys != null && keys.isEmpty()) {
+            throw new IllegalArgumentException("a quota's keys can't be empty");
+        }
+        this.fieldKey = field;
+        this.field = SelectorPlan.Field.forKey(field);
+        this.max = max;
+        this.keys = keys;
+        if (keys != null) {
+            for (String key : keys) {
+                counts.put(key, new AtomicLong());
+            }
+        }
+        this.unmet = new AtomicInteger(counts.size());
+    }
+
+    /**
+     * Counts the record against its value's quota if there's room. Call this only for records
+     * that are otherwise selected.
+     *
+     * @return whether the record is within its value's quota
+     */
+    boolean tryAcquire(CCIndexRecord record) {
+        String val = field.get(record);
+        if (val == null) {
+            return false;
+        }
+        AtomicLong count = counts.get(val);
+        if (count == null) {
+            if (keys != null) {
+                return false;
+            }
+            count = counts.computeIfAbsent(val, k -> new AtomicLong());
+        }
+        // don't keep counting once it's full
+        if (count.get() >= max) {
+            return false;
+        }
+        long n = count.incrementAndGet();
+        if (n > max) {
+            return false;
+        }
+        if (n == max && keys != null && unmet.decrementAndGet() == 0) {
+            met = true;
+        }
+        return true;
+    }
+
+    /** @return whether every one of the keys has reached its max; false if there aren't keys */
+    public boolean isMet() {
+        return met;
+    }
+}
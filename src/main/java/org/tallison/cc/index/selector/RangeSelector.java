@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Matches strings that sort at or after {@code after} and before {@code before}; either may be
+ * left out. Meant for the 14 digit capture timestamps, where a prefix such as {@code 202407}
+ * stands for the start of that month: {@code "after": "202407", "before": "202408"} selects
+ * the captures from July 2024.
+ */
+public class RangeSelector extends AbstractSamplingSelector {
+
+    // inclusive; null for no lower bound
+    final String after;
+    // exclusive; null for no upper bound
+    final String before;
+
+    @JsonCreator
+    public RangeSelector(
+            @JsonProperty("after") String after,
+            @JsonProperty("before") String before,
+            @JsonProperty("sample") Double sample,
+            @JsonProperty("seed") Long seed) {
+        super(sample, seed);
+        if (after == null && before == null) {
+            throw new IllegalArgumentException("a range needs 'after', 'before' or both");
+        }
+        this.after = after;
+        this.before = before;
+    }
+
+    @Override
+    boolean matches(String val) {
+        if (after != null && val.compareTo(after) < 0) {
+            return false;
+        }
+        if (before != null && val.compareTo(before) >= 0) {
+            return false;
+        }
+        return true;
+    }
+}
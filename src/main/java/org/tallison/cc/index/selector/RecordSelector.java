@@ -17,103 +17,198 @@
 package org.tallison.cc.index.selector;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.tallison.cc.index.CCIndexRecord;
+import org.tallison.cc.index.Surt;
 
 public class RecordSelector {
 
-    private static Logger LOGGER = LoggerFactory.getLogger(RecordSelector.class);
-
     public static RecordSelector ACCEPT_ALL_RECORDS = new AcceptAllRecords();
     @JsonProperty Map<String, List<SelectorClause>> must = new HashMap<>();
     @JsonProperty Map<String, List<SelectorClause>> must_not = new HashMap<>();
     @JsonProperty Map<String, List<SelectorClause>> should = new HashMap<>();
+    // null if there's no quota
+    @JsonProperty Quota quota;
+
+    // compiled on the first select, after the json has been read
+    private volatile SelectorPlan plan;
 
+    /**
+     * @throws IllegalArgumentException if a clause is on a field that isn't supported
+     */
     public boolean select(CCIndexRecord record) {
+        SelectorPlan plan = this.plan;
+        if (plan == null) {
+            // two threads may both compile it; the plans are the same
+            plan = SelectorPlan.compile(must_not, must, should);
+            this.plan = plan;
+        }
+        // the quota only counts records that are otherwise selected
+        return plan.select(record) && (quota == null || quota.tryAcquire(record));
+    }
 
-        for (Map.Entry<String, List<SelectorClause>> e : must_not.entrySet()) {
-            String val = getStringValue(e.getKey(), record);
-            if (val == null) {
-                LOGGER.debug("Value is null for '{}' in the must not clause", e.getKey());
-                continue;
-            }
+    /**
+     * @param key a field as in the selector json, e.g. "tld"
+     * @return reads the field from a record; null if the record doesn't have it
+     * @throws IllegalArgumentException if the field isn't supported
+     */
+    public static Function<CCIndexRecord, String> getField(String key) {
+        return SelectorPlan.Field.forKey(key)::get;
+    }
+
+    /**
+     * @return whether the {@link Quota} is met, so that no more records can be selected; false
+     *     if there's no quota
+     */
+    public boolean isDone() {
+        return quota != null && quota.isMet();
+    }
+
+    /**
+     * Translates the host, tld, url and surt clauses into prefixes of the SURT keys that a record
+     * must have to be selected, so that only the parts of the index that can hold such records
+     * need to be read. The prefixes are necessary, not sufficient: records that have one still
+     * have to be {@link #select(CCIndexRecord) selected}. Urls are translated with {@link
+     * Surt#toSurtPrefix(String)}, which stops before anything the crawler might canonicalize
+     * differently, so the line prefilter and the stop past the last prefix never skip a key
+     * that the url could have been written as.
+     *
+     * @return the prefixes, sorted by their bytes, none of them starting with another; null if
+     *     the selector could select records with any SURT key
+     */
+    public List<String> getSurtPrefixes() {
+        // every must clause has to match, so any one of them that translates narrows it down
+        for (Map.Entry<String, List<SelectorClause>> e : getMustWithQuota().entrySet()) {
             for (SelectorClause clause : e.getValue()) {
-                if (clause.select(val)) {
-                    return false;
+                List<String> prefixes = getSurtPrefixes(e.getKey(), clause);
+                if (prefixes != null) {
+                    return normalize(prefixes);
                 }
             }
         }
-
-        for (Map.Entry<String, List<SelectorClause>> e : must.entrySet()) {
-            String val = getStringValue(e.getKey(), record);
-            if (val == null) {
-                LOGGER.warn(
-                        "Value is null for '{}' in the must clause. Record not selected.",
-                        e.getKey());
-                return false;
-            }
+        if (should.isEmpty()) {
+            return null;
+        }
+        // only one of the should clauses has to match, so all of them have to translate
+        List<String> prefixes = new ArrayList<>();
+        for (Map.Entry<String, List<SelectorClause>> e : should.entrySet()) {
             for (SelectorClause clause : e.getValue()) {
-                if (!clause.select(val)) {
-                    return false;
+                List<String> clausePrefixes = getSurtPrefixes(e.getKey(), clause);
+                if (clausePrefixes == null) {
+                    return null;
                 }
+                prefixes.addAll(clausePrefixes);
             }
         }
-        if (should.size() == 0) {
-            return true;
+        return normalize(prefixes);
+    }
+
+    /** Sorts the prefixes by their bytes and drops those that start with another one. */
+    private static List<String> normalize(List<String> prefixes) {
+        List<byte[]> sorted = new ArrayList<>();
+        for (String prefix : prefixes) {
+            sorted.add(prefix.getBytes(StandardCharsets.UTF_8));
         }
-        for (Map.Entry<String, List<SelectorClause>> e : should.entrySet()) {
-            String val = getStringValue(e.getKey(), record);
-            if (val == null) {
-                LOGGER.debug(
-                        "Value is null for '{}' in the should clause. Record not selected",
-                        e.getKey());
-                continue;
+        sorted.sort(Arrays::compareUnsigned);
+        List<String> normalized = new ArrayList<>();
+        byte[] last = null;
+        for (byte[] prefix : sorted) {
+            // anything that starts with the last one kept comes right after it
+            if (last == null || !startsWith(prefix, last)) {
+                normalized.add(new String(prefix, StandardCharsets.UTF_8));
+                last = prefix;
             }
-            for (SelectorClause clause : e.getValue()) {
-                if (clause.select(val)) {
-                    return true;
+        }
+        return normalized;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length
+                && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * @return a check on the raw index line that rules out lines this selector can't select,
+     *     or null if there's nothing to check
+     */
+    public LinePrefilter getLinePrefilter() {
+        return LinePrefilter.compile(getMustWithQuota(), should, getSurtPrefixes());
+    }
+
+    /**
+     * @return the must clauses, plus one that the quota's field is one of its keys if it has any:
+     *     records without one of them can't be selected either
+     */
+    private Map<String, List<SelectorClause>> getMustWithQuota() {
+        if (quota == null || quota.keys == null) {
+            return must;
+        }
+        Map<String, List<SelectorClause>> withQuota = new HashMap<>(must);
+        List<SelectorClause> clauses =
+                new ArrayList<>(must.getOrDefault(quota.fieldKey, List.of()));
+        clauses.add(new SetSelector(quota.keys, null, null, null, null));
+        withQuota.put(quota.fieldKey, clauses);
+        return withQuota;
+    }
+
+    private static List<String> getSurtPrefixes(String key, SelectorClause clause) {
+        if (clause instanceof MatchSelector) {
+            MatchSelector match = (MatchSelector) clause;
+            return getSurtPrefixes(key, match.match, false, match.caseSensitive);
+        } else if (clause instanceof PrefixSelector) {
+            return getSurtPrefixes(key, ((PrefixSelector) clause).prefix, true, true);
+        } else if (clause instanceof SetSelector) {
+            // e.g. a list of hosts
+            SetSelector set = (SetSelector) clause;
+            List<String> prefixes = new ArrayList<>();
+            for (String val : set.values) {
+                List<String> valPrefixes = getSurtPrefixes(key, val, false, set.caseSensitive);
+                if (valPrefixes == null) {
+                    return null;
                 }
+                prefixes.addAll(valPrefixes);
             }
+            return prefixes.isEmpty() ? null : prefixes;
         }
-        return false;
+        return null;
     }
 
-    private String getStringValue(String key, CCIndexRecord record) {
-
+    private static List<String> getSurtPrefixes(
+            String key, String val, boolean isPrefix, boolean caseSensitive) {
         switch (key) {
-            case "mime_detected":
-                return record.getMimeDetected();
-            case "truncated":
-                return record.getTruncated();
-            case "mime":
-                return record.getMime();
-            case "status":
-                return record.getStatus() == null ? null : Integer.toString(record.getStatus());
-            case "url":
-                return record.getUrl();
+            case "surt":
+                // the keys are lowercased, so a key that matches ignoring case is the lowercase
+                return List.of(caseSensitive ? val : val.toLowerCase(Locale.ROOT));
             case "host":
-                return record.getHost();
-            case "digest":
-                return record.getDigest();
-            case "charset":
-                // HTTP-declared charset (Content-Type charset parameter or
-                // <meta charset>) as captured by the crawler.  Not run
-                // through any charset detector — pure declaration.
-                return record.getCharset();
-            case "languages":
-                // Comma-separated list of languages declared via HTML lang=
-                // attribute or Content-Language header.  Pure declaration.
-                return record.getLanguages();
+                if (isPrefix) {
+                    return null;
+                }
+                // the host doesn't include the port, the SURT key does
+                String host = Surt.hostToSurt(val);
+                return List.of(host + ")", host + ":");
             case "tld":
-                return CCIndexRecord.getTLD(record.getUrl());
+                if (isPrefix || val.isEmpty() || val.contains(".") || val.contains(",")) {
+                    return null;
+                }
+                // the tld is the first label of the reversed host, and a host with a tld has
+                // more than one label
+                return List.of(val.toLowerCase(Locale.ROOT) + ",");
+            case "url":
+                if (isPrefix && !Surt.isCompleteHost(val)) {
+                    return null;
+                }
+                return List.of(Surt.toSurtPrefix(val));
             default:
-                throw new IllegalArgumentException("Don't yet support key " + key);
+                return null;
         }
     }
 
@@ -122,5 +217,15 @@ public class RecordSelector {
         public boolean select(CCIndexRecord record) {
             return true;
         }
+
+        @Override
+        public List<String> getSurtPrefixes() {
+            return null;
+        }
+
+        @Override
+        public LinePrefilter getLinePrefilter() {
+            return null;
+        }
     }
 }
@@ -19,26 +19,61 @@ package org.tallison.cc.index.selector;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.regex.Matcher;
+import java.util.Locale;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+/**
+ * Matches strings in which the pattern is found. With {@code "engine": "re2j"}, the pattern is
+ * run by RE2/J, which takes time linear in the length of the string whatever the pattern, but
+ * doesn't support backreferences or lookaround; the default, {@code java}, is {@link Pattern}.
+ *
+ * <p>If every match of the pattern has to contain some literal text, strings without it are
+ * rejected with {@link String#indexOf(String)} before the pattern runs.
+ */
 public class RegexSelector extends AbstractSamplingSelector {
 
-    final Pattern pattern;
+    final String pattern;
+    // null if there's none
+    final String requiredLiteral;
+    private final Predicate<String> finder;
 
     @JsonCreator
     public RegexSelector(
-            @JsonProperty("pattern") String pattern, @JsonProperty("sample") Double sample) {
-        super(sample == null ? new SampleAll() : new SampleSome(sample));
-        this.pattern = Pattern.compile(pattern);
+            @JsonProperty("pattern") String pattern,
+            @JsonProperty("sample") Double sample,
+            @JsonProperty("seed") Long seed,
+            @JsonProperty("engine") String engine) {
+        super(sample, seed);
+        this.pattern = pattern;
+        this.requiredLiteral = RequiredLiteral.of(pattern);
+        String name = engine == null ? "java" : engine.toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "java":
+                Pattern javaPattern = Pattern.compile(pattern);
+                this.finder = s -> javaPattern.matcher(s).find();
+                break;
+            case "re2j":
+                com.google.re2j.Pattern re2jPattern;
+                try {
+                    re2jPattern = com.google.re2j.Pattern.compile(pattern);
+                } catch (com.google.re2j.PatternSyntaxException e) {
+                    throw new IllegalArgumentException(
+                            "re2j can't run this pattern: " + e.getMessage(), e);
+                }
+                this.finder = s -> re2jPattern.matcher(s).find();
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "engine must be 'java' or 're2j', not '" + engine + "'");
+        }
     }
 
     @Override
-    public boolean select(String val) {
-        Matcher m = pattern.matcher(val);
-        if (m.find()) {
-            return sampler.select(val);
+    boolean matches(String val) {
+        if (requiredLiteral != null && !val.contains(requiredLiteral)) {
+            return false;
         }
-        return false;
+        return finder.test(val);
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+/**
+ * Finds literal text that every match of a regular expression has to contain, e.g. {@code
+ * .pdf} in {@code \.pdf(\?.*)?$}. Only the top level of the pattern is looked at, outside
+ * groups and character classes, and anything it isn't sure about ends the literal; patterns
+ * with flags, lookaround, quoting or alternation at the top level have none.
+ */
+final class RequiredLiteral {
+
+    private RequiredLiteral() {}
+
+    /** @return the longest such literal, or null if there's none */
+    static String of(String regex) {
+        if (regex.contains("(?") || regex.contains("\\Q")) {
+            return null;
+        }
+        String longest = null;
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            char literal;
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= n) {
+                        return null;
+                    }
+                    char escaped = regex.charAt(i + 1);
+                    i += 2;
+                    if (Character.isLetterOrDigit(escaped)) {
+                        if ("dDwWsSbB".indexOf(escaped) < 0) {
+                            // e.g. \x41 or \p{L}, which take arguments, or \t
+                            return null;
+                        }
+                        longest = longer(longest, run);
+                        i = skipQuantifier(regex, i);
+                        continue;
+                    }
+                    literal = escaped;
+                    break;
+                case '|':
+                    return null;
+                case '(':
+                    longest = longer(longest, run);
+                    i = skipQuantifier(regex, skipGroup(regex, i));
+                    continue;
+                case '[':
+                    longest = longer(longest, run);
+                    i = skipQuantifier(regex, skipClass(regex, i));
+                    continue;
+                case '.':
+                case '^':
+                case '$':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    longest = longer(longest, run);
+                    i = skipQuantifier(regex, c == '.' || c == '^' || c == '$' ? i + 1 : i);
+                    continue;
+                default:
+                    if (Character.isSurrogate(c)) {
+                        // a quantifier would apply to the whole code point
+                        return null;
+                    }
+                    literal = c;
+                    i++;
+            }
+            char next = i < n ? regex.charAt(i) : 0;
+            if (next == '*' || next == '?' || next == '{') {
+                // the char may not be there at all
+                longest = longer(longest, run);
+                i = skipQuantifier(regex, i);
+            } else if (next == '+') {
+                // it's there at least once, but what follows may not come right after it
+                run.append(literal);
+                longest = longer(longest, run);
+                i = skipQuantifier(regex, i);
+            } else {
+                run.append(literal);
+            }
+        }
+        return longer(longest, run);
+    }
+
+    /** Ends the run; returns the longer of it and the longest so far. */
+    private static String longer(String longest, StringBuilder run) {
+        String s = run.toString();
+        run.setLength(0);
+        if (s.isEmpty() || (longest != null && longest.length() >= s.length())) {
+            return longest;
+        }
+        return s;
+    }
+
+    /** @return the index after the quantifier at i, if there is one */
+    private static int skipQuantifier(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        char c = regex.charAt(i);
+        if (c == '{') {
+            int close = regex.indexOf('}', i);
+            i = close < 0 ? regex.length() : close + 1;
+        } else if (c == '*' || c == '+' || c == '?') {
+            i++;
+        } else {
+            return i;
+        }
+        // lazy or possessive
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    /** @return the index after the group that opens at i */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /** @return the index after the character class that opens at i */
+    private static int skipClass(String regex, int i) {
+        int depth = 1;
+        i++;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            // a literal ']'
+            i++;
+        }
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+}
@@ -19,13 +19,27 @@ package org.tallison.cc.index.selector;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
+import org.tallison.cc.index.CCIndexRecord;
+
 @JsonTypeInfo(use = JsonTypeInfo.Id.DEDUCTION)
 @JsonSubTypes({
     @JsonSubTypes.Type(MatchSelector.class),
     @JsonSubTypes.Type(RegexSelector.class),
-    @JsonSubTypes.Type(ExtensionsSelector.class)
+    @JsonSubTypes.Type(ExtensionsSelector.class),
+    @JsonSubTypes.Type(PrefixSelector.class),
+    @JsonSubTypes.Type(RangeSelector.class),
+    @JsonSubTypes.Type(SetSelector.class),
+    @JsonSubTypes.Type(ContainsAnySelector.class)
 })
 public interface SelectorClause {
 
     boolean select(String val);
+
+    /**
+     * @param val the value of the clause's field in {@code record}
+     * @return whether to select; clauses that sample decide on a key from the record
+     */
+    default boolean select(String val, CCIndexRecord record) {
+        return select(val);
+    }
 }
@@ -0,0 +1,462 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+/**
+ * A {@link RecordSelector}'s clauses compiled for evaluation. The keys are resolved to {@link
+ * Field}s once, the clauses are flattened into arrays in the order the selector's maps iterate
+ * in, and each field's value is computed at most once per record, however many clauses read
+ * it. That matters for {@code host} and {@code tld}, which parse the url; the other fields are
+ * plain getters and aren't worth keeping.
+ *
+ * <p>The must not and must steps are reordered as records are selected. The steps are timed
+ * for one in {@link #DEFAULT_SAMPLE_PERIOD} records, picked at random, and after {@link
+ * #DEFAULT_SAMPLE_RECORDS} of those the steps that took the least time per record they rejected
+ * are put first, so that a cheap exact match on {@code status} that rejects most records runs
+ * before a regex on the {@code url}. The should steps keep their order.
+ *
+ * <p>Plans may be shared by threads; the values computed for the record being selected are kept
+ * per thread.
+ */
+final class SelectorPlan {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SelectorPlan.class);
+
+    // marks a value that hasn't been computed for the current record; compared by identity
+    private static final String UNSET = new String("unset");
+
+    // status codes are three digits, so this saves a String per record for the common case
+    private static final String[] STATUS_STRINGS = new String[1000];
+
+    static {
+        for (int i = 0; i < STATUS_STRINGS.length; i++) {
+            STATUS_STRINGS[i] = Integer.toString(i);
+        }
+    }
+
+    /** The record fields a selector can have clauses on, by their key in the selector json. */
+    enum Field {
+        MIME_DETECTED("mime_detected") {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getMimeDetected();
+            }
+        },
+        TRUNCATED("truncated") {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getTruncated();
+            }
+        },
+        MIME("mime") {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getMime();
+            }
+        },
+        STATUS("status", true) {
+            @Override
+            String get(CCIndexRecord record) {
+                Integer status = record.getStatus();
+                if (status == null) {
+                    return null;
+                }
+                return status >= 0 && status < STATUS_STRINGS.length
+                        ? STATUS_STRINGS[status]
+                        : Integer.toString(status);
+            }
+        },
+        URL("url") {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getUrl();
+            }
+        },
+        SURT("surt") {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getSurtKey();
+            }
+        },
+        TIMESTAMP("timestamp") {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getTimestamp();
+            }
+        },
+        HOST("host", true) {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getHost();
+            }
+        },
+        DIGEST("digest") {
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getDigest();
+            }
+        },
+        CHARSET("charset") {
+            // HTTP-declared charset (Content-Type charset parameter or
+            // <meta charset>) as captured by the crawler.  Not run
+            // through any charset detector — pure declaration.
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getCharset();
+            }
+        },
+        LANGUAGES("languages") {
+            // Comma-separated list of languages declared via HTML lang=
+            // attribute or Content-Language header.  Pure declaration.
+            @Override
+            String get(CCIndexRecord record) {
+                return record.getLanguages();
+            }
+        },
+        TLD("tld", true) {
+            @Override
+            String get(CCIndexRecord record) {
+                return CCIndexRecord.getTLD(record.getUrl());
+            }
+        };
+
+        private static final Map<String, Field> BY_KEY = new HashMap<>();
+
+        static {
+            for (Field field : values()) {
+                BY_KEY.put(field.key, field);
+            }
+        }
+
+        private final String key;
+        // computed from the record's fields rather than just read
+        private final boolean derived;
+
+        Field(String key) {
+            this(key, false);
+        }
+
+        Field(String key, boolean derived) {
+            this.key = key;
+            this.derived = derived;
+        }
+
+        abstract String get(CCIndexRecord record);
+
+        static Field forKey(String key) {
+            Field field = BY_KEY.get(key);
+            if (field == null) {
+                throw new IllegalArgumentException("Don't yet support key " + key);
+            }
+            return field;
+        }
+    }
+
+    /** One clause and the field it reads, with what it cost in the current sample. */
+    static final class Step {
+        final Field field;
+        final SelectorClause clause;
+        // whether the field's value is kept for the other steps that read it
+        boolean memoize;
+        private final LongAdder evaluated = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        // expected time spent per record it rejects; unknown until it's been evaluated
+        private double rank = Double.POSITIVE_INFINITY;
+
+        Step(Field field, SelectorClause clause) {
+            this.field = field;
+            this.clause = clause;
+        }
+
+        private void sample(long elapsed, boolean rejects) {
+            evaluated.increment();
+            nanos.add(elapsed);
+            if (rejects) {
+                rejected.increment();
+            }
+        }
+
+        private void updateRank() {
+            long n = evaluated.sumThenReset();
+            long r = rejected.sumThenReset();
+            long t = nanos.sumThenReset();
+            if (n == 0) {
+                // the steps before it rejected everything; keep what it was
+                return;
+            }
+            rank = r == 0 ? Double.POSITIVE_INFINITY : (double) t / r;
+        }
+    }
+
+    // one in this many records is timed; a power of two
+    static final int DEFAULT_SAMPLE_PERIOD = 128;
+    // and the steps are reordered after this many have been
+    static final int DEFAULT_SAMPLE_RECORDS = 1000;
+
+    // false if there's nothing to reorder
+    private final boolean adaptive;
+    private final int sampleMask;
+    private final int sampleRecords;
+    private final LongAdder sampled = new LongAdder();
+    // these two are reordered
+    private volatile Step[] mustNot;
+    private volatile Step[] must;
+    private final Step[] should;
+    private final ThreadLocal<String[]> values =
+            ThreadLocal.withInitial(() -> new String[Field.values().length]);
+
+    private SelectorPlan(
+            Step[] mustNot, Step[] must, Step[] should, int samplePeriod, int sampleRecords) {
+        this.mustNot = mustNot;
+        this.must = must;
+        this.should = should;
+        if (Integer.bitCount(samplePeriod) != 1) {
+            throw new IllegalArgumentException("samplePeriod must be a power of two");
+        }
+        this.adaptive = mustNot.length > 1 || must.length > 1;
+        this.sampleMask = samplePeriod - 1;
+        this.sampleRecords = sampleRecords;
+        // only worth it for the derived fields that more than one step reads
+        int[] readers = new int[Field.values().length];
+        for (Step[] steps : List.of(mustNot, must, should)) {
+            for (Step step : steps) {
+                readers[step.field.ordinal()]++;
+            }
+        }
+        for (Step[] steps : List.of(mustNot, must, should)) {
+            for (Step step : steps) {
+                step.memoize = step.field.derived && readers[step.field.ordinal()] > 1;
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a key isn't a {@link Field}
+     */
+    static SelectorPlan compile(
+            Map<String, List<SelectorClause>> mustNot,
+            Map<String, List<SelectorClause>> must,
+            Map<String, List<SelectorClause>> should) {
+        return compile(mustNot, must, should, DEFAULT_SAMPLE_PERIOD, DEFAULT_SAMPLE_RECORDS);
+    }
+
+    static SelectorPlan compile(
+            Map<String, List<SelectorClause>> mustNot,
+            Map<String, List<SelectorClause>> must,
+            Map<String, List<SelectorClause>> should,
+            int samplePeriod,
+            int sampleRecords) {
+        return new SelectorPlan(
+                steps("must_not", mustNot),
+                steps("must", must),
+                steps("should", should),
+                samplePeriod,
+                sampleRecords);
+    }
+
+    /**
+     * Salts the sampling clauses with where they are in the selector, which doesn't depend on
+     * the order the maps iterate in, so that each samples on its own but the same way every run.
+     */
+    private static Step[] steps(String occur, Map<String, List<SelectorClause>> clauses) {
+        List<Step> steps = new ArrayList<>();
+        for (Map.Entry<String, List<SelectorClause>> e : clauses.entrySet()) {
+            Field field = Field.forKey(e.getKey());
+            List<SelectorClause> fieldClauses = e.getValue();
+            for (int i = 0; i < fieldClauses.size(); i++) {
+                SelectorClause clause = fieldClauses.get(i);
+                if (clause instanceof AbstractSamplingSelector) {
+                    ((AbstractSamplingSelector) clause).salt(occur + "/" + e.getKey() + "/" + i);
+                }
+                steps.add(new Step(field, clause));
+            }
+        }
+        return steps.toArray(new Step[0]);
+    }
+
+    boolean select(CCIndexRecord record) {
+        // a masked nextInt() is cheaper than nextInt(bound), and this runs for every record
+        if (!adaptive || (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return selectUnsampled(record);
+        }
+        boolean selected = selectSampled(record);
+        sampled.increment();
+        if (sampled.sum() >= sampleRecords) {
+            reorder();
+        }
+        return selected;
+    }
+
+    // kept apart from selectSampled so that the timing doesn't slow down the usual case
+    private boolean selectUnsampled(CCIndexRecord record) {
+        String[] values = null;
+        for (Step step : mustNot) {
+            values = values == null && step.memoize ? newValues() : values;
+            String val = getValue(step, record, values);
+            if (val == null) {
+                LOGGER.debug("Value is null for '{}' in the must not clause", step.field.key);
+                continue;
+            }
+            if (step.clause.select(val, record)) {
+                return false;
+            }
+        }
+
+        for (Step step : must) {
+            values = values == null && step.memoize ? newValues() : values;
+            String val = getValue(step, record, values);
+            if (val == null) {
+                LOGGER.warn(
+                        "Value is null for '{}' in the must clause. Record not selected.",
+                        step.field.key);
+                return false;
+            }
+            if (!step.clause.select(val, record)) {
+                return false;
+            }
+        }
+        return selectShould(record, values);
+    }
+
+    private boolean selectSampled(CCIndexRecord record) {
+        String[] values = null;
+        for (Step step : mustNot) {
+            long start = System.nanoTime();
+            values = values == null && step.memoize ? newValues() : values;
+            String val = getValue(step, record, values);
+            boolean matched = val != null && step.clause.select(val, record);
+            step.sample(System.nanoTime() - start, matched);
+            if (val == null) {
+                LOGGER.debug("Value is null for '{}' in the must not clause", step.field.key);
+                continue;
+            }
+            if (matched) {
+                return false;
+            }
+        }
+
+        for (Step step : must) {
+            long start = System.nanoTime();
+            values = values == null && step.memoize ? newValues() : values;
+            String val = getValue(step, record, values);
+            boolean matched = val != null && step.clause.select(val, record);
+            step.sample(System.nanoTime() - start, !matched);
+            if (val == null) {
+                LOGGER.warn(
+                        "Value is null for '{}' in the must clause. Record not selected.",
+                        step.field.key);
+                return false;
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return selectShould(record, values);
+    }
+
+    private boolean selectShould(CCIndexRecord record, String[] values) {
+        if (should.length == 0) {
+            return true;
+        }
+        for (Step step : should) {
+            values = values == null && step.memoize ? newValues() : values;
+            String val = getValue(step, record, values);
+            if (val == null) {
+                LOGGER.debug(
+                        "Value is null for '{}' in the should clause. Record not selected",
+                        step.field.key);
+                continue;
+            }
+            if (step.clause.select(val, record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts the must not and must steps that reject records for the least time first. Either way
+     * every one of them has to pass, so the order doesn't change what's selected.
+     */
+    private synchronized void reorder() {
+        if (sampled.sum() < sampleRecords) {
+            // another thread just did
+            return;
+        }
+        sampled.reset();
+        mustNot = reorder(mustNot);
+        must = reorder(must);
+    }
+
+    private static Step[] reorder(Step[] steps) {
+        if (steps.length < 2) {
+            return steps;
+        }
+        Step[] reordered = steps.clone();
+        for (Step step : reordered) {
+            step.updateRank();
+        }
+        // stable, so steps that haven't rejected anything keep their order
+        Arrays.sort(reordered, Comparator.comparingDouble(step -> step.rank));
+        return reordered;
+    }
+
+    /** @return the must steps in the order they're evaluated in */
+    Step[] getMust() {
+        return must;
+    }
+
+    /** @return the must not steps in the order they're evaluated in */
+    Step[] getMustNot() {
+        return mustNot;
+    }
+
+    // the values are only looked up once a step needs them; most records are rejected before that
+    private String[] newValues() {
+        String[] values = this.values.get();
+        Arrays.fill(values, UNSET);
+        return values;
+    }
+
+    private static String getValue(Step step, CCIndexRecord record, String[] values) {
+        if (!step.memoize) {
+            return step.field.get(record);
+        }
+        int i = step.field.ordinal();
+        String val = values[i];
+        if (val == UNSET) {
+            val = step.field.get(record);
+            values[i] = val;
+        }
+        return val;
+    }
+}
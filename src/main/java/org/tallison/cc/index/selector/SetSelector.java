@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Matches any of a list of exact strings, e.g. a few thousand hosts or digests, with one hash
+ * lookup instead of a {@link MatchSelector} per string. The strings may be listed inline
+ * ({@code any_of}), or in a UTF-8 file with one per line ({@code any_of_file}; blank lines and
+ * lines starting with {@code #} are skipped), or both.
+ */
+public class SetSelector extends AbstractSamplingSelector {
+
+    private static final boolean DEFAULT_CASE_SENSITIVE = true;
+    final boolean caseSensitive;
+    // as given, before case folding
+    final List<String> values;
+    private final Set<String> set;
+
+    @JsonCreator
+    public SetSelector(
+            @JsonProperty("any_of") List<String> values,
+            @JsonProperty("any_of_file") String file,
+            @JsonProperty("sample") Double sample,
+            @JsonProperty("seed") Long seed,
+            @JsonProperty("case_sensitive") Boolean caseSensitive) {
+        super(sample, seed);
+        this.caseSensitive = caseSensitive == null ? DEFAULT_CASE_SENSITIVE : caseSensitive;
+        this.values = readValues(values, file, "any_of");
+        this.set = new HashSet<>();
+        for (String value : this.values) {
+            set.add(this.caseSensitive ? value : value.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    @Override
+    boolean matches(String val) {
+        return set.contains(caseSensitive ? val : val.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param name the json property of the inline list; the file's is this with "_file"
+     * @throws IllegalArgumentException if there's neither a list nor a file
+     * @throws UncheckedIOException if the file can't be read
+     */
+    static List<String> readValues(List<String> inline, String file, String name) {
+        if (inline == null && file == null) {
+            throw new IllegalArgumentException("needs '" + name + "', '" + name + "_file' or both");
+        }
+        List<String> values = new ArrayList<>();
+        if (inline != null) {
+            values.addAll(inline);
+        }
+        if (file != null) {
+            try {
+                for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+                    line = line.strip();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        values.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("couldn't read " + file, e);
+            }
+        }
+        return values;
+    }
+}
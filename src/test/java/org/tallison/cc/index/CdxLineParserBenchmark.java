@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.tallison.cc.index.selector.LinePrefilter;
+import org.tallison.cc.index.selector.RecordSelector;
+
+/**
+ * Compares {@link CCIndexRecord#parseRecord(String)} with {@link CdxLineParser} on a buffer of
+ * index lines shaped like Common Crawl's. Each benchmark starts from the decompressed bytes, so
+ * {@code parseRecord} includes decoding the line into a String, as the line reader used to.
+ * {@code linePrefilter} is the check that runs on every line before any of them.
+ *
+ * <p>Run with {@code java -cp <test classpath> org.tallison.cc.index.CdxLineParserBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CdxLineParserBenchmark {
+
+    @Param({"1000"})
+    int lines;
+
+    private byte[] buffer;
+    private int[] lineStarts;
+    private int[] lineLengths;
+    private final CdxLineParser parser = new CdxLineParser();
+    private LinePrefilter prefilter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        prefilter =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"must\": {\"mime_detected\": "
+                                        + "[{\"match\": \"application/pdf\"}]}}",
+                                RecordSelector.class)
+                        .getLinePrefilter();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        lineStarts = new int[lines];
+        lineLengths = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            String line =
+                    "com,example,www" + (i % 97) + ")/path/to/page-" + i + ".html?q=" + i
+                            + " 20240722120756 {\"url\": \"https://www" + (i % 97)
+                            + ".example.com/path/to/page-" + i + ".html?q=" + i + "\", "
+                            + "\"mime\": \"text/html\", \"mime-detected\": \"text/html\", "
+                            + "\"status\": \"200\", "
+                            + "\"digest\": \"3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ\", "
+                            + "\"length\": \"" + (10000 + i) + "\", \"offset\": \"" + (i * 7919L)
+                            + "\", \"filename\": \"crawl-data/CC-MAIN-2024-30/segments/"
+                            + "1720763514387.30/warc/CC-MAIN-20240712094214-20240712124214-"
+                            + String.format(Locale.ROOT, "%05d", i % 100000) + ".warc.gz\", "
+                            + "\"charset\": \"UTF-8\", \"languages\": \"eng\"}";
+            byte[] b = line.getBytes(StandardCharsets.UTF_8);
+            lineStarts[i] = bytes.size();
+            lineLengths[i] = b.length;
+            bytes.write(b, 0, b.length);
+            bytes.write('\n');
+        }
+        buffer = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public void parseRecord(Blackhole blackhole) {
+        for (int i = 0; i < lines; i++) {
+            String line =
+                    new String(buffer, lineStarts[i], lineLengths[i], StandardCharsets.UTF_8);
+            blackhole.consume(CCIndexRecord.parseRecord(line));
+        }
+    }
+
+    @Benchmark
+    public void cdxLineParserToRecord(Blackhole blackhole) {
+        for (int i = 0; i < lines; i++) {
+            parser.parse(buffer, lineStarts[i], lineLengths[i]);
+            blackhole.consume(parser.toRecord());
+        }
+    }
+
+    // e.g. a selector that only looks at mime-detected
+    @Benchmark
+    public void cdxLineParserOneField(Blackhole blackhole) {
+        for (int i = 0; i < lines; i++) {
+            parser.parse(buffer, lineStarts[i], lineLengths[i]);
+            blackhole.consume(parser.get(CdxLineParser.Field.MIME_DETECTED));
+        }
+    }
+
+    // a selector on mime_detected checked on the raw lines, none of which it selects
+    @Benchmark
+    public void linePrefilter(Blackhole blackhole) {
+        for (int i = 0; i < lines; i++) {
+            blackhole.consume(prefilter.mayMatch(buffer, lineStarts[i], lineLengths[i]));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                        new OptionsBuilder()
+                                .include(CdxLineParserBenchmark.class.getSimpleName())
+                                .build())
+                .run();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import org.tallison.cc.index.CdxLineParser.Field;
+import org.tallison.cc.index.selector.RecordSelector;
+
+public class CdxLineParserTest {
+
+    private static final String LINE =
+            "com,example)/a.html 20240722120756 "
+                    + "{\"url\": \"https://example.com/a.html\", \"mime\": \"text/html\", "
+                    + "\"mime-detected\": \"text/html\", \"status\": \"200\", "
+                    + "\"digest\": \"ABC123\", \"length\": \"1234\", \"offset\": \"5678\", "
+                    + "\"filename\": \"crawl-data/segment/warc.gz\", \"charset\": \"UTF-8\", "
+                    + "\"languages\": \"eng\", \"recordid\": \"<urn:uuid:1>\"}";
+
+    @Test
+    public void testParse() {
+        CdxLineParser parser = new CdxLineParser();
+        // somewhere in the middle of a buffer
+        byte[] bytes = ("xx" + LINE + "\nyy").getBytes(StandardCharsets.UTF_8);
+        assertTrue(parser.parse(bytes, 2, LINE.length()));
+        assertEquals("com,example)/a.html", parser.getSurtKey());
+        assertEquals("20240722120756", parser.getTimestamp());
+        assertEquals("text/html", parser.get(Field.MIME_DETECTED));
+        assertEquals(200, parser.getLong(Field.STATUS));
+        assertEquals(-1, parser.getLong(Field.TRUNCATED));
+        assertNull(parser.get(Field.TRUNCATED));
+        assertEquals(LINE, parser.getLine());
+
+        assertSameAsParseRecord(LINE);
+    }
+
+    @Test
+    public void testEscapes() {
+        String line =
+                "com,example)/ 20240722120756 {\"url\": \"https://example.com/\\\"q\\\"\\/\", "
+                        + "\"mime\": \"text/h\\u00e9\\ud83d\\ude00\", \"filename\": \"café\", "
+                        + "\"status\": 301, \"redirect\": null, \"length\": \"1\", "
+                        + "\"offset\": \"2\"}";
+        CdxLineParser parser = parse(line);
+        assertEquals("https://example.com/\"q\"/", parser.get(Field.URL));
+        assertEquals("text/hé😀", parser.get(Field.MIME));
+        assertEquals("café", parser.get(Field.FILENAME));
+        assertFalse(parser.has(Field.REDIRECT));
+        assertSameAsParseRecord(line);
+    }
+
+    @Test
+    public void testFallsBack() {
+        CdxLineParser parser = new CdxLineParser();
+        // trailing garbage, which parseRecord repairs
+        String garbage = "com,example)/ 20230101120000 {\"url\":\"https://example.com/\"} junk";
+        assertFalse(parse(parser, garbage));
+        assertFalse(parse(parser, "com,example)/ 20230101120000 not-json-at-all"));
+        assertFalse(parse(parser, "singletoken"));
+        assertFalse(parse(parser, "com,example)/ 20230101120000 {\"url\": {\"a\": 1}}"));
+        assertFalse(parse(parser, "com,example)/ 20230101120000 {\"url\": \"unterminated}"));
+        // not a number
+        assertFalse(parse(parser, "com,example)/ 20230101120000 {\"status\": \"-\"}"));
+        assertFalse(parse(parser, "com,example)/ 20230101120000 {\"offset\": \"3000000000\"}"));
+    }
+
+    @Test
+    public void testReuse() {
+        CdxLineParser parser = parse(LINE);
+        assertEquals("eng", parser.get(Field.LANGUAGES));
+        assertTrue(
+                parse(parser, "org,example)/ 20240722120756 {\"url\": \"https://example.org/\"}"));
+        assertNull(parser.get(Field.LANGUAGES));
+        assertEquals("org,example)/", parser.getSurtKey());
+        assertEquals("https://example.org/", parser.get(Field.URL));
+    }
+
+    @Test
+    public void testLazyRecord() throws Exception {
+        CdxLineParser parser = parse(LINE);
+        LazyCCIndexRecord lazy = new LazyCCIndexRecord(parser);
+        CCIndexRecord expected = CCIndexRecord.parseRecord(LINE).get();
+        assertEquals(expected.toString(), lazy.toString());
+        assertEquals(expected.getHost(), lazy.getHost());
+        assertEquals(expected.getSurtKey(), lazy.getSurtKey());
+        assertEquals("20240722120756", lazy.getTimestamp());
+        assertEquals(expected.getOffsetHeader(), lazy.getOffsetHeader());
+        assertEquals(expected.toString(), lazy.materialize().toString());
+
+        RecordSelector selector =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"must\": {\"status\": [{\"match\": \"200\"}], "
+                                        + "\"host\": [{\"match\": \"example.com\"}]}}",
+                                RecordSelector.class);
+        assertTrue(selector.select(lazy));
+        assertTrue(parse(parser, LINE.replace("\"200\"", "\"404\"")));
+        assertFalse(selector.select(lazy));
+    }
+
+    private static void assertSameAsParseRecord(String line) {
+        CCIndexRecord expected = CCIndexRecord.parseRecord(line).get();
+        CCIndexRecord actual = parse(line).toRecord();
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getSurtKey(), actual.getSurtKey());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+
+    private static CdxLineParser parse(String line) {
+        CdxLineParser parser = new CdxLineParser();
+        assertTrue(parse(parser, line));
+        return parser;
+    }
+
+    private static boolean parse(CdxLineParser parser, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, 0, bytes.length);
+    }
+}
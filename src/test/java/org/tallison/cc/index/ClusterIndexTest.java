@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tika.exception.TikaConfigException;
+import org.apache.tika.pipes.fetcher.FetchKey;
+
+public class ClusterIndexTest {
+
+    private static final String CLUSTER_IDX =
+            "0,100,22,165)/ 20240722120756\tcdx-00000.gz\t0\t100\t1\n"
+                    + "0,101,170,229)/ 20240722120757\tcdx-00000.gz\t100\t200\t2\n"
+                    + "0,102,1,2)/ 20240722120758\tcdx-00000.gz\t300\t150\t3\n"
+                    + "com,example)/ 20240722120759\tcdx-00001.gz\t0\t120\t4\n";
+
+    @TempDir Path tmp;
+
+    private static ClusterIndex load(String clusterIdx, int blocksPerWorkUnit)
+            throws IOException {
+        return load(clusterIdx, blocksPerWorkUnit, null);
+    }
+
+    private static ClusterIndex load(
+            String clusterIdx, int blocksPerWorkUnit, List<String> surtPrefixes)
+            throws IOException {
+        return ClusterIndex.load(
+                new BufferedReader(new StringReader(clusterIdx)), blocksPerWorkUnit,
+                surtPrefixes);
+    }
+
+    @Test
+    public void testWorkUnits() throws Exception {
+        String shard0 = "cc-index/collections/CC-MAIN-2024-30/indexes/cdx-00000.gz";
+        ClusterIndex clusterIndex = load(CLUSTER_IDX, 2);
+        assertEquals(
+                List.of(new FetchKey("", shard0, 0, 299),
+                        new FetchKey("", shard0, 300, Long.MAX_VALUE)),
+                clusterIndex.getWorkUnits(shard0));
+
+        clusterIndex = load(CLUSTER_IDX, 1);
+        assertEquals(3, clusterIndex.getWorkUnits(shard0).size());
+        assertEquals(
+                List.of(new FetchKey("", "cdx-00001.gz", 0, Long.MAX_VALUE)),
+                clusterIndex.getWorkUnits("cdx-00001.gz"));
+        assertNull(clusterIndex.getWorkUnits("cdx-00002.gz"));
+
+        assertEquals(
+                "cc-index/collections/CC-MAIN-2024-30/indexes/cluster.idx",
+                ClusterIndex.getClusterIndexPath(shard0));
+    }
+
+    @Test
+    public void testSurtPrefixes() throws Exception {
+        // the first block holds 0,100,22,165)/ up to 0,101,170,229)/
+        ClusterIndex clusterIndex = load(CLUSTER_IDX, -1, List.of("0,100,5"));
+        assertEquals(
+                List.of(new FetchKey("", "cdx-00000.gz", 0, 99)),
+                clusterIndex.getWorkUnits("cdx-00000.gz"));
+        assertEquals(Collections.emptyList(), clusterIndex.getWorkUnits("cdx-00001.gz"));
+        assertEquals(1, clusterIndex.getSelectedBlockCount());
+        assertEquals(4, clusterIndex.getBlockCount());
+
+        // consecutive blocks are merged
+        clusterIndex = load(CLUSTER_IDX, -1, List.of("0,101,", "0,102,"));
+        assertEquals(
+                List.of(new FetchKey("", "cdx-00000.gz", 0, Long.MAX_VALUE)),
+                clusterIndex.getWorkUnits("cdx-00000.gz"));
+        clusterIndex = load(CLUSTER_IDX, 1, List.of("0,101,", "0,102,"));
+        assertEquals(
+                List.of(new FetchKey("", "cdx-00000.gz", 0, 99),
+                        new FetchKey("", "cdx-00000.gz", 100, 299),
+                        new FetchKey("", "cdx-00000.gz", 300, Long.MAX_VALUE)),
+                clusterIndex.getWorkUnits("cdx-00000.gz"));
+
+        // sorts after the last block's first key
+        clusterIndex = load(CLUSTER_IDX, -1, List.of("com,example)/a"));
+        assertEquals(Collections.emptyList(), clusterIndex.getWorkUnits("cdx-00000.gz"));
+        assertEquals(
+                List.of(new FetchKey("", "cdx-00001.gz", 0, Long.MAX_VALUE)),
+                clusterIndex.getWorkUnits("cdx-00001.gz"));
+
+        // sorts before everything
+        clusterIndex = load(CLUSTER_IDX, -1, List.of("0,0"));
+        assertEquals(0, clusterIndex.getSelectedBlockCount());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        String clusterIdx =
+                "a\tcdx-00000.gz\t100\t200\t1\n"
+                        + "b\tcdx-00000.gz\t0\t100\t2\n";
+        assertThrows(IOException.class, () -> load(clusterIdx, 1));
+    }
+
+    @Test
+    public void testIndexIterator() throws Exception {
+        Path indexes = tmp.resolve("indexes");
+        Files.createDirectories(indexes);
+        Files.write(indexes.resolve("cluster.idx"), CLUSTER_IDX.getBytes(StandardCharsets.UTF_8));
+        String json =
+                "{\"basePath\": \"" + tmp.toAbsolutePath().toString().replace("\\", "/")
+                        + "\", \"paths\": [\"indexes/cdx-00000.gz\", \"indexes/cdx-00001.gz\"], "
+                        + "\"blocksPerWorkUnit\": 2}";
+        IndexIterator indexIterator = new ObjectMapper().readValue(json, IndexIterator.class);
+        indexIterator.initialize(Collections.emptyMap());
+        assertEquals(2, indexIterator.getResolvedIndexFileCount());
+        assertEquals(3, indexIterator.getWorkUnitCount());
+
+        // whole files
+        indexIterator = new ObjectMapper().readValue(json, IndexIterator.class);
+        indexIterator.setBlocksPerWorkUnit(-1);
+        indexIterator.initialize(Collections.emptyMap());
+        assertEquals(2, indexIterator.getWorkUnitCount());
+
+        // a sample of blocks takes them one by one
+        indexIterator = new ObjectMapper().readValue(json, IndexIterator.class);
+        indexIterator.setBlocksPerWorkUnit(-1);
+        indexIterator.setSample(new IndexSample(10L, null, true, null));
+        indexIterator.initialize(Collections.emptyMap());
+        assertEquals(4, indexIterator.getWorkUnitCount());
+
+        // which would be taken from a run of SURT keys again
+        IndexIterator limited =
+                new ObjectMapper()
+                        .readValue(
+                                json.replace("}", ", \"maxIndexFiles\": 1}"),
+                                IndexIterator.class);
+        limited.setSample(new IndexSample(10L, null, true, null));
+        assertThrows(TikaConfigException.class, () -> limited.initialize(Collections.emptyMap()));
+    }
+}
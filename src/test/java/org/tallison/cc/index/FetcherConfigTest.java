@@ -66,6 +66,24 @@ public class FetcherConfigTest {
         assertEquals(FileSystemEmitter.class, fetcherConfig.newEmitter().getClass());
     }
 
+    @Test
+    public void testIndexAndFetchThreads() throws Exception {
+        // numIndexThreads and numFetchThreads fall back to numThreads
+        ExtractorConfig fetcherConfig =
+                new ObjectMapper().readValue("{\"numThreads\": 3}", ExtractorConfig.class);
+        assertEquals(3, fetcherConfig.getNumIndexThreads());
+        assertEquals(3, fetcherConfig.getNumFetchThreads());
+
+        fetcherConfig =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"numThreads\": 3, \"numIndexThreads\": 4, "
+                                        + "\"numFetchThreads\": 32}",
+                                ExtractorConfig.class);
+        assertEquals(4, fetcherConfig.getNumIndexThreads());
+        assertEquals(32, fetcherConfig.getNumFetchThreads());
+    }
+
     @Test
     public void testS3() throws Exception {
         Path p = Paths.get(getClass().getResource("/configs/basic-s3.json").toURI());
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tika.pipes.fetcher.FetchKey;
+
+public class IndexSampleTest {
+
+    private static List<List<FetchKey>> units(int n) {
+        List<List<FetchKey>> units = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            units.add(List.of(new FetchKey("", String.format("indexes/cdx-%05d.gz", i))));
+        }
+        return units;
+    }
+
+    @Test
+    public void testBatches() {
+        IndexSample sample = new IndexSample(1000L, null, null, 4);
+        IndexSample.Plan plan = sample.plan(units(300));
+        assertEquals(4, plan.nextBatch(0).size());
+        // nothing selected yet, so read as many again
+        assertEquals(4, plan.nextBatch(0).size());
+        // 100 from 8 units: 900 more at 12.5 a unit, with some headroom
+        assertEquals(90, plan.nextBatch(100).size());
+        assertEquals(98, plan.getHandedOut());
+        assertEquals(0, plan.nextBatch(1000).size());
+        assertEquals(1, plan.nextBatch(999).size());
+        // runs out
+        assertEquals(201, plan.nextBatch(100).size());
+        assertEquals(0, plan.nextBatch(100).size());
+    }
+
+    @Test
+    public void testSeed() {
+        List<List<FetchKey>> units = units(300);
+        List<List<FetchKey>> first = new IndexSample(1L, 7L, null, 20).plan(units).nextBatch(0);
+        assertEquals(first, new IndexSample(1L, 7L, null, 20).plan(units).nextBatch(0));
+        assertNotEquals(first, new IndexSample(1L, 8L, null, 20).plan(units).nextBatch(0));
+        // not just the first few
+        String middle = "indexes/cdx-00150.gz";
+        assertTrue(first.stream().anyMatch(u -> u.get(0).getFetchKey().compareTo(middle) > 0));
+    }
+
+    @Test
+    public void testStrata() {
+        IndexSample.Plan plan = new IndexSample(1000L, 3L, null, 4).plan(units(300));
+        // one from each quarter of the index, in every round
+        assertEquals(List.of(1, 1, 1, 1), perQuarter(plan.nextBatch(0)));
+        assertEquals(List.of(1, 1, 1, 1), perQuarter(plan.nextBatch(0)));
+        // 218 from 8 units: 36 more
+        assertEquals(List.of(9, 9, 9, 9), perQuarter(plan.nextBatch(218)));
+        // and all of them in the end
+        plan.nextBatch(1);
+        assertEquals(300, plan.getHandedOut());
+    }
+
+    private static List<Integer> perQuarter(List<List<FetchKey>> batch) {
+        List<Integer> counts = new ArrayList<>(List.of(0, 0, 0, 0));
+        for (List<FetchKey> unit : batch) {
+            String key = unit.get(0).getFetchKey();
+            int i = Integer.parseInt(key.substring(key.length() - 8, key.length() - 3));
+            counts.set(i / 75, counts.get(i / 75) + 1);
+        }
+        return counts;
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        IndexSample sample =
+                new ObjectMapper()
+                        .readValue("{\"records\": 5000, \"blocks\": true}", IndexSample.class);
+        assertEquals(5000, sample.records);
+        assertTrue(sample.blocks);
+        assertEquals(IndexSample.DEFAULT_PILOT_UNITS, sample.pilotUnits);
+        assertThrows(IllegalArgumentException.class, () -> new IndexSample(null, 1L, true, 1));
+    }
+}
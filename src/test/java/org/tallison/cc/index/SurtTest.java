@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class SurtTest {
+
+    @Test
+    public void testToSurtPrefix() {
+        assertEquals("com,example)/a/b.html",
+                Surt.toSurtPrefix("https://www.Example.com/a/B.html"));
+        assertEquals("com,example)/", Surt.toSurtPrefix("http://example.com"));
+        assertEquals("com,example)/", Surt.toSurtPrefix("example.com."));
+        assertEquals("com,example,docs:8080)/",
+                Surt.toSurtPrefix("http://user@docs.example.com:8080?q=1#frag"));
+        assertEquals("com,example)/", Surt.toSurtPrefix("https://example.com:443/"));
+        assertEquals("com,example:443)/", Surt.toSurtPrefix("http://example.com:443/"));
+        assertEquals("org,apache,tika", Surt.hostToSurt("tika.apache.org"));
+        assertEquals("com,example", Surt.hostToSurt("www2.example.com"));
+        assertEquals("com,wwwexample", Surt.hostToSurt("wwwexample.com"));
+        assertEquals("de,xn--mller-kva", Surt.hostToSurt("www.müller.de"));
+    }
+
+    @Test
+    public void testPrefixesOfCdxKeys() {
+        // the url each record was fetched from, and the key the crawler wrote for it
+        assertPrefix("com,example)/docs", "https://example.com/docs/",
+                "com,example)/docs");
+        assertPrefix("com,example)/docs/index.html",
+                "https://www2.example.com/docs/index.html", "com,example)/docs/index.html");
+        assertPrefix("com,example)/search", "https://www.example.com/search?b=2&a=1",
+                "com,example)/search?a=1&b=2");
+        assertPrefix("com,example)/page", "https://example.com/page;jsessionid=AB12?x=1",
+                "com,example)/page?x=1");
+        assertPrefix("com,example)/a", "https://example.com/a%2Fb%7e",
+                "com,example)/a%2fb~");
+        assertPrefix("com,example)/", "http://example.com/a/b/../c", "com,example)/a/c");
+        assertPrefix("com,example)/a", "http://example.com/a//b", "com,example)/a/b");
+    }
+
+    private static void assertPrefix(String expected, String url, String cdxKey) {
+        String prefix = Surt.toSurtPrefix(url);
+        assertEquals(expected, prefix);
+        assertTrue(cdxKey.startsWith(prefix), cdxKey + " doesn't start with " + prefix);
+    }
+
+    @Test
+    public void testIsCompleteHost() {
+        assertTrue(Surt.isCompleteHost("https://example.com/"));
+        assertTrue(Surt.isCompleteHost("example.com/docs"));
+        assertFalse(Surt.isCompleteHost("https://example.co"));
+    }
+}
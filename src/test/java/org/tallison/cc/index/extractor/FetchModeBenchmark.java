@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.CCIndexRecord;
+
+/**
+ * Compares the fetch modes against a local stand-in for data.commoncrawl.org that answers every
+ * range request with the same WARC record after a fixed latency. With a latency-bound server,
+ * the fixed pool tops out at numFetchThreads / latency requests per second, while the virtual
+ * thread mode is bounded only by maxFetchesInFlight.
+ *
+ * <p>Run with {@code java -cp <test classpath> org.tallison.cc.index.extractor.FetchModeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FetchModeBenchmark {
+
+    @Param({"POOL", "VIRTUAL"})
+    String fetchMode;
+
+    // platform threads for POOL
+    @Param({"16"})
+    int numFetchThreads;
+
+    @Param({"1000"})
+    int records;
+
+    // simulated time to first byte per range request
+    @Param({"50"})
+    int latencyMs;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Path docs;
+    private ExtractorConfig fetcherConfig;
+    private final List<CCIndexRecord> batch = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        byte[] payload = "benchmark payload".getBytes(StandardCharsets.UTF_8);
+        byte[] warcRecord = WarcTestUtils.gzippedResponseRecord("https://example.com/", payload);
+
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext(
+                "/",
+                exchange -> {
+                    try {
+                        Thread.sleep(latencyMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.sendResponseHeaders(200, warcRecord.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(warcRecord);
+                    }
+                });
+        server.start();
+
+        String warcUrl =
+                "http://localhost:" + server.getAddress().getPort() + "/crawl-data/test.warc.gz";
+        for (int i = 0; i < records; i++) {
+            batch.add(
+                    WarcTestUtils.indexRecord(
+                            "https://example.com/" + i, warcUrl, 1, warcRecord.length, payload));
+        }
+
+        docs = Files.createTempDirectory("cc-fetch-benchmark-");
+        fetcherConfig =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"fetchMode\": \""
+                                        + fetchMode
+                                        + "\", \"numFetchThreads\": "
+                                        + numFetchThreads
+                                        + ", \"maxFetchesInFlight\": "
+                                        + records
+                                        + ", \"docs\": {\"path\": \""
+                                        + docs.toAbsolutePath().toString().replace("\\", "/")
+                                        + "\"}}",
+                                ExtractorConfig.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        FileUtils.deleteDirectory(docs.toFile());
+    }
+
+    @Benchmark
+    public void fetchBatch() throws Exception {
+        ArrayBlockingQueue<CCIndexRecord> fetchQueue = new ArrayBlockingQueue<>(records + 1);
+        fetchQueue.addAll(batch);
+        fetchQueue.add(FetchWorker.COMPLETED_SEMAPHORE);
+        List<Callable<Long>> workers =
+                FetchWorker.newFetchWorkers(fetcherConfig, fetchQueue, new CCIndexReaderCounter());
+        ExecutorService executorService = Executors.newFixedThreadPool(workers.size());
+        try {
+            for (Future<Long> future : executorService.invokeAll(workers)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FetchModeBenchmark.class.getSimpleName()).build())
+                .run();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.CCIndexRecord;
+
+/** Extracts records from a small WARC file served by a local, range-aware HTTP server. */
+public class FileFromCCWarcExtractorTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @TempDir Path docs;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<byte[]> payloads = new ArrayList<>();
+    private final List<CCIndexRecord> records = new ArrayList<>();
+    private FileFromCCWarcExtractor extractor;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // three records back to back with a few bytes of "other" records between them
+        ByteArrayOutputStream warc = new ByteArrayOutputStream();
+        List<long[]> offsets = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            warc.write(new byte[17]);
+            byte[] payload = ("payload " + i).getBytes(StandardCharsets.UTF_8);
+            byte[] gz = WarcTestUtils.gzippedResponseRecord("https://example.com/" + i, payload);
+            offsets.add(new long[] {warc.size(), gz.length});
+            warc.write(gz);
+            payloads.add(payload);
+        }
+        byte[] warcBytes = warc.toByteArray();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(
+                "/",
+                exchange -> {
+                    requests.incrementAndGet();
+                    byte[] body = warcBytes;
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    if (range != null) {
+                        Matcher m = RANGE.matcher(range);
+                        if (m.find()) {
+                            int start = Integer.parseInt(m.group(1));
+                            int end =
+                                    Math.min(Integer.parseInt(m.group(2)), warcBytes.length - 1);
+                            body = Arrays.copyOfRange(warcBytes, start, end + 1);
+                        }
+                    }
+                    exchange.sendResponseHeaders(range == null ? 200 : 206, body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                });
+        server.start();
+
+        String warcUrl = "http://localhost:" + server.getAddress().getPort() + "/test.warc.gz";
+        for (int i = 0; i < offsets.size(); i++) {
+            records.add(
+                    WarcTestUtils.indexRecord(
+                            "https://example.com/" + i,
+                            warcUrl,
+                            offsets.get(i)[0],
+                            offsets.get(i)[1],
+                            payloads.get(i)));
+        }
+        ExtractorConfig fetcherConfig =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"docs\": {\"path\": \""
+                                        + docs.toAbsolutePath().toString().replace("\\", "/")
+                                        + "\"}}",
+                                ExtractorConfig.class);
+        extractor = new FileFromCCWarcExtractor(fetcherConfig, new CCIndexReaderCounter());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSingleRecords() throws Exception {
+        for (CCIndexRecord r : records) {
+            extractor.fetchToPath(r);
+        }
+        assertEquals(3, requests.get());
+        assertExtracted();
+    }
+
+    @Test
+    public void testCoalescedRange() throws Exception {
+        List<WarcRangeCoalescer.WarcRange> ranges =
+                new WarcRangeCoalescer(100, 1_000_000).coalesce(records);
+        assertEquals(1, ranges.size());
+        extractor.fetchToPath(ranges.get(0));
+        assertEquals(1, requests.get());
+        assertExtracted();
+    }
+
+    @Test
+    public void testRangeWithOverlappingRecords() throws Exception {
+        CCIndexRecord first = records.get(0);
+        CCIndexRecord overlapping =
+                WarcTestUtils.indexRecord(
+                        "https://example.com/overlapping",
+                        first.getFilename(),
+                        first.getOffset() + 10,
+                        first.getLength(),
+                        payloads.get(0));
+        WarcRangeCoalescer.WarcRange range = new WarcRangeCoalescer.WarcRange(first);
+        range.add(first);
+        range.add(overlapping);
+        range.add(records.get(1));
+        range.add(records.get(2));
+        // the duplicate and the overlapping record are skipped, the rest still extracted
+        extractor.fetchToPath(range);
+        assertEquals(1, requests.get());
+        assertExtracted();
+    }
+
+    private void assertExtracted() throws Exception {
+        for (byte[] payload : payloads) {
+            Path extracted = docs.resolve(DigestUtils.sha256Hex(payload));
+            assertArrayEquals(payload, Files.readAllBytes(extracted));
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.tallison.cc.index.AbstractRecordProcessor;
+import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.ClusterIndex;
+import org.tallison.cc.index.IndexIterator;
+
+import org.apache.tika.pipes.FetchEmitTuple;
+import org.apache.tika.pipes.emitter.EmitKey;
+import org.apache.tika.pipes.fetcher.FetchKey;
+import org.apache.tika.pipes.pipesiterator.CallablePipesIterator;
+import org.apache.tika.pipes.pipesiterator.PipesIterator;
+
+public class IndexWorkerTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)?");
+
+    @TempDir Path tmp;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Map<String, byte[]> indexFiles = new HashMap<>();
+    private final List<String> expected = new ArrayList<>();
+    // if > 0, the first response is cut off here
+    private int dropAt = -1;
+    private String recordSelector = null;
+    // null for the default
+    private Boolean streaming = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(
+                "/",
+                exchange -> {
+                    byte[] index = indexFiles.get(exchange.getRequestURI().getPath());
+                    String range = exchange.getRequestHeaders().getFirst("Range");
+                    int start = 0;
+                    int end = index.length;
+                    if (range != null) {
+                        Matcher m = RANGE.matcher(range);
+                        if (m.find()) {
+                            start = Integer.parseInt(m.group(1));
+                            if (m.group(2) != null) {
+                                end = Integer.parseInt(m.group(2)) + 1;
+                            }
+                        }
+                    }
+                    if (requests.incrementAndGet() == 1 && dropAt > 0) {
+                        // promise the whole range, then hang up partway through
+                        exchange.sendResponseHeaders(range == null ? 200 : 206, end - start);
+                        exchange.getResponseBody().write(index, start, dropAt - start);
+                        exchange.getResponseBody().flush();
+                        exchange.close();
+                        return;
+                    }
+                    exchange.sendResponseHeaders(range == null ? 200 : 206, end - start);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(index, start, end - start);
+                    }
+                });
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Adds an index file of gzip members of the given number of lines each, like the blocks of
+     * a cdx file.
+     *
+     * @return the offsets of the members
+     */
+    private List<Integer> addIndexFile(String path, int members, int linesPerMember)
+            throws IOException {
+        return addIndexFile(path, members, linesPerMember, member -> path);
+    }
+
+    /** @param keys the SURT key of the lines of each member */
+    private List<Integer> addIndexFile(
+            String path, int members, int linesPerMember, IntFunction<String> keys)
+            throws IOException {
+        Random random = new Random(path.hashCode());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        List<Integer> offsets = new ArrayList<>();
+        for (int member = 0; member < members; member++) {
+            offsets.add(bos.size());
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < linesPerMember; i++) {
+                // random, so the file doesn't compress to nothing
+                String line = keys.apply(member) + " " + member + "-" + i + " " + Long.toHexString(
+                        random.nextLong()) + Long.toHexString(random.nextLong());
+                lines.append(line).append('\n');
+                expected.add(line);
+            }
+            try (OutputStream os = new GZIPOutputStream(bos)) {
+                os.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        indexFiles.put(path, bos.toByteArray());
+        return offsets;
+    }
+
+    private String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private List<String> run(IndexPrefetcher prefetcher, CCIndexReaderCounter counter,
+            String... paths) throws Exception {
+        List<FetchKey> fetchKeys = new ArrayList<>();
+        for (String path : paths) {
+            fetchKeys.add(new FetchKey("", url(path)));
+        }
+        return run(prefetcher, counter, fetchKeys);
+    }
+
+    private List<String> run(IndexPrefetcher prefetcher, CCIndexReaderCounter counter,
+            List<FetchKey> fetchKeys) throws Exception {
+        String json = "{\"indexFetcher\": {\"throttleSeconds\": [0]";
+        if (streaming != null) {
+            json += ", \"streaming\": " + streaming;
+        }
+        json += "}";
+        if (recordSelector != null) {
+            json += ", \"recordSelector\": " + recordSelector;
+        }
+        ExtractorConfig config = new ObjectMapper().readValue(json + "}", ExtractorConfig.class);
+        ArrayBlockingQueue<FetchEmitTuple> queue = new ArrayBlockingQueue<>(fetchKeys.size() + 1);
+        for (FetchKey fetchKey : fetchKeys) {
+            queue.put(new FetchEmitTuple(fetchKey.getFetchKey(), fetchKey, new EmitKey()));
+        }
+        queue.put(PipesIterator.COMPLETED_SEMAPHORE);
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        AbstractRecordProcessor processor =
+                new AbstractRecordProcessor() {
+                    @Override
+                    public boolean process(String json) {
+                        lines.add(json);
+                        return true;
+                    }
+
+                    @Override
+                    public void close() throws IOException {}
+                };
+        new IndexWorker(config, queue, processor, counter, prefetcher).call();
+        return lines;
+    }
+
+    @Test
+    public void testResumesAfterDroppedConnection() throws Exception {
+        dropAt = addIndexFile("/cdx-00000.gz", 3, 100).get(1) + 20;
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        List<String> lines = run(null, counter, "/cdx-00000.gz");
+
+        assertEquals(2, requests.get());
+        assertEquals(expected, lines);
+        assertEquals(1, counter.getIndexFilesCompleted().get());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        // bigger than the prefetch budget, so at least part of each is range-requested
+        for (int i = 0; i < 3; i++) {
+            addIndexFile("/cdx-0000" + i + ".gz", 4, 20_000);
+        }
+        IndexPrefetcher prefetcher = new IndexPrefetcher(IndexPrefetcher.BLOCK_SIZE, tmp);
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        try {
+            List<String> lines =
+                    run(prefetcher, counter, "/cdx-00000.gz", "/cdx-00001.gz", "/cdx-00002.gz");
+            assertEquals(expected, lines);
+        } finally {
+            prefetcher.close();
+        }
+        assertEquals(3, counter.getIndexFilesCompleted().get());
+        // the budget is given back and the downloads are cleaned up
+        assertEquals(1, prefetcher.availableBlocks());
+        try (Stream<Path> files = Files.list(tmp)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testStopsPastLastSelectableKey() throws Exception {
+        String[] keys = {"com,a)/", "com,b)/", "com,c)/"};
+        addIndexFile("/cdx-00000.gz", 3, 100, member -> keys[member]);
+        recordSelector = "{\"must\": {\"host\": [{\"match\": \"b.com\"}]}}";
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        List<String> lines = run(null, counter, "/cdx-00000.gz");
+
+        // the worker hands over every line up to the first one past com,b), and no more
+        assertEquals(expected.subList(0, 200), lines);
+        assertEquals(1, counter.getIndexFilesCompleted().get());
+    }
+
+    @Test
+    public void testStopsPastCanonicalizedKey() throws Exception {
+        // the keys the crawler wrote for www2.example.com/docs/, without the www2. or the '/'
+        String[] keys = {
+            "com,example)/a", "com,example)/docs", "com,example)/docs?x=1", "com,example)/e"
+        };
+        addIndexFile("/cdx-00000.gz", 4, 100, member -> keys[member]);
+        recordSelector =
+                "{\"must\": {\"url\": [{\"prefix\": \"https://www2.example.com/docs/\"}]}}";
+        List<String> lines = run(null, new CCIndexReaderCounter(), "/cdx-00000.gz");
+
+        assertEquals(expected.subList(0, 300), lines);
+    }
+
+    @Test
+    public void testWorkUnits() throws Exception {
+        List<Integer> offsets = addIndexFile("/cdx-00000.gz", 5, 100);
+        StringBuilder clusterIdx = new StringBuilder();
+        for (int i = 0; i < offsets.size(); i++) {
+            clusterIdx.append("key ").append(i).append("\tcdx-00000.gz\t")
+                    .append(offsets.get(i)).append("\t0\t").append(i).append('\n');
+        }
+        ClusterIndex clusterIndex =
+                ClusterIndex.load(
+                        new BufferedReader(new StringReader(clusterIdx.toString())), 2, null);
+        List<FetchKey> workUnits = clusterIndex.getWorkUnits(url("/cdx-00000.gz"));
+        assertEquals(3, workUnits.size());
+
+        // the first request is cut off partway through its second block
+        dropAt = offsets.get(3) + 20;
+        Collections.reverse(workUnits);
+        workUnits.add(0, workUnits.remove(1));
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        List<String> lines = run(null, counter, workUnits);
+
+        // the second work unit, then the last, then the first
+        List<String> expectedOrder = new ArrayList<>();
+        expectedOrder.addAll(expected.subList(200, 400));
+        expectedOrder.addAll(expected.subList(400, 500));
+        expectedOrder.addAll(expected.subList(0, 200));
+        assertEquals(expectedOrder, lines);
+        assertEquals(3, counter.getIndexFilesCompleted().get());
+    }
+
+    @Test
+    public void testFirstWorkUnitWithoutStreaming() throws Exception {
+        List<Integer> offsets = addIndexFile("/cdx-00000.gz", 5, 100);
+        StringBuilder clusterIdx = new StringBuilder();
+        for (int i = 0; i < offsets.size(); i++) {
+            clusterIdx.append("key ").append(i).append("\tcdx-00000.gz\t")
+                    .append(offsets.get(i)).append("\t0\t").append(i).append('\n');
+        }
+        ClusterIndex clusterIndex =
+                ClusterIndex.load(
+                        new BufferedReader(new StringReader(clusterIdx.toString())), 2, null);
+        List<FetchKey> workUnits = clusterIndex.getWorkUnits(url("/cdx-00000.gz"));
+        assertEquals(0, workUnits.get(0).getRangeStart());
+
+        // the spooling fetcher must range-request a unit that starts at 0 too
+        streaming = false;
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        List<String> lines = run(null, counter, workUnits.subList(0, 1));
+
+        assertEquals(expected.subList(0, 200), lines);
+        assertEquals(1, counter.getIndexFilesCompleted().get());
+    }
+
+    @Test
+    public void testSampleStopsWhenQuotaIsMet() throws Exception {
+        Path indexes = tmp.resolve("indexes");
+        Files.createDirectories(indexes);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            StringBuilder lines = new StringBuilder();
+            for (int j = 0; j < 100; j++) {
+                lines.append(
+                                WarcTestUtils.cdxLine(
+                                        "https://example.com/" + i + "/" + j,
+                                        "a.warc.gz",
+                                        j * 100L,
+                                        10,
+                                        new byte[0]))
+                        .append('\n');
+            }
+            Path indexFile = indexes.resolve("cdx-0000" + i + ".gz");
+            try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(indexFile))) {
+                os.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            paths.add("\"indexes/cdx-0000" + i + ".gz\"");
+        }
+        String basePath = tmp.toAbsolutePath().toString().replace("\\", "/");
+        // met by the first record, long before the sample's target
+        ExtractorConfig config =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"indexFetcher\": {\"basePath\": \"" + basePath + "\"}, "
+                                        + "\"dryRun\": true, \"recordSelector\": {\"quota\": "
+                                        + "{\"field\": \"mime_detected\", \"max\": 1, "
+                                        + "\"keys\": [\"application/octet-stream\"]}}}",
+                                ExtractorConfig.class);
+        IndexIterator indexIterator =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"basePath\": \"" + basePath + "\", \"paths\": " + paths
+                                        + ", \"sample\": {\"records\": 1000, "
+                                        + "\"pilotUnits\": 1}}",
+                                IndexIterator.class);
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        indexIterator.setCounter(counter);
+        indexIterator.initialize(Collections.emptyMap());
+
+        ArrayBlockingQueue<FetchEmitTuple> queue = new ArrayBlockingQueue<>(10);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(new CallablePipesIterator(indexIterator, queue)));
+            for (int i = 0; i < 2; i++) {
+                futures.add(
+                        executor.submit(
+                                new IndexWorker(
+                                        config,
+                                        queue,
+                                        new CCFileExtractorRecordProcessor(
+                                                config, counter, new ArrayBlockingQueue<>(10)),
+                                        counter)));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, counter.getRecordsSelected().get());
+        assertTrue(counter.isStopped());
+    }
+}
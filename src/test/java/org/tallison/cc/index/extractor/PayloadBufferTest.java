@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class PayloadBufferTest {
+
+    @TempDir Path tmp;
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] read(PayloadBuffer buffer) throws Exception {
+        try (InputStream is = buffer.openInputStream()) {
+            return is.readAllBytes();
+        }
+    }
+
+    private long countFiles() throws Exception {
+        try (Stream<Path> files = Files.list(tmp)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testSmallPayloadStaysInMemory() throws Exception {
+        PayloadBufferPool pool = new PayloadBufferPool(200_000, 1_000_000, tmp);
+        byte[] payload = bytes(150_000);
+        try (PayloadBuffer buffer = pool.newBuffer()) {
+            assertEquals(payload.length, buffer.copyFrom(new ByteArrayInputStream(payload)));
+            assertTrue(buffer.isInMemory());
+            assertEquals(0, countFiles());
+            assertArrayEquals(payload, read(buffer));
+        }
+    }
+
+    @Test
+    public void testLargePayloadSpills() throws Exception {
+        PayloadBufferPool pool = new PayloadBufferPool(100_000, 1_000_000, tmp);
+        byte[] payload = bytes(300_000);
+        try (PayloadBuffer buffer = pool.newBuffer()) {
+            buffer.copyFrom(new ByteArrayInputStream(payload));
+            assertFalse(buffer.isInMemory());
+            assertEquals(payload.length, buffer.size());
+            assertArrayEquals(payload, read(buffer));
+            assertArrayEquals(payload, Files.readAllBytes(buffer.toFile(tmp)));
+        }
+        assertEquals(0, countFiles());
+    }
+
+    @Test
+    public void testExhaustedPoolSpills() throws Exception {
+        // room for two 64k chunks in total
+        PayloadBufferPool pool =
+                new PayloadBufferPool(1_000_000, 2 * PayloadBufferPool.MAX_CHUNK_SIZE, tmp);
+        byte[] payload = bytes(100_000);
+        try (PayloadBuffer first = pool.newBuffer();
+                PayloadBuffer second = pool.newBuffer()) {
+            first.copyFrom(new ByteArrayInputStream(payload));
+            assertTrue(first.isInMemory());
+            second.copyFrom(new ByteArrayInputStream(payload));
+            assertFalse(second.isInMemory());
+            assertArrayEquals(payload, read(second));
+        }
+        // the chunks are back in the pool
+        try (PayloadBuffer third = pool.newBuffer()) {
+            third.copyFrom(new ByteArrayInputStream(payload));
+            assertTrue(third.isInMemory());
+        }
+    }
+}
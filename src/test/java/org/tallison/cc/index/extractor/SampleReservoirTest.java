@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.CCIndexRecord;
+import org.tallison.cc.index.selector.AbstractSamplingSelector;
+
+public class SampleReservoirTest {
+
+    private static final byte[] PAYLOAD = new byte[0];
+
+    private static String line(String host, int i) {
+        return WarcTestUtils.cdxLine(
+                "https://" + host + "/" + i, "w" + (i % 7) + ".warc.gz", i * 100L, 10, PAYLOAD);
+    }
+
+    private static void offer(SampleReservoir reservoir, String line) {
+        reservoir.offer(CCIndexRecord.parseRecord(line).orElseThrow(), () -> line);
+    }
+
+    private static Set<String> urls(List<CCIndexRecord> records) {
+        Set<String> urls = new HashSet<>();
+        for (CCIndexRecord r : records) {
+            urls.add(r.getUrl());
+        }
+        return urls;
+    }
+
+    @Test
+    public void testExactSizePerKey() throws Exception {
+        SampleReservoir reservoir = new SampleReservoir("host", 10, 3);
+        List<CCIndexRecord> orgRecords = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            offer(reservoir, line("example.com", i));
+            if (i < 500) {
+                offer(reservoir, line("example.org", i));
+                orgRecords.add(CCIndexRecord.parseRecord(line("example.org", i)).orElseThrow());
+            }
+        }
+        offer(reservoir, line("example.net", 0));
+        assertEquals(21, reservoir.size());
+
+        List<CCIndexRecord> sample = reservoir.drain();
+        assertEquals(21, sample.size());
+        assertEquals(0, reservoir.size());
+        // the lowest hashes
+        orgRecords.sort(
+                Comparator.comparing(
+                        r -> AbstractSamplingSelector.hash(SampleReservoir.captureKey(r), 3),
+                        Long::compareUnsigned));
+        Set<String> expected = new HashSet<>(urls(orgRecords.subList(0, 10)));
+        Set<String> org = new HashSet<>();
+        for (String url : urls(sample)) {
+            if (url.contains("example.org")) {
+                org.add(url);
+            }
+        }
+        assertEquals(expected, org);
+        // in WARC order
+        for (int i = 1; i < sample.size(); i++) {
+            CCIndexRecord a = sample.get(i - 1);
+            CCIndexRecord b = sample.get(i);
+            int c = a.getFilename().compareTo(b.getFilename());
+            assertFalse(c > 0 || (c == 0 && a.getOffset() > b.getOffset()));
+        }
+    }
+
+    @Test
+    public void testMergeMatchesOneReservoir() throws Exception {
+        SampleReservoir one = new SampleReservoir("host", 25, 0);
+        SampleReservoir[] perThread = {
+            new SampleReservoir("host", 25, 0),
+            new SampleReservoir("host", 25, 0),
+            new SampleReservoir("host", 25, 0)
+        };
+        for (int i = 0; i < 3000; i++) {
+            String line = line(i % 2 == 0 ? "example.com" : "example.org", i);
+            offer(one, line);
+            offer(perThread[(i * 7) % 3], line);
+        }
+        perThread[0].merge(perThread[1]);
+        perThread[0].merge(perThread[2]);
+        assertEquals(50, perThread[0].size());
+        assertEquals(urls(one.drain()), urls(perThread[0].drain()));
+    }
+
+    @Test
+    public void testCapturesOfOneUrl() throws Exception {
+        // each capture has its own priority, so which are kept doesn't depend on their order
+        SampleReservoir forward = new SampleReservoir("host", 10, 5);
+        SampleReservoir backward = new SampleReservoir("host", 10, 5);
+        for (int i = 0; i < 200; i++) {
+            offer(forward, capture(i));
+            offer(backward, capture(199 - i));
+        }
+        Set<Integer> offsets = new HashSet<>();
+        for (CCIndexRecord r : forward.drain()) {
+            offsets.add(r.getOffset());
+        }
+        Set<Integer> backwardOffsets = new HashSet<>();
+        for (CCIndexRecord r : backward.drain()) {
+            backwardOffsets.add(r.getOffset());
+        }
+        assertEquals(10, offsets.size());
+        assertEquals(offsets, backwardOffsets);
+    }
+
+    @Test
+    public void testCountedAsExtractedWhenQueued() throws Exception {
+        ExtractorConfig config =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"reservoir\": {\"field\": \"host\", \"size\": 5}}",
+                                ExtractorConfig.class);
+        // lower than the records selected, but not the sample
+        config.setMaxFilesExtracted(50);
+        assertEquals(5, runSample(config, new CCIndexReaderCounter()));
+
+        config.setMaxFilesExtracted(3);
+        CCIndexReaderCounter counter = new CCIndexReaderCounter();
+        assertEquals(2, runSample(config, counter));
+        assertEquals(3, counter.getFilesExtracted().get());
+
+        config.setMaxFilesExtracted(-1);
+        config.setDryRun(true);
+        counter = new CCIndexReaderCounter();
+        assertEquals(0, runSample(config, counter));
+        assertEquals(5, counter.getFilesExtracted().get());
+        assertEquals(100, counter.getRecordsSelected().get());
+    }
+
+    /** @return the number of records queued to fetch */
+    private static int runSample(ExtractorConfig config, CCIndexReaderCounter counter)
+            throws Exception {
+        LinkedBlockingQueue<CCIndexRecord> queue = new LinkedBlockingQueue<>();
+        SampleReservoir reservoir = SampleReservoir.newReservoir(config);
+        CCFileExtractorRecordProcessor processor =
+                new CCFileExtractorRecordProcessor(config, counter, queue, null, reservoir);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(processor.process(line("example.com", i)));
+        }
+        assertEquals(0, counter.getFilesExtracted().get());
+        assertEquals(0, queue.size());
+        processor.queueSample(reservoir);
+        return queue.size();
+    }
+
+    private static String capture(int i) {
+        return WarcTestUtils.cdxLine(
+                "https://example.com/", "w" + (i % 7) + ".warc.gz", i * 100L, 10, PAYLOAD);
+    }
+
+    @Test
+    public void testBadField() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new ExtractorConfig.ReservoirConfig("nope", 10, null));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new ExtractorConfig.ReservoirConfig("tld", 0, null));
+    }
+}
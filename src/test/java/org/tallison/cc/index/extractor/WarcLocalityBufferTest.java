@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+public class WarcLocalityBufferTest {
+
+    private static final byte[] PAYLOAD = new byte[0];
+
+    @TempDir
+    Path tmp;
+
+    private static void add(WarcLocalityBuffer buffer, String filename, long offset)
+            throws Exception {
+        String line =
+                WarcTestUtils.cdxLine(
+                        "https://example.com/" + offset, filename, offset, 10, PAYLOAD);
+        buffer.add(CCIndexRecord.parseRecord(line).orElseThrow(), line);
+    }
+
+    @Test
+    public void testDrainsInWarcOrder() throws Exception {
+        // two records in memory at a time, so most of these are spilled and merged back
+        try (WarcLocalityBuffer buffer = new WarcLocalityBuffer(2, tmp)) {
+            add(buffer, "b.warc.gz", 500);
+            add(buffer, "a.warc.gz", 900);
+            add(buffer, "b.warc.gz", 100);
+            add(buffer, "a.warc.gz", 30);
+            add(buffer, "c.warc.gz", 0);
+            add(buffer, "a.warc.gz", 200);
+            add(buffer, "b.warc.gz", 300);
+            assertEquals(7, buffer.size());
+            try (Stream<Path> runs = Files.list(tmp)) {
+                assertEquals(3, runs.count());
+            }
+
+            LinkedBlockingQueue<CCIndexRecord> queue = new LinkedBlockingQueue<>();
+            assertEquals(7, buffer.drainTo(queue));
+
+            List<String> order = new ArrayList<>();
+            for (CCIndexRecord r : queue) {
+                order.add(r.getFilename() + ":" + r.getOffset());
+            }
+            assertEquals(
+                    List.of(
+                            "a.warc.gz:30",
+                            "a.warc.gz:200",
+                            "a.warc.gz:900",
+                            "b.warc.gz:100",
+                            "b.warc.gz:300",
+                            "b.warc.gz:500",
+                            "c.warc.gz:0"),
+                    order);
+            assertEquals(0, buffer.size());
+            try (Stream<Path> runs = Files.list(tmp)) {
+                assertEquals(0, runs.count());
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.netpreserve.jwarc.WarcReader;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.tallison.cc.index.CCIndexReaderCounter;
+import org.tallison.cc.index.CCIndexRecord;
+
+public class WarcPayloadWriterTest {
+
+    @TempDir Path docs;
+
+    private WarcPayloadWriter newWriter(String targetPathPattern, long maxInMemoryBytes)
+            throws Exception {
+        ExtractorConfig config =
+                new ObjectMapper()
+                        .readValue(
+                                "{\"docs\": {\"path\": \""
+                                        + docs.toAbsolutePath().toString().replace("\\", "/")
+                                        + "\"}, \"targetPathPattern\": \""
+                                        + targetPathPattern
+                                        + "\", \"payloadBuffer\": {\"maxInMemoryBytes\": "
+                                        + maxInMemoryBytes
+                                        + "}}",
+                                ExtractorConfig.class);
+        return new WarcPayloadWriter(
+                config.newEmitter(),
+                config.getLocalDocsPath(),
+                PayloadBufferPool.newPool(config),
+                config.getTargetPathRewriter(),
+                false,
+                new CCIndexReaderCounter());
+    }
+
+    private static void write(WarcPayloadWriter writer, String url, byte[] payload)
+            throws Exception {
+        byte[] gz = WarcTestUtils.gzippedResponseRecord(url, payload);
+        CCIndexRecord record = WarcTestUtils.indexRecord(url, "a.warc.gz", 0, gz.length, payload);
+        try (WarcReader reader =
+                new WarcReader(new GZIPInputStream(new ByteArrayInputStream(gz)))) {
+            writer.writePayload(url, record, reader.next().orElseThrow());
+        }
+    }
+
+    @Test
+    public void testMovesIntoPlace() throws Exception {
+        assertMovesIntoPlace(newWriter("xx/xx/xxx", 1024 * 1024));
+    }
+
+    @Test
+    public void testMovesSpilledPayloadIntoPlace() throws Exception {
+        assertMovesIntoPlace(newWriter("xx/xx/xxx", 4));
+    }
+
+    private void assertMovesIntoPlace(WarcPayloadWriter writer) throws Exception {
+        byte[] payload = "some payload".getBytes(StandardCharsets.UTF_8);
+        write(writer, "https://example.com/1", payload);
+        // same payload, different url
+        write(writer, "https://example.com/2", payload);
+
+        String sha256 = DigestUtils.sha256Hex(payload);
+        Path extracted =
+                docs.resolve(sha256.substring(0, 2))
+                        .resolve(sha256.substring(2, 4))
+                        .resolve(sha256);
+        assertArrayEquals(payload, Files.readAllBytes(extracted));
+
+        // no temp files left behind
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(docs)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        assertEquals(List.of(extracted), files);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+public class WarcRangeCoalescerTest {
+
+    private static final byte[] PAYLOAD = new byte[0];
+
+    private static CCIndexRecord record(String filename, long offset, long length) {
+        return WarcTestUtils.indexRecord(
+                "https://example.com/" + offset, filename, offset, length, PAYLOAD);
+    }
+
+    @Test
+    public void testMergesWithinGap() {
+        WarcRangeCoalescer coalescer = new WarcRangeCoalescer(100, 1_000_000);
+        // out of order on purpose
+        List<WarcRangeCoalescer.WarcRange> ranges =
+                coalescer.coalesce(
+                        List.of(record("a.warc.gz", 1150, 50), record("a.warc.gz", 1000, 50)));
+        assertEquals(1, ranges.size());
+        assertEquals(1000, ranges.get(0).getStart());
+        assertEquals(1199, ranges.get(0).getEnd());
+        assertEquals(1000, ranges.get(0).getRecords().get(0).getOffset());
+        assertEquals(1150, ranges.get(0).getRecords().get(1).getOffset());
+    }
+
+    @Test
+    public void testSplitsBeyondGap() {
+        WarcRangeCoalescer coalescer = new WarcRangeCoalescer(100, 1_000_000);
+        List<WarcRangeCoalescer.WarcRange> ranges =
+                coalescer.coalesce(
+                        List.of(record("a.warc.gz", 1000, 50), record("a.warc.gz", 1151, 50)));
+        assertEquals(2, ranges.size());
+    }
+
+    @Test
+    public void testDifferentFilesNeverMerge() {
+        WarcRangeCoalescer coalescer = new WarcRangeCoalescer(100, 1_000_000);
+        List<WarcRangeCoalescer.WarcRange> ranges =
+                coalescer.coalesce(
+                        List.of(
+                                record("a.warc.gz", 1000, 50),
+                                record("b.warc.gz", 1050, 50),
+                                record("a.warc.gz", 1050, 50)));
+        assertEquals(2, ranges.size());
+        assertEquals("a.warc.gz", ranges.get(0).getFilename());
+        assertEquals(2, ranges.get(0).getRecords().size());
+        assertEquals("b.warc.gz", ranges.get(1).getFilename());
+    }
+
+    @Test
+    public void testMaxRangeBytes() {
+        WarcRangeCoalescer coalescer = new WarcRangeCoalescer(100, 120);
+        List<WarcRangeCoalescer.WarcRange> ranges =
+                coalescer.coalesce(
+                        List.of(
+                                record("a.warc.gz", 0, 50),
+                                record("a.warc.gz", 50, 50),
+                                record("a.warc.gz", 100, 50),
+                                record("a.warc.gz", 150, 500)));
+        assertEquals(3, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(99, ranges.get(0).getEnd());
+        assertEquals(100, ranges.get(1).getStart());
+        // longer than maxRangeBytes, but still gets its own range
+        assertEquals(150, ranges.get(2).getStart());
+        assertEquals(649, ranges.get(2).getEnd());
+    }
+
+    @Test
+    public void testOverlappingAndDuplicateRecordsNeverMerge() {
+        WarcRangeCoalescer coalescer = new WarcRangeCoalescer(100, 1_000_000);
+        List<WarcRangeCoalescer.WarcRange> ranges =
+                coalescer.coalesce(
+                        List.of(
+                                record("a.warc.gz", 1000, 50),
+                                record("a.warc.gz", 1000, 50),
+                                record("a.warc.gz", 1020, 50),
+                                record("a.warc.gz", 1100, 50)));
+        assertEquals(3, ranges.size());
+        assertEquals(1000, ranges.get(0).getStart());
+        assertEquals(1049, ranges.get(0).getEnd());
+        assertEquals(1000, ranges.get(1).getStart());
+        // the overlapping record starts a range the next one can join
+        assertEquals(1020, ranges.get(2).getStart());
+        assertEquals(1149, ranges.get(2).getEnd());
+        assertEquals(2, ranges.get(2).getRecords().size());
+    }
+}
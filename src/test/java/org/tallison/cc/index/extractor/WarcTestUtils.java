@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.extractor;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+/** Builds small gzipped WARC response records the way Common Crawl stores them. */
+class WarcTestUtils {
+
+    /** @return a single gzip member holding one WARC response record for the payload */
+    static byte[] gzippedResponseRecord(String url, byte[] payload) throws IOException {
+        ByteArrayOutputStream http = new ByteArrayOutputStream();
+        http.write(
+                ("HTTP/1.1 200 OK\r\n"
+                                + "Content-Type: application/octet-stream\r\n"
+                                + "Content-Length: "
+                                + payload.length
+                                + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+        http.write(payload);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = new GZIPOutputStream(bos)) {
+            os.write(
+                    ("WARC/1.0\r\n"
+                                    + "WARC-Type: response\r\n"
+                                    + "WARC-Target-URI: "
+                                    + url
+                                    + "\r\n"
+                                    + "WARC-Date: 2024-01-01T00:00:00Z\r\n"
+                                    + "WARC-Record-ID: <urn:uuid:"
+                                    + UUID.nameUUIDFromBytes(url.getBytes(StandardCharsets.UTF_8))
+                                    + ">\r\n"
+                                    + "Content-Type: application/http; msgtype=response\r\n"
+                                    + "Content-Length: "
+                                    + http.size()
+                                    + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+            http.writeTo(os);
+            os.write("\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        return bos.toByteArray();
+    }
+
+    /** @return an index record pointing at the bytes at offset/length in the WARC file */
+    static CCIndexRecord indexRecord(
+            String url, String filename, long offset, long length, byte[] payload) {
+        return CCIndexRecord.parseRecord(cdxLine(url, filename, offset, length, payload))
+                .orElseThrow();
+    }
+
+    /** @return the index line for {@link #indexRecord} */
+    static String cdxLine(String url, String filename, long offset, long length, byte[] payload) {
+        return "com,example)/ 20240101000000 {\"url\": \""
+                + url
+                + "\", \"mime-detected\": \"application/octet-stream\", \"status\": \"200\", "
+                + "\"digest\": \""
+                + new Base32().encodeAsString(DigestUtils.sha1(payload))
+                + "\", \"length\": \""
+                + length
+                + "\", \"offset\": \""
+                + offset
+                + "\", \"filename\": \""
+                + filename
+                + "\"}";
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+
+public class BackoffHttpFetcherTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final CountDownLatch firstLineRead = new CountDownLatch(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // sends the second line only once the client has read the first one, so this
+        // only works if the client doesn't wait for the whole body
+        server.createContext(
+                "/slow",
+                exchange -> {
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write("first\n".getBytes(StandardCharsets.UTF_8));
+                        os.flush();
+                        try {
+                            firstLineRead.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        os.write("second\n".getBytes(StandardCharsets.UTF_8));
+                    }
+                });
+        server.createContext(
+                "/throttled",
+                exchange -> {
+                    byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+                    int status = requests.incrementAndGet() == 1 ? 503 : 200;
+                    exchange.sendResponseHeaders(status, body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                });
+        // sends the first line, then nothing until the test is done
+        server.createContext(
+                "/stalled",
+                exchange -> {
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write("first\n".getBytes(StandardCharsets.UTF_8));
+                        os.flush();
+                        done.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        // ignores the Range header
+        server.createContext(
+                "/whole",
+                exchange -> {
+                    byte[] body = "the whole file".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        done.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        BackoffHttpFetcher fetcher = new BackoffHttpFetcher(new long[] {0}, true);
+        long start = System.currentTimeMillis();
+        try (InputStream is = fetcher.fetch(baseUrl + "/slow", new Metadata(), new ParseContext());
+                BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            assertEquals("first", reader.readLine());
+            firstLineRead.countDown();
+            assertEquals("second", reader.readLine());
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testStreamingBacksOff() throws Exception {
+        BackoffHttpFetcher fetcher = new BackoffHttpFetcher(new long[] {0, 0}, true);
+        try (InputStream is =
+                fetcher.fetch(baseUrl + "/throttled", new Metadata(), new ParseContext())) {
+            assertEquals("ok", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testStalledBodyTimesOut() throws Exception {
+        BackoffHttpFetcher fetcher =
+                new BackoffHttpFetcher(new long[] {0}, true, Duration.ofMillis(500));
+        long start = System.currentTimeMillis();
+        try (InputStream is =
+                        fetcher.fetch(baseUrl + "/stalled", new Metadata(), new ParseContext());
+                BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            assertEquals("first", reader.readLine());
+            assertThrows(IOException.class, reader::readLine);
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testRangeRequestMustGetPartialContent() throws Exception {
+        BackoffHttpFetcher fetcher = new BackoffHttpFetcher(new long[] {0}, true);
+        assertThrows(
+                IOException.class,
+                () -> fetcher.fetch(baseUrl + "/whole", 4, 8, new Metadata()).close());
+    }
+}
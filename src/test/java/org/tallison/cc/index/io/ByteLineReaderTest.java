@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class ByteLineReaderTest {
+
+    @Test
+    public void testLines() throws Exception {
+        String longLine = "x".repeat(100);
+        // a tiny buffer so that lines straddle reads and the buffer has to grow
+        ByteLineReader reader =
+                new ByteLineReader(
+                        stream("a\r\n\nbc\n" + longLine + "\nlast without newline"), 8);
+        assertEquals(List.of("a", "", "bc", longLine, "last without newline"), readAll(reader));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        for (String member : List.of("a\nb\n", "c\n")) {
+            try (GZIPOutputStream os = new GZIPOutputStream(gz)) {
+                os.write(member.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try (GzipMemberReader members =
+                new GzipMemberReader(new ByteArrayInputStream(gz.toByteArray()), 0)) {
+            ByteLineReader reader = new ByteLineReader(members.memberStream());
+            List<List<String>> lines = new ArrayList<>();
+            while (members.nextMember()) {
+                reader.reset();
+                lines.add(readAll(reader));
+            }
+            assertEquals(List.of(List.of("a", "b"), List.of("c")), lines);
+        }
+    }
+
+    private static List<String> readAll(ByteLineReader reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        while (reader.readLine()) {
+            lines.add(
+                    new String(
+                            reader.getBuffer(),
+                            reader.getLineStart(),
+                            reader.getLineLength(),
+                            StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
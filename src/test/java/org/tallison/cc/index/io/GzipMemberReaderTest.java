@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+public class GzipMemberReaderTest {
+
+    private static byte[] gzip(String s) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = new GZIPOutputStream(bos)) {
+            os.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return bos.toByteArray();
+    }
+
+    private static String read(GzipMemberReader reader) throws IOException {
+        return new String(reader.memberStream().readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMemberOffsets() throws Exception {
+        byte[] first = gzip("a\nb\n");
+        byte[] second = gzip("c\n");
+        byte[] third = gzip("d\ne\n");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(first);
+        bos.write(second);
+        bos.write(third);
+
+        List<Long> offsets = new ArrayList<>();
+        List<String> members = new ArrayList<>();
+        try (GzipMemberReader reader =
+                new GzipMemberReader(new ByteArrayInputStream(bos.toByteArray()), 0)) {
+            while (reader.nextMember()) {
+                offsets.add(reader.getMemberOffset());
+                members.add(read(reader));
+            }
+        }
+        assertEquals(List.of(0L, (long) first.length, (long) first.length + second.length),
+                offsets);
+        assertEquals(List.of("a\nb\n", "c\n", "d\ne\n"), members);
+
+        // start mid-file, as a range request would
+        byte[] rest = Arrays.copyOfRange(bos.toByteArray(), first.length, bos.size());
+        try (GzipMemberReader reader =
+                new GzipMemberReader(new ByteArrayInputStream(rest), first.length)) {
+            assertTrue(reader.nextMember());
+            assertEquals(first.length, reader.getMemberOffset());
+            // skip the rest of this member without reading it
+            assertTrue(reader.nextMember());
+            assertEquals(first.length + second.length, reader.getMemberOffset());
+            assertEquals("d\ne\n", read(reader));
+            assertFalse(reader.nextMember());
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] gz = gzip("some text that is long enough to be truncated");
+        byte[] truncated = Arrays.copyOf(gz, gz.length - 3);
+        try (GzipMemberReader reader =
+                new GzipMemberReader(new ByteArrayInputStream(truncated), 0)) {
+            assertTrue(reader.nextMember());
+            assertThrows(EOFException.class, () -> read(reader));
+        }
+    }
+
+    @Test
+    public void testBadCrc() throws Exception {
+        byte[] gz = gzip("some text");
+        // the crc is the first four bytes of the trailer
+        gz[gz.length - 8] ^= 1;
+        try (GzipMemberReader reader = new GzipMemberReader(new ByteArrayInputStream(gz), 0)) {
+            assertTrue(reader.nextMember());
+            assertThrows(ZipException.class, () -> read(reader));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void testOverlapping() {
+        // "she" is found through the failure link from "sh" to "h"
+        AhoCorasick automaton = new AhoCorasick(List.of("he", "hers", "his", "she"), false);
+        assertTrue(automaton.isIn("ushers"));
+        assertTrue(automaton.isIn("ahis"));
+        assertTrue(automaton.isIn("sshe"));
+        assertFalse(automaton.isIn("hxs"));
+        assertFalse(automaton.isIn(""));
+        assertFalse(automaton.isIn("HERS"));
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        AhoCorasick automaton = new AhoCorasick(List.of("PDF", "Straße"), true);
+        assertTrue(automaton.isIn("a.pdf"));
+        assertTrue(automaton.isIn("STRASSE-STRAßE"));
+        assertFalse(automaton.isIn("a.pd"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(new AhoCorasick(List.of("a", ""), false).isIn("xyz"));
+        assertFalse(new AhoCorasick(List.of(), false).isIn("xyz"));
+    }
+
+    @Test
+    public void testSameAsContains() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<String> substrings = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(20); i++) {
+                substrings.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            boolean ignoreCase = random.nextBoolean();
+            AhoCorasick automaton = new AhoCorasick(substrings, ignoreCase);
+            for (int i = 0; i < 200; i++) {
+                String s = randomString(random, random.nextInt(30));
+                boolean expected = false;
+                for (String substring : substrings) {
+                    if (ignoreCase
+                            ? s.toLowerCase(Locale.ROOT)
+                                    .contains(substring.toLowerCase(Locale.ROOT))
+                            : s.contains(substring)) {
+                        expected = true;
+                    }
+                }
+                assertEquals(expected, automaton.isIn(s), substrings + " " + s);
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            // a small alphabet, so that there are plenty of partial matches
+            sb.append("abcAB/é".charAt(random.nextInt(7)));
+        }
+        return sb.toString();
+    }
+}
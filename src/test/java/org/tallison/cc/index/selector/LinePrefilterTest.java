@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.tallison.cc.index.CCIndexRecord;
+import org.tallison.cc.index.Surt;
+
+public class LinePrefilterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void testMustMatch() throws Exception {
+        LinePrefilter prefilter =
+                prefilter("{\"must\": {\"mime_detected\": [{\"match\": \"application/pdf\"}]}}");
+        assertTrue(mayMatch(prefilter, line("https://example.com/a", "application/pdf", "200")));
+        assertFalse(mayMatch(prefilter, line("https://example.com/a", "text/html", "200")));
+        // no false negatives if the json escapes the '/'
+        assertTrue(mayMatch(prefilter, line("https://example.com/a", "application\\/pdf", "200")));
+    }
+
+    @Test
+    public void testCaseInsensitive() throws Exception {
+        LinePrefilter prefilter =
+                prefilter(
+                        "{\"must\": {\"mime\": [{\"match\": \"Application/PDF\", "
+                                + "\"case_sensitive\": false}]}}");
+        assertTrue(mayMatch(prefilter, line("https://example.com/a", "application/pdf", "200")));
+        assertFalse(mayMatch(prefilter, line("https://example.com/a", "application/zip", "200")));
+    }
+
+    @Test
+    public void testShould() throws Exception {
+        LinePrefilter prefilter =
+                prefilter(
+                        "{\"should\": {\"url\": [{\"extensions\": \"pdf,docx\"}], "
+                                + "\"status\": [{\"match\": \"404\"}]}}");
+        assertTrue(mayMatch(prefilter, line("https://example.com/a.PDF", "text/html", "200")));
+        assertTrue(mayMatch(prefilter, line("https://example.com/a.html", "text/html", "404")));
+        assertFalse(mayMatch(prefilter, line("https://example.com/a.html", "text/html", "200")));
+
+        // one should clause that can't be checked means none of them can
+        assertNull(
+                prefilter(
+                        "{\"should\": {\"url\": [{\"extensions\": \"pdf\"}], "
+                                + "\"host\": [{\"match\": \"example.com\"}]}}"));
+        // but the must clauses still can
+        assertNotNull(
+                prefilter(
+                        "{\"must\": {\"status\": [{\"match\": \"200\"}]}, "
+                                + "\"should\": {\"host\": [{\"match\": \"example.com\"}]}}"));
+        assertNull(prefilter("{\"must\": {\"url\": [{\"pattern\": \"pdf|doc\"}]}}"));
+    }
+
+    @Test
+    public void testSurtPrefixes() throws Exception {
+        // only the SURT key is checked
+        LinePrefilter prefilter =
+                prefilter("{\"must\": {\"host\": [{\"match\": \"www.example.com\"}]}}");
+        assertTrue(mayMatch(prefilter, line("https://example.com/a", "text/html", "200")));
+        assertFalse(mayMatch(prefilter, line("https://exa.org/example.com", "text/html", "200")));
+
+        prefilter = prefilter("{\"must\": {\"tld\": [{\"match\": \"org\"}]}}");
+        assertTrue(mayMatch(prefilter, line("https://exa.org/", "text/html", "200")));
+        assertFalse(mayMatch(prefilter, line("https://example.com/org", "text/html", "200")));
+    }
+
+    @Test
+    public void testSurtPrefixesOfCanonicalizedKeys() throws Exception {
+        // the crawler drops the www2. and the trailing '/' from the key
+        LinePrefilter prefilter =
+                prefilter(
+                        "{\"must\": {\"url\": "
+                                + "[{\"prefix\": \"https://www2.example.com/docs/\"}]}}");
+        assertTrue(mayMatch(prefilter, line("com,example)/docs",
+                "https://www2.example.com/docs/", "text/html", "200")));
+        assertTrue(mayMatch(prefilter, line("com,example)/docs/a.html",
+                "https://www2.example.com/docs/a.html", "text/html", "200")));
+        assertFalse(mayMatch(prefilter, line("com,example)/e",
+                "https://www2.example.com/e", "text/html", "200")));
+
+        prefilter = prefilter("{\"must\": {\"host\": [{\"match\": \"www2.example.com\"}]}}");
+        assertTrue(mayMatch(prefilter, line("com,example)/",
+                "https://www2.example.com/", "text/html", "200")));
+    }
+
+    @Test
+    public void testTimestampRange() throws Exception {
+        LinePrefilter prefilter =
+                prefilter(
+                        "{\"must\": {\"timestamp\": [{\"after\": \"202407\", "
+                                + "\"before\": \"20240722120756\"}]}}");
+        String line = line("https://example.com/a", "text/html", "200");
+        // before is exclusive
+        assertFalse(mayMatch(prefilter, line));
+        assertTrue(mayMatch(prefilter, line.replace(" 20240722120756 ", " 20240722120755 ")));
+        assertTrue(mayMatch(prefilter, line.replace(" 20240722120756 ", " 20240701000000 ")));
+        assertFalse(mayMatch(prefilter, line.replace(" 20240722120756 ", " 20240630235959 ")));
+
+        // a range on any other field can't be checked
+        assertNull(prefilter("{\"must\": {\"url\": [{\"after\": \"https://m\"}]}}"));
+        assertNull(prefilter("{\"should\": {\"timestamp\": [{\"before\": \"2024\"}]}}"));
+    }
+
+    @Test
+    public void testNoFalseNegatives() throws Exception {
+        List<String> selectors =
+                List.of(
+                        "{\"must\": {\"mime_detected\": [{\"match\": \"application/pdf\"}]}}",
+                        "{\"must\": {\"url\": [{\"extensions\": \"pdf\"}], "
+                                + "\"status\": [{\"match\": \"200\"}]}}",
+                        "{\"must\": {\"url\": [{\"prefix\": \"https://ex\"}]}}",
+                        "{\"must\": {\"url\": [{\"pattern\": \"\\\\.pdf$\"}]}}",
+                        "{\"must\": {\"surt\": [{\"pattern\": \"^com,ex[a-z]+\\\\)\"}]}}",
+                        "{\"must\": {\"surt\": [{\"prefix\": \"com,ex\"}]}}",
+                        "{\"must\": {\"host\": [{\"match\": \"example.com\"}]}}",
+                        "{\"must\": {\"host\": [{\"any_of\": [\"example.com\", \"x.com\", "
+                                + "\"a.com\", \"example.co\", \"z.org\"]}]}}",
+                        "{\"should\": {\"tld\": [{\"match\": \"org\"}]}}",
+                        "{\"must\": {\"timestamp\": [{\"after\": \"2024\"}]}}",
+                        "{\"should\": {\"mime\": [{\"match\": \"TEXT/HTML\", "
+                                + "\"case_sensitive\": false}], "
+                                + "\"status\": [{\"match\": \"404\"}]}}");
+        String[] hosts = {"example.com", "exa.org", "x.com"};
+        String[] paths = {"/a.pdf", "/b.PDF", "/c.html", "/", "/pdf"};
+        String[] mimes = {"application/pdf", "text/html", "Text/HTML", "application/zip"};
+        String[] statuses = {"200", "404", "301"};
+        Random random = new Random(42);
+        for (String json : selectors) {
+            RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+            LinePrefilter prefilter = selector.getLinePrefilter();
+            assertNotNull(prefilter, json);
+            int selected = 0;
+            for (int i = 0; i < 2000; i++) {
+                String host = hosts[random.nextInt(hosts.length)];
+                // moves the literals to every position relative to the 8 byte words
+                String url =
+                        "https://" + host + "/" + "x".repeat(random.nextInt(16))
+                                + paths[random.nextInt(paths.length)];
+                String line =
+                        line(
+                                url,
+                                mimes[random.nextInt(mimes.length)],
+                                statuses[random.nextInt(statuses.length)]);
+                if (selector.select(CCIndexRecord.parseRecord(line).get())) {
+                    selected++;
+                    assertTrue(mayMatch(prefilter, line), json + " " + line);
+                }
+            }
+            assertTrue(selected > 0, json);
+        }
+    }
+
+    @Test
+    public void testLiteralAtEveryOffset() {
+        LinePrefilter.Literal literal = new LinePrefilter.Literal("\"pdf", true);
+        for (int pad = 0; pad < 20; pad++) {
+            byte[] bytes = ("x".repeat(pad) + "\"PdF" + "y".repeat(pad % 3))
+                    .getBytes(StandardCharsets.UTF_8);
+            assertTrue(literal.isIn(bytes, 0, bytes.length), "pad " + pad);
+            // not if the range stops short of the literal's last byte
+            assertFalse(literal.isIn(bytes, 0, pad + 3), "pad " + pad);
+        }
+        assertFalse(literal.isIn(new byte[0], 0, 0));
+    }
+
+    private static LinePrefilter prefilter(String json) throws Exception {
+        return MAPPER.readValue(json, RecordSelector.class).getLinePrefilter();
+    }
+
+    private static boolean mayMatch(LinePrefilter prefilter, String line) {
+        byte[] bytes = ("junk before\n" + line).getBytes(StandardCharsets.UTF_8);
+        int offset = "junk before\n".length();
+        return prefilter.mayMatch(bytes, offset, bytes.length - offset);
+    }
+
+    private static String line(String url, String mime, String status) {
+        return line(Surt.toSurtPrefix(url), url, mime, status);
+    }
+
+    private static String line(String surt, String url, String mime, String status) {
+        return surt + " 20240722120756 {\"url\": \"" + url + "\", \"mime\": \"" + mime
+                + "\", \"mime-detected\": \"" + mime + "\", \"status\": \"" + status
+                + "\", \"length\": \"100\", \"offset\": \"200\", \"filename\": \"a.warc.gz\"}";
+    }
+}
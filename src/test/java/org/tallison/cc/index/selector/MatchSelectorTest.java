@@ -16,28 +16,31 @@
  */
 package org.tallison.cc.index.selector;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
+import org.tallison.cc.index.CCIndexRecord;
+
 public class MatchSelectorTest {
 
     @Test
     public void testExactMatchCaseSensitive() {
-        MatchSelector selector = new MatchSelector("text/html", null, null);
+        MatchSelector selector = new MatchSelector("text/html", null, null, null);
         assertTrue(selector.select("text/html"));
     }
 
     @Test
     public void testExactMatchCaseSensitiveFails() {
-        MatchSelector selector = new MatchSelector("text/html", null, null);
+        MatchSelector selector = new MatchSelector("text/html", null, null, null);
         assertFalse(selector.select("TEXT/HTML"));
     }
 
     @Test
     public void testCaseInsensitiveMatch() {
-        MatchSelector selector = new MatchSelector("text/html", null, false);
+        MatchSelector selector = new MatchSelector("text/html", null, null, false);
         assertTrue(selector.select("TEXT/HTML"));
         assertTrue(selector.select("Text/Html"));
         assertTrue(selector.select("text/html"));
@@ -45,13 +48,13 @@ public class MatchSelectorTest {
 
     @Test
     public void testNoMatch() {
-        MatchSelector selector = new MatchSelector("text/html", null, null);
+        MatchSelector selector = new MatchSelector("text/html", null, null, null);
         assertFalse(selector.select("application/pdf"));
     }
 
     @Test
     public void testSampleOneAlwaysSelects() {
-        MatchSelector selector = new MatchSelector("text/html", 1.0, null);
+        MatchSelector selector = new MatchSelector("text/html", 1.0, null, null);
         // With sample=1.0, every match should be selected
         for (int i = 0; i < 100; i++) {
             assertTrue(selector.select("text/html"));
@@ -60,7 +63,7 @@ public class MatchSelectorTest {
 
     @Test
     public void testSampleZeroAlwaysRejects() {
-        MatchSelector selector = new MatchSelector("text/html", 0.0, null);
+        MatchSelector selector = new MatchSelector("text/html", 0.0, null, null);
         // With sample=0.0, even a match should be rejected
         for (int i = 0; i < 100; i++) {
             assertFalse(selector.select("text/html"));
@@ -69,10 +72,34 @@ public class MatchSelectorTest {
 
     @Test
     public void testSampleNullDefaultsToAll() {
-        MatchSelector selector = new MatchSelector("200", null, null);
+        MatchSelector selector = new MatchSelector("200", null, null, null);
         // null sample means SampleAll, so all matches should be selected
         for (int i = 0; i < 100; i++) {
             assertTrue(selector.select("200"));
         }
     }
+
+    @Test
+    public void testSampleIsDeterministic() {
+        MatchSelector selector = new MatchSelector("text/html", 0.3, null, null);
+        MatchSelector same = new MatchSelector("text/html", 0.3, null, null);
+        MatchSelector reseeded = new MatchSelector("text/html", 0.3, 7L, null);
+        int selected = 0;
+        int differ = 0;
+        for (int i = 0; i < 10000; i++) {
+            CCIndexRecord record = new CCIndexRecord();
+            record.setUrl("https://example.com/page-" + i);
+            boolean picked = selector.select("text/html", record);
+            assertEquals(picked, selector.select("text/html", record));
+            assertEquals(picked, same.select("text/html", record));
+            if (picked != reseeded.select("text/html", record)) {
+                differ++;
+            }
+            if (picked) {
+                selected++;
+            }
+        }
+        assertEquals(3000, selected, 200);
+        assertTrue(differ > 1000, "another seed should pick another subset: " + differ);
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+/**
+ * Runs the selectors from {@code examples/recipes} over a mix of records shaped like Common
+ * Crawl's: {@code compiled} is {@link RecordSelector#select(CCIndexRecord)}, {@code
+ * interpreted} is the map walk with a lookup of every clause's field that it replaced.
+ *
+ * <p>Run from the project directory with {@code java -cp <test classpath>
+ * org.tallison.cc.index.selector.RecordSelectorBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecordSelectorBenchmark {
+
+    private static final String[] HOSTS = {
+        "www.example.com", "news.example.ru", "shop.example.de", "example.com.ua", "blog.example.jp"
+    };
+    private static final String[] MIMES = {
+        "text/html", "text/html", "text/html", "text/html", "application/xhtml+xml",
+        "application/pdf", "image/jpeg", "application/msword"
+    };
+    private static final String[] CHARSETS = {"UTF-8", "UTF-8", "UTF-8", "windows-1251", ""};
+    private static final int[] STATUSES = {200, 200, 200, 200, 301, 404};
+
+    @Param({"pdf", "office-documents", "images", "charset-cyrillic-non-utf8", "charset-long-tail"})
+    String recipe;
+
+    @Param({"1000"})
+    int records;
+
+    private RecordSelector selector;
+    private CCIndexRecord[] recordArray;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        selector =
+                mapper.treeToValue(
+                        mapper.readTree(Paths.get("examples/recipes", recipe + ".json").toFile())
+                                .get("recordSelector"),
+                        RecordSelector.class);
+        Random random = new Random(42);
+        recordArray = new CCIndexRecord[records];
+        for (int i = 0; i < records; i++) {
+            String mime = MIMES[random.nextInt(MIMES.length)];
+            String line =
+                    "com,example)/page-" + i + " 20250207120756 {\"url\": \"https://"
+                            + HOSTS[random.nextInt(HOSTS.length)] + "/page-" + i + "\", "
+                            + "\"mime\": \"" + mime + "\", \"mime-detected\": \"" + mime + "\", "
+                            + "\"status\": \"" + STATUSES[random.nextInt(STATUSES.length)] + "\", "
+                            + "\"charset\": \"" + CHARSETS[random.nextInt(CHARSETS.length)]
+                            + "\", \"length\": \"1000\", \"offset\": \"" + i * 1000 + "\"}";
+            recordArray[i] = CCIndexRecord.parseRecord(line).orElseThrow();
+        }
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) {
+        for (CCIndexRecord record : recordArray) {
+            blackhole.consume(selector.select(record));
+        }
+    }
+
+    @Benchmark
+    public void interpreted(Blackhole blackhole) {
+        for (CCIndexRecord record : recordArray) {
+            blackhole.consume(interpret(selector, record));
+        }
+    }
+
+    private static boolean interpret(RecordSelector selector, CCIndexRecord record) {
+        for (Map.Entry<String, List<SelectorClause>> e : selector.must_not.entrySet()) {
+            String val = SelectorPlan.Field.forKey(e.getKey()).get(record);
+            if (val == null) {
+                continue;
+            }
+            for (SelectorClause clause : e.getValue()) {
+                if (clause.select(val)) {
+                    return false;
+                }
+            }
+        }
+        for (Map.Entry<String, List<SelectorClause>> e : selector.must.entrySet()) {
+            String val = SelectorPlan.Field.forKey(e.getKey()).get(record);
+            if (val == null) {
+                return false;
+            }
+            for (SelectorClause clause : e.getValue()) {
+                if (!clause.select(val)) {
+                    return false;
+                }
+            }
+        }
+        if (selector.should.isEmpty()) {
+            return true;
+        }
+        for (Map.Entry<String, List<SelectorClause>> e : selector.should.entrySet()) {
+            String val = SelectorPlan.Field.forKey(e.getKey()).get(record);
+            if (val == null) {
+                continue;
+            }
+            for (SelectorClause clause : e.getValue()) {
+                if (clause.select(val)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                        new OptionsBuilder()
+                                .include(RecordSelectorBenchmark.class.getSimpleName())
+                                .build())
+                .run();
+    }
+}
@@ -16,11 +16,22 @@
  */
 package org.tallison.cc.index.selector;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.tallison.cc.index.CCIndexRecord;
 
@@ -166,6 +177,26 @@ public class RecordSelectorTest {
         assertFalse(selector.select(record2));
     }
 
+    @Test
+    public void testRegexEngines() throws Exception {
+        for (String engine : new String[] {"java", "re2j", "RE2J"}) {
+            String json =
+                    "{\"must\":{\"url\":[{\"pattern\":\"\\\\.pdf(\\\\?.*)?$\", "
+                            + "\"engine\":\"" + engine + "\"}]}}";
+            RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+            assertTrue(selector.select(makeRecord("https://example.com/a.pdf?b", 200, "a", "a")));
+            assertFalse(selector.select(makeRecord("https://example.com/a.pdf/b", 200, "a", "a")));
+            assertFalse(selector.select(makeRecord("https://example.com/a.html", 200, "a", "a")));
+        }
+        // no backreferences in re2j
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new RegexSelector("(a)\\1", null, null, "re2j"));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new RegexSelector("a", null, null, "pcre"));
+    }
+
     @Test
     public void testExtensionsSelector() throws Exception {
         String json = "{\"should\":{\"url\":[{\"extensions\":\"pdf,doc\"}]}}";
@@ -186,4 +217,237 @@ public class RecordSelectorTest {
         CCIndexRecord record = makeRecord("https://example.com/", 200, "text/html", "text/html");
         assertTrue(selector.select(record));
     }
+
+    @Test
+    public void testSurtPrefixClause() throws Exception {
+        String json = "{\"must\":{\"surt\":[{\"prefix\":\"com,example)/a\"}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        // makeRecord's surt key is com,example)/
+        assertFalse(selector.select(makeRecord("https://example.com/", 200, "a", "a")));
+        json = "{\"must\":{\"surt\":[{\"prefix\":\"com,example)\"}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertTrue(selector.select(makeRecord("https://example.com/", 200, "a", "a")));
+    }
+
+    @Test
+    public void testTimestampRange() throws Exception {
+        // makeRecord's timestamp is 20230101120000
+        String json = "{\"must\":{\"timestamp\":[{\"after\":\"2023\",\"before\":\"202302\"}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        assertTrue(selector.select(makeRecord("https://example.com/", 200, "a", "a")));
+        json = "{\"must\":{\"timestamp\":[{\"before\":\"20230101120000\"}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertFalse(selector.select(makeRecord("https://example.com/", 200, "a", "a")));
+        json = "{\"must\":{\"timestamp\":[{\"after\":\"20230101120000\"}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertTrue(selector.select(makeRecord("https://example.com/", 200, "a", "a")));
+    }
+
+    @Test
+    public void testFieldsComputedOncePerRecord() throws Exception {
+        String json =
+                "{\"must_not\":{\"host\":[{\"match\":\"spam.com\"}]},"
+                        + "\"must\":{\"host\":[{\"pattern\":\"example\"}]},"
+                        + "\"should\":{\"host\":[{\"match\":\"a.com\"}, "
+                        + "{\"match\":\"example.com\"}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        AtomicInteger hosts = new AtomicInteger();
+        CCIndexRecord record =
+                new CCIndexRecord() {
+                    @Override
+                    public String getHost() {
+                        hosts.incrementAndGet();
+                        return "example.com";
+                    }
+                };
+        assertTrue(selector.select(record));
+        assertEquals(1, hosts.get());
+        // and again for the next one
+        assertTrue(selector.select(record));
+        assertEquals(2, hosts.get());
+    }
+
+    @Test
+    public void testUnsupportedKey() throws Exception {
+        String json = "{\"must\":{\"colour\":[{\"match\":\"blue\"}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> selector.select(makeRecord("https://example.com/", 200, "a", "a")));
+    }
+
+    @Test
+    public void testSurtPrefixes() throws Exception {
+        assertNull(RecordSelector.ACCEPT_ALL_RECORDS.getSurtPrefixes());
+
+        // a must clause is enough
+        String json =
+                "{\"must\":{\"mime\":[{\"match\":\"text/html\"}], "
+                        + "\"host\":[{\"match\":\"www.Example.com\"}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        assertEquals(List.of("com,example)", "com,example:"), selector.getSurtPrefixes());
+
+        // every should clause has to translate
+        json =
+                "{\"should\":{\"url\":[{\"prefix\":\"https://example.com/docs/\"}], "
+                        + "\"surt\":[{\"prefix\":\"org,apache,\"}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertEquals(
+                Set.of("com,example)/docs", "org,apache,"),
+                new HashSet<>(selector.getSurtPrefixes()));
+
+        json =
+                "{\"should\":{\"url\":[{\"prefix\":\"https://example.com/docs/\"}], "
+                        + "\"mime\":[{\"match\":\"text/html\"}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertNull(selector.getSurtPrefixes());
+
+        // not the whole host
+        json = "{\"must\":{\"url\":[{\"prefix\":\"https://example.co\"}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertNull(selector.getSurtPrefixes());
+
+        json = "{\"should\":{\"tld\":[{\"match\":\"DE\"}, {\"match\":\"at\"}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        // sorted
+        assertEquals(List.of("at,", "de,"), selector.getSurtPrefixes());
+
+        // the keys are lowercase, so a key that matches ignoring case is the lowercase one
+        json =
+                "{\"must\":{\"surt\":[{\"match\":\"COM,Example)/Docs\", "
+                        + "\"case_sensitive\": false}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertEquals(List.of("com,example)/docs"), selector.getSurtPrefixes());
+
+        // and without the ones that start with another
+        json =
+                "{\"should\":{\"surt\":[{\"prefix\":\"com,example)/a/\"}, "
+                        + "{\"prefix\":\"com,example)/\"}, {\"prefix\":\"com,example)/b\"}], "
+                        + "\"host\":[{\"any_of\":[\"example.org\", \"example.com\"]}]}}";
+        selector = MAPPER.readValue(json, RecordSelector.class);
+        assertEquals(
+                List.of("com,example)", "com,example:", "org,example)", "org,example:"),
+                selector.getSurtPrefixes());
+    }
+
+    @Test
+    public void testAnyOf(@TempDir Path dir) throws Exception {
+        Path hosts = dir.resolve("hosts.txt");
+        Files.write(hosts, List.of("# hosts", "example.org", "", "EXAMPLE.net"));
+        String json =
+                "{\"must\":{\"host\":[{\"any_of\":[\"example.com\"], \"any_of_file\":\""
+                        + hosts.toString().replace("\\", "\\\\")
+                        + "\", \"case_sensitive\": false}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        assertTrue(selector.select(makeRecord("https://example.com/", 200, "a", "a")));
+        assertTrue(selector.select(makeRecord("https://example.org/", 200, "a", "a")));
+        assertTrue(selector.select(makeRecord("https://example.net/", 200, "a", "a")));
+        assertFalse(selector.select(makeRecord("https://example.de/", 200, "a", "a")));
+        assertEquals(6, selector.getSurtPrefixes().size());
+    }
+
+    @Test
+    public void testContainsAny() throws Exception {
+        String json =
+                "{\"must\":{\"url\":[{\"contains_any\":[\"/wp-admin/\", \"sessionid=\"]}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        assertTrue(selector.select(makeRecord("https://example.com/wp-admin/", 200, "a", "a")));
+        assertTrue(selector.select(makeRecord("https://example.com/?sessionid=1", 200, "a", "a")));
+        assertFalse(selector.select(makeRecord("https://example.com/wp-admin", 200, "a", "a")));
+    }
+
+    @Test
+    public void testQuotaWithKeys() throws Exception {
+        String json =
+                "{\"must\":{\"status\":[{\"match\":\"200\"}]},"
+                        + "\"quota\":{\"field\":\"mime_detected\",\"max\":2,"
+                        + "\"keys\":[\"application/pdf\",\"text/html\"]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        CCIndexRecord pdf = makeRecord("https://example.com/a.pdf", 200, "x", "application/pdf");
+        CCIndexRecord html = makeRecord("https://example.com/", 200, "x", "text/html");
+        CCIndexRecord png = makeRecord("https://example.com/a.png", 200, "x", "image/png");
+        CCIndexRecord missing =
+                makeRecord("https://example.com/b.pdf", 404, "x", "application/pdf");
+
+        assertFalse(selector.select(png));
+        // records the clauses reject don't use up the quota
+        assertFalse(selector.select(missing));
+        assertTrue(selector.select(pdf));
+        assertTrue(selector.select(pdf));
+        assertFalse(selector.select(pdf));
+        assertFalse(selector.isDone());
+        assertTrue(selector.select(html));
+        assertTrue(selector.select(html));
+        assertTrue(selector.isDone());
+        assertFalse(selector.select(html));
+    }
+
+    @Test
+    public void testQuotaWithoutKeys() throws Exception {
+        String json = "{\"quota\":{\"field\":\"host\",\"max\":1}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        assertTrue(selector.select(makeRecord("https://a.com/1", 200, "x", "x")));
+        assertFalse(selector.select(makeRecord("https://a.com/2", 200, "x", "x")));
+        assertTrue(selector.select(makeRecord("https://b.com/1", 200, "x", "x")));
+        // there could always be another host
+        assertFalse(selector.isDone());
+        assertNull(selector.getSurtPrefixes());
+    }
+
+    @Test
+    public void testQuotaConcurrent() throws Exception {
+        Quota quota = new Quota("mime_detected", 1000, List.of("application/pdf"));
+        CCIndexRecord pdf = makeRecord("https://example.com/a.pdf", 200, "x", "application/pdf");
+        AtomicInteger acquired = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] =
+                    new Thread(
+                            () -> {
+                                for (int j = 0; j < 500; j++) {
+                                    if (quota.tryAcquire(pdf)) {
+                                        acquired.incrementAndGet();
+                                    }
+                                }
+                            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, acquired.get());
+        assertTrue(quota.isMet());
+    }
+
+    @Test
+    public void testQuotaKeysNarrowSurtPrefixes() throws Exception {
+        String json = "{\"quota\":{\"field\":\"tld\",\"max\":10,\"keys\":[\"de\",\"at\"]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        assertEquals(List.of("at,", "de,"), selector.getSurtPrefixes());
+        assertThrows(
+                IllegalArgumentException.class, () -> new Quota("mime_detected", 0, null));
+        assertThrows(IllegalArgumentException.class, () -> new Quota("nope", 1, null));
+    }
+
+    @Test
+    public void testSampledClausesAreIndependent() throws Exception {
+        String json =
+                "{\"must\":{"
+                        + "\"mime\":[{\"match\":\"text/html\",\"sample\":0.5}],"
+                        + "\"status\":[{\"match\":\"200\",\"sample\":0.5}]}}";
+        RecordSelector selector = MAPPER.readValue(json, RecordSelector.class);
+        RecordSelector same = MAPPER.readValue(json, RecordSelector.class);
+        int selected = 0;
+        for (int i = 0; i < 10000; i++) {
+            CCIndexRecord record =
+                    makeRecord("https://example.com/" + i, 200, "text/html", "text/html");
+            boolean picked = selector.select(record);
+            assertEquals(picked, same.select(record));
+            if (picked) {
+                selected++;
+            }
+        }
+        // both would pick the same half with the same salt
+        assertEquals(2500, selected, 200);
+    }
 }
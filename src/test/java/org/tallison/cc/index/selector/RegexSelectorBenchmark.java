@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link RegexSelector} with each engine over urls shaped like Common Crawl's. {@code
+ * extension} and {@code wordpress} are the kind of patterns people write; {@code nested} has
+ * nested quantifiers, and one in a hundred of the urls makes {@link java.util.regex.Pattern}
+ * backtrack exponentially on it. {@code noLiteral} has no literal the urls have to contain, so
+ * the pattern runs on every url.
+ *
+ * <p>Run with {@code java -cp <test classpath>
+ * org.tallison.cc.index.selector.RegexSelectorBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegexSelectorBenchmark {
+
+    private static final Map<String, String> PATTERNS =
+            Map.of(
+                    "extension", "\\.pdf(\\?.*)?$",
+                    "wordpress", "^https?://[^/]+/wp-content/uploads/",
+                    "nested", "/(\\w+\\.?)+\\.pdf$",
+                    "noLiteral", "^https?://[^/]+/[a-z]{2}/[^?]*$");
+
+    @Param({"extension", "wordpress", "nested", "noLiteral"})
+    String pattern;
+
+    @Param({"java", "re2j"})
+    String engine;
+
+    @Param({"1000"})
+    int urls;
+
+    private RegexSelector selector;
+    private String[] urlArray;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        selector = new RegexSelector(PATTERNS.get(pattern), null, null, engine);
+        Random random = new Random(42);
+        urlArray = new String[urls];
+        for (int i = 0; i < urls; i++) {
+            String host = "www.example" + random.nextInt(100) + ".com";
+            switch (random.nextInt(100)) {
+                case 0:
+                    // backtracking fodder for the nested pattern
+                    urlArray[i] = "https://" + host + "/a.pdf/" + "a".repeat(22) + "!";
+                    break;
+                case 1:
+                case 2:
+                    urlArray[i] = "https://" + host + "/wp-content/uploads/2024/07/f" + i + ".pdf";
+                    break;
+                default:
+                    urlArray[i] =
+                            "https://" + host + "/en/news/2024/07/article-" + i + ".html?ref=home";
+            }
+        }
+    }
+
+    @Benchmark
+    public void select(Blackhole blackhole) {
+        for (String url : urlArray) {
+            blackhole.consume(selector.select(url));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+                        new OptionsBuilder()
+                                .include(RegexSelectorBenchmark.class.getSimpleName())
+                                .build())
+                .run();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class RequiredLiteralTest {
+
+    @Test
+    public void testLiterals() {
+        assertEquals(".pdf", RequiredLiteral.of("\\.pdf(\\?.*)?$"));
+        assertEquals("/wp-content/", RequiredLiteral.of("^https?://[^/]+/wp-content/.*"));
+        assertEquals("text/", RequiredLiteral.of("text/.*"));
+        // the 's' may not be there, and the 'b's may repeat
+        assertEquals("http", RequiredLiteral.of("https?://"));
+        assertEquals("aab", RequiredLiteral.of("aab+c"));
+        assertEquals("xyz", RequiredLiteral.of("(abcdef)*xyz[abcdef]{2,}"));
+        assertEquals("-", RequiredLiteral.of("\\d+-\\d+"));
+    }
+
+    @Test
+    public void testNone() {
+        assertNull(RequiredLiteral.of(".*"));
+        assertNull(RequiredLiteral.of("pdf|docx"));
+        assertNull(RequiredLiteral.of("(?i)pdf"));
+        assertNull(RequiredLiteral.of("\\x41bc"));
+        assertNull(RequiredLiteral.of("\\Q.pdf\\E"));
+        assertNull(RequiredLiteral.of("a*"));
+    }
+
+    @Test
+    public void testRequired() {
+        // every string the pattern is found in contains the literal
+        String[] atoms = {"a", "b", "\\.", ".", "[ab]", "(a|b)", "(ab)", "\\d", "^", "$", "-"};
+        String[] quantifiers = {"", "", "", "*", "+", "?", "{2}", "{0,2}", "+?"};
+        Random random = new Random(42);
+        int withLiteral = 0;
+        for (int round = 0; round < 2000; round++) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < 1 + random.nextInt(6); i++) {
+                regex.append(atoms[random.nextInt(atoms.length)]);
+                regex.append(quantifiers[random.nextInt(quantifiers.length)]);
+            }
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex.toString());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            String literal = RequiredLiteral.of(regex.toString());
+            if (literal == null) {
+                continue;
+            }
+            withLiteral++;
+            for (int i = 0; i < 50; i++) {
+                StringBuilder s = new StringBuilder();
+                for (int j = 0; j < random.nextInt(8); j++) {
+                    s.append("ab.-1".charAt(random.nextInt(5)));
+                }
+                if (pattern.matcher(s).find()) {
+                    assertTrue(s.indexOf(literal) > -1, regex + " " + literal + " " + s);
+                }
+            }
+        }
+        assertTrue(withLiteral > 100);
+    }
+}
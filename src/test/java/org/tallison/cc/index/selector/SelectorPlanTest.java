@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tallison.cc.index.selector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.tallison.cc.index.CCIndexRecord;
+
+public class SelectorPlanTest {
+
+    @Test
+    public void testRejectingStepsMoveFirst() {
+        AtomicInteger urlCalls = new AtomicInteger();
+        SelectorClause passes =
+                val -> {
+                    urlCalls.incrementAndGet();
+                    return true;
+                };
+        SelectorClause rejects = "200"::equals;
+        Map<String, List<SelectorClause>> must = new LinkedHashMap<>();
+        must.put("url", List.of(passes));
+        must.put("status", List.of(rejects));
+        SelectorPlan plan = SelectorPlan.compile(Map.of(), must, Map.of(), 1, 10);
+        assertSame(passes, plan.getMust()[0].clause);
+
+        CCIndexRecord record = new CCIndexRecord();
+        record.setUrl("https://example.com/");
+        record.setStatus(404);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(plan.select(record));
+        }
+        assertEquals(10, urlCalls.get());
+        assertSame(rejects, plan.getMust()[0].clause);
+        // the url clause isn't evaluated for the records status rejects
+        for (int i = 0; i < 100; i++) {
+            assertFalse(plan.select(record));
+        }
+        assertEquals(10, urlCalls.get());
+    }
+
+    @Test
+    public void testResamples() {
+        Map<String, List<SelectorClause>> mustNot = new LinkedHashMap<>();
+        SelectorClause isPdf = "application/pdf"::equals;
+        SelectorClause is404 = "404"::equals;
+        mustNot.put("mime", List.of(isPdf));
+        mustNot.put("status", List.of(is404));
+        SelectorPlan plan = SelectorPlan.compile(mustNot, Map.of(), Map.of(), 1, 5);
+
+        CCIndexRecord pdf = new CCIndexRecord();
+        pdf.setMime("application/pdf");
+        pdf.setStatus(200);
+        for (int i = 0; i < 20; i++) {
+            assertFalse(plan.select(pdf));
+        }
+        assertSame(isPdf, plan.getMustNot()[0].clause);
+
+        // now the records are 404s instead
+        CCIndexRecord notFound = new CCIndexRecord();
+        notFound.setMime("text/html");
+        notFound.setStatus(404);
+        for (int i = 0; i < 5; i++) {
+            assertFalse(plan.select(notFound));
+        }
+        assertSame(is404, plan.getMustNot()[0].clause);
+    }
+}